@@ -0,0 +1,33 @@
+defmodule BarabaUmbrella.Repo.Migrations.CreateScannerRecognitionCache do
+  @moduledoc """
+  Content-addressed cache of Azure Document Intelligence results for the Scanner Service (Java).
+  A re-uploaded file with the same SHA-256 is served from here instead of a paid Azure call.
+  """
+  use Ecto.Migration
+
+  def up do
+    execute """
+    CREATE TABLE IF NOT EXISTS scanner_recognition_cache (
+      content_hash VARCHAR(64) PRIMARY KEY,
+      model_id VARCHAR(100) NOT NULL,
+      result JSONB NOT NULL,
+      invoice_count INTEGER NOT NULL,
+      hit_count BIGINT NOT NULL DEFAULT 0,
+      created_at TIMESTAMPTZ NOT NULL DEFAULT NOW(),
+      last_hit_at TIMESTAMPTZ
+    )
+    """
+
+    execute "CREATE INDEX IF NOT EXISTS idx_recognition_cache_created ON scanner_recognition_cache(created_at)"
+
+    # SHA-256 of the uploaded file, computed while it is written to disk
+    execute "ALTER TABLE scan_session_files ADD COLUMN IF NOT EXISTS content_hash VARCHAR(64)"
+
+    execute "COMMENT ON TABLE scanner_recognition_cache IS 'Recognition results keyed by SHA-256 of the uploaded file'"
+  end
+
+  def down do
+    execute "ALTER TABLE scan_session_files DROP COLUMN IF EXISTS content_hash"
+    execute "DROP TABLE IF EXISTS scanner_recognition_cache"
+  end
+end
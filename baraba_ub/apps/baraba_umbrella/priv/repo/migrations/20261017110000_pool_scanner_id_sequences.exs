@@ -0,0 +1,19 @@
+defmodule BarabaUmbrella.Repo.Migrations.PoolScannerIdSequences do
+  @moduledoc """
+  The Scanner Service (Java) allocates ids for scan_session_files and scanned_invoices 50 at a
+  time (Hibernate pooled optimizer), so it can batch inserts. Each nextval reserves the 50 ids
+  ending at the returned value; rows inserted with the column default simply take that value,
+  so both writers can keep using the same sequence.
+  """
+  use Ecto.Migration
+
+  def up do
+    execute "ALTER SEQUENCE scan_session_files_id_seq INCREMENT BY 50"
+    execute "ALTER SEQUENCE scanned_invoices_id_seq INCREMENT BY 50"
+  end
+
+  def down do
+    execute "ALTER SEQUENCE scan_session_files_id_seq INCREMENT BY 1"
+    execute "ALTER SEQUENCE scanned_invoices_id_seq INCREMENT BY 1"
+  end
+end
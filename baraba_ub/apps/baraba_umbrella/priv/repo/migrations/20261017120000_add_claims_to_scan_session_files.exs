@@ -0,0 +1,26 @@
+defmodule BarabaUmbrella.Repo.Migrations.AddClaimsToScanSessionFiles do
+  @moduledoc """
+  Batch claims for the Scanner Service (Java). A worker marks the files of the batch it works
+  on as PROCESSING with its claim token, so sessions survive restarts and can be shared by
+  several instances; an expired claim is taken over by another worker.
+  """
+  use Ecto.Migration
+
+  def up do
+    execute "ALTER TABLE scan_session_files ADD COLUMN IF NOT EXISTS claimed_by VARCHAR(100)"
+    execute "ALTER TABLE scan_session_files ADD COLUMN IF NOT EXISTS claimed_at TIMESTAMPTZ"
+
+    # Workers look for the next claimable batch through its first file
+    execute """
+    CREATE INDEX IF NOT EXISTS idx_session_files_batch_head
+    ON scan_session_files(session_id, batch_number)
+    WHERE page_in_batch = 1 AND status IN ('PENDING', 'PROCESSING')
+    """
+  end
+
+  def down do
+    execute "DROP INDEX IF EXISTS idx_session_files_batch_head"
+    execute "ALTER TABLE scan_session_files DROP COLUMN IF EXISTS claimed_at"
+    execute "ALTER TABLE scan_session_files DROP COLUMN IF EXISTS claimed_by"
+  end
+end
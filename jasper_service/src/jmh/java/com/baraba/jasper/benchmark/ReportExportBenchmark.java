@@ -0,0 +1,47 @@
+package com.baraba.jasper.benchmark;
+
+import com.baraba.jasper.service.ReportService;
+import net.sf.jasperreports.engine.JasperFillManager;
+import net.sf.jasperreports.engine.JasperPrint;
+import net.sf.jasperreports.engine.JasperReport;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Export cost per format for an already filled journal, through the same
+ * {@link ReportService#exportReport} code path the endpoints use.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ReportExportBenchmark {
+
+    @Param({"pdf", "xlsx", "html", "csv"})
+    public String format;
+
+    @Param({"100", "1000", "10000"})
+    public int rows;
+
+    // exportReport does not touch the injected collaborators
+    private final ReportService reportService = new ReportService();
+
+    private JasperPrint jasperPrint;
+
+    @Setup
+    public void setUp() throws Exception {
+        JasperReport report = SyntheticReportData.compile("journal_chronological");
+        jasperPrint = JasperFillManager.fillReport(report,
+            SyntheticReportData.parameters(report),
+            SyntheticReportData.dataSource(SyntheticReportData.rows(report, rows)));
+    }
+
+    @Benchmark
+    public void export() throws Exception {
+        reportService.exportReport(jasperPrint, format, OutputStream.nullOutputStream());
+    }
+}
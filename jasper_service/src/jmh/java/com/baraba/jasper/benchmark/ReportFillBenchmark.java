@@ -0,0 +1,46 @@
+package com.baraba.jasper.benchmark;
+
+import net.sf.jasperreports.engine.JasperFillManager;
+import net.sf.jasperreports.engine.JasperPrint;
+import net.sf.jasperreports.engine.JasperReport;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Fill cost per template and row count, from an in-memory data source.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ReportFillBenchmark {
+
+    @Param({"trial_balance_6col", "journal_chronological"})
+    public String reportName;
+
+    @Param({"100", "1000", "10000"})
+    public int rows;
+
+    private JasperReport report;
+    private List<Map<String, ?>> data;
+    private Map<String, Object> parameters;
+
+    @Setup
+    public void setUp() throws Exception {
+        report = SyntheticReportData.compile(reportName);
+        data = SyntheticReportData.rows(report, rows);
+        parameters = SyntheticReportData.parameters(report);
+    }
+
+    @Benchmark
+    public JasperPrint fill() throws Exception {
+        // The fill adds built-in parameters to the map, so give it a fresh one each time
+        return JasperFillManager.fillReport(report, new HashMap<>(parameters), SyntheticReportData.dataSource(data));
+    }
+}
@@ -0,0 +1,98 @@
+package com.baraba.jasper.benchmark;
+
+import net.sf.jasperreports.engine.JRDataSource;
+import net.sf.jasperreports.engine.JRField;
+import net.sf.jasperreports.engine.JRParameter;
+import net.sf.jasperreports.engine.JasperCompileManager;
+import net.sf.jasperreports.engine.JasperReport;
+import net.sf.jasperreports.engine.data.JRMapCollectionDataSource;
+import org.springframework.core.io.ClassPathResource;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.math.BigDecimal;
+import java.sql.Timestamp;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Synthetic rows and parameters for filling the real templates without Postgres.
+ *
+ * Values are derived from the field classes declared in each template, so the
+ * benchmarks follow template changes without maintaining fixtures.
+ */
+final class SyntheticReportData {
+
+    static final LocalDate BASE_DATE = LocalDate.of(2024, 1, 1);
+
+    private SyntheticReportData() {
+    }
+
+    static byte[] templateSource(String reportName) throws IOException {
+        try (InputStream in = new ClassPathResource("reports/" + reportName + ".jrxml").getInputStream()) {
+            return in.readAllBytes();
+        }
+    }
+
+    static JasperReport compile(String reportName) throws Exception {
+        try (InputStream in = new ClassPathResource("reports/" + reportName + ".jrxml").getInputStream()) {
+            return JasperCompileManager.compileReport(in);
+        }
+    }
+
+    static List<Map<String, ?>> rows(JasperReport report, int count) {
+        List<Map<String, ?>> rows = new ArrayList<>(count);
+        JRField[] fields = report.getFields() != null ? report.getFields() : new JRField[0];
+        for (int i = 0; i < count; i++) {
+            Map<String, Object> row = new HashMap<>();
+            for (JRField field : fields) {
+                row.put(field.getName(), value(field.getValueClass(), i));
+            }
+            rows.add(row);
+        }
+        return rows;
+    }
+
+    static JRDataSource dataSource(List<Map<String, ?>> rows) {
+        return new JRMapCollectionDataSource(rows);
+    }
+
+    static Map<String, Object> parameters(JasperReport report) {
+        Map<String, Object> parameters = new HashMap<>();
+        for (JRParameter parameter : report.getParameters()) {
+            if (!parameter.isSystemDefined()) {
+                parameters.put(parameter.getName(), value(parameter.getValueClass(), 0));
+            }
+        }
+        return parameters;
+    }
+
+    private static Object value(Class<?> type, int i) {
+        if (type == String.class) {
+            // Groups of 20 rows share an account-like key so group bands are exercised
+            return String.valueOf(100 + i / 20);
+        }
+        if (type == BigDecimal.class) {
+            return BigDecimal.valueOf((i * 7919L) % 1_000_000, 2);
+        }
+        if (type == Long.class) {
+            return (long) i;
+        }
+        if (type == Integer.class) {
+            return i;
+        }
+        if (type == java.sql.Date.class || type == java.util.Date.class) {
+            return java.sql.Date.valueOf(BASE_DATE.plusDays(i % 365));
+        }
+        if (type == Timestamp.class) {
+            return Timestamp.valueOf(BASE_DATE.plusDays(i % 365).atStartOfDay());
+        }
+        if (type == Boolean.class) {
+            return i % 2 == 0;
+        }
+        return null;
+    }
+}
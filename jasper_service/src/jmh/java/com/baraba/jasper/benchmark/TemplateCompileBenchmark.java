@@ -0,0 +1,35 @@
+package com.baraba.jasper.benchmark;
+
+import net.sf.jasperreports.engine.JasperCompileManager;
+import net.sf.jasperreports.engine.JasperReport;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.ByteArrayInputStream;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of compiling a .jrxml template, i.e. what a cache miss costs.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class TemplateCompileBenchmark {
+
+    @Param({"trial_balance_6col", "journal_chronological", "trial_balance", "journal_entries", "counterparts", "balance_sheet"})
+    public String reportName;
+
+    private byte[] source;
+
+    @Setup
+    public void setUp() throws Exception {
+        source = SyntheticReportData.templateSource(reportName);
+    }
+
+    @Benchmark
+    public JasperReport compile() throws Exception {
+        return JasperCompileManager.compileReport(new ByteArrayInputStream(source));
+    }
+}
@@ -2,8 +2,10 @@ package com.baraba.jasper;
 
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.scheduling.annotation.EnableScheduling;
 
 @SpringBootApplication
+@EnableScheduling
 public class JasperServiceApplication {
     public static void main(String[] args) {
         SpringApplication.run(JasperServiceApplication.class, args);
@@ -1,19 +1,31 @@
 package com.baraba.jasper.controller;
 
+import com.baraba.jasper.model.BatchReportRequest;
 import com.baraba.jasper.model.ReportRequest;
+import com.baraba.jasper.service.BatchReportService;
+import com.baraba.jasper.service.FilledReport;
+import com.baraba.jasper.service.JasperPrintStore;
+import com.baraba.jasper.service.ReportResultCache;
 import com.baraba.jasper.service.ReportService;
+import jakarta.servlet.http.HttpServletRequest;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.NativeWebRequest;
+import org.springframework.web.context.request.async.CallableProcessingInterceptor;
+import org.springframework.web.context.request.async.WebAsyncUtils;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
+import java.io.IOException;
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
 
 @RestController
 @RequestMapping("/api/reports")
@@ -23,6 +35,15 @@ public class ReportController {
     @Autowired
     private ReportService reportService;
 
+    @Autowired
+    private ReportResultCache resultCache;
+
+    @Autowired
+    private JasperPrintStore printStore;
+
+    @Autowired
+    private BatchReportService batchReportService;
+
     @GetMapping("/health")
     public ResponseEntity<Map<String, Object>> health() {
         Map<String, Object> response = new HashMap<>();
@@ -38,26 +59,74 @@ public class ReportController {
         try {
             byte[] reportData = reportService.generateReport(request);
 
-            String filename = request.getReportName() + "_" +
-                LocalDateTime.now().format(DateTimeFormatter.ofPattern("yyyyMMdd_HHmmss")) +
-                reportService.getFileExtension(request.getFormat());
-
-            HttpHeaders headers = new HttpHeaders();
-            headers.setContentType(MediaType.parseMediaType(reportService.getContentType(request.getFormat())));
-            headers.setContentDispositionFormData("attachment", filename);
+            HttpHeaders headers = attachmentHeaders(request);
             headers.setContentLength(reportData.length);
 
             return new ResponseEntity<>(reportData, headers, HttpStatus.OK);
 
         } catch (Exception e) {
-            Map<String, Object> error = new HashMap<>();
-            error.put("success", false);
-            error.put("error", e.getMessage());
-            error.put("reportName", request.getReportName());
-            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body(error);
+            return errorResponse(request, e.getMessage(), HttpStatus.INTERNAL_SERVER_ERROR);
         }
     }
 
+    /**
+     * Same as /generate, but the export is written straight to the response with chunked
+     * transfer encoding instead of being buffered into a byte array first. The report is
+     * filled before the response starts, so SQL errors still come back as JSON. The fill is
+     * closed when the async request completes, also if it times out or the client goes away
+     * before the body runs.
+     */
+    @PostMapping("/generate/stream")
+    public ResponseEntity<?> streamReport(@RequestBody ReportRequest request, HttpServletRequest servletRequest) {
+        if (!reportService.isSupportedFormat(request.getFormat())) {
+            return errorResponse(request, "Unsupported format: " + request.getFormat(), HttpStatus.BAD_REQUEST);
+        }
+
+        FilledReport filled;
+        try {
+            filled = reportService.fillReport(request);
+        } catch (Exception e) {
+            return errorResponse(request, e.getMessage(), HttpStatus.INTERNAL_SERVER_ERROR);
+        }
+
+        WebAsyncUtils.getAsyncManager(servletRequest).registerCallableInterceptor(filled,
+            new CallableProcessingInterceptor() {
+                @Override
+                public <T> void afterCompletion(NativeWebRequest webRequest, Callable<T> task) {
+                    filled.close();
+                }
+            });
+
+        StreamingResponseBody body = out -> {
+            try (filled) {
+                reportService.exportReport(filled.getJasperPrint(), request.getFormat(), out);
+            } catch (IOException e) {
+                throw e;
+            } catch (Exception e) {
+                throw new IOException("Export failed for " + request.getReportName() + ": " + e.getMessage(), e);
+            }
+        };
+
+        return new ResponseEntity<>(body, attachmentHeaders(request), HttpStatus.OK);
+    }
+
+    @GetMapping("/stream/{reportName}")
+    public ResponseEntity<?> streamReportGet(
+            @PathVariable String reportName,
+            @RequestParam(defaultValue = "pdf") String format,
+            @RequestParam Map<String, String> allParams,
+            HttpServletRequest servletRequest) {
+
+        allParams.remove("format");
+
+        ReportRequest request = new ReportRequest();
+        request.setReportName(reportName);
+        request.setFormat(format);
+        request.setParameters(new HashMap<>(allParams));
+
+        return streamReport(request, servletRequest);
+    }
+
     @GetMapping("/generate/{reportName}")
     public ResponseEntity<?> generateReportGet(
             @PathVariable String reportName,
@@ -91,6 +160,137 @@ public class ReportController {
         return ResponseEntity.ok(response);
     }
 
+    /**
+     * Generate many reports in parallel and stream them back as a ZIP, entries in order
+     * of completion, with manifest.json (per-entry status and errors) as the last entry.
+     * POST /api/reports/batch
+     */
+    @PostMapping("/batch")
+    public ResponseEntity<?> generateBatch(@RequestBody BatchReportRequest batch) {
+        try {
+            batchReportService.validate(batch.getReports());
+        } catch (IllegalArgumentException e) {
+            Map<String, Object> error = new HashMap<>();
+            error.put("success", false);
+            error.put("error", e.getMessage());
+            return ResponseEntity.badRequest().body(error);
+        }
+
+        String filename = (batch.getName() != null ? batch.getName() : "reports") + "_" +
+            LocalDateTime.now().format(DateTimeFormatter.ofPattern("yyyyMMdd_HHmmss")) + ".zip";
+
+        HttpHeaders headers = new HttpHeaders();
+        headers.setContentType(MediaType.parseMediaType("application/zip"));
+        headers.setContentDispositionFormData("attachment", filename);
+
+        StreamingResponseBody body = out -> batchReportService.generateZip(batch.getReports(), out);
+        return new ResponseEntity<>(body, headers, HttpStatus.OK);
+    }
+
+    /**
+     * Fill a report once and keep it for a few minutes, then export it to any number of
+     * formats from /fill/{handle}/export without querying the database again.
+     * POST /api/reports/fill
+     */
+    @PostMapping("/fill")
+    public ResponseEntity<Map<String, Object>> fillReport(@RequestBody ReportRequest request) {
+        try {
+            String handle = reportService.fillAndRetain(request);
+            JasperPrintStore.Entry entry = printStore.getEntry(handle);
+
+            Map<String, Object> response = new HashMap<>();
+            response.put("success", true);
+            response.put("handle", handle);
+            response.put("reportName", request.getReportName());
+            response.put("pages", entry.getPages());
+            response.put("expiresAt", printStore.expiresAt(entry).toString());
+            return ResponseEntity.ok(response);
+
+        } catch (IllegalStateException e) {
+            // Print store disabled, or the report is too large to keep
+            return errorResponse(request, e.getMessage(), HttpStatus.UNPROCESSABLE_ENTITY);
+        } catch (Exception e) {
+            return errorResponse(request, e.getMessage(), HttpStatus.INTERNAL_SERVER_ERROR);
+        }
+    }
+
+    @GetMapping("/fill/{handle}/export")
+    public ResponseEntity<?> exportFilled(
+            @PathVariable String handle,
+            @RequestParam(defaultValue = "pdf") String format) {
+
+        JasperPrintStore.Entry entry = printStore.getEntry(handle);
+        ReportRequest request = new ReportRequest();
+        request.setFormat(format);
+        request.setReportName(entry != null ? entry.getReportName() : null);
+
+        if (entry == null) {
+            return errorResponse(request, "Unknown or expired handle: " + handle, HttpStatus.NOT_FOUND);
+        }
+        if (!reportService.isSupportedFormat(format)) {
+            return errorResponse(request, "Unsupported format: " + format, HttpStatus.BAD_REQUEST);
+        }
+
+        StreamingResponseBody body = out -> {
+            try {
+                if (!reportService.exportRetained(handle, format, out)) {
+                    throw new IOException("Filled report expired: " + handle);
+                }
+            } catch (IOException e) {
+                throw e;
+            } catch (Exception e) {
+                throw new IOException("Export failed for " + handle + ": " + e.getMessage(), e);
+            }
+        };
+
+        return new ResponseEntity<>(body, attachmentHeaders(request), HttpStatus.OK);
+    }
+
+    @DeleteMapping("/fill/{handle}")
+    public ResponseEntity<Map<String, Object>> releaseFilled(@PathVariable String handle) {
+        if (!printStore.remove(handle)) {
+            return ResponseEntity.notFound().build();
+        }
+        return ResponseEntity.ok(Map.of("success", true, "handle", handle));
+    }
+
+    /**
+     * Drop cached rendered reports, e.g. after journal entries of a company change.
+     * Without parameters the whole cache is cleared.
+     * POST /api/reports/cache/invalidate?reportName=trial_balance&companyId=1
+     */
+    @PostMapping("/cache/invalidate")
+    public ResponseEntity<Map<String, Object>> invalidateCache(
+            @RequestParam(required = false) String reportName,
+            @RequestParam(required = false) String companyId) {
+        int removed = resultCache.invalidate(reportName, companyId);
+        return ResponseEntity.ok(Map.of("success", true, "invalidated", removed));
+    }
+
+    @GetMapping("/cache/stats")
+    public ResponseEntity<Map<String, Object>> cacheStats() {
+        return ResponseEntity.ok(resultCache.stats());
+    }
+
+    private HttpHeaders attachmentHeaders(ReportRequest request) {
+        String filename = request.getReportName() + "_" +
+            LocalDateTime.now().format(DateTimeFormatter.ofPattern("yyyyMMdd_HHmmss")) +
+            reportService.getFileExtension(request.getFormat());
+
+        HttpHeaders headers = new HttpHeaders();
+        headers.setContentType(MediaType.parseMediaType(reportService.getContentType(request.getFormat())));
+        headers.setContentDispositionFormData("attachment", filename);
+        return headers;
+    }
+
+    private ResponseEntity<Map<String, Object>> errorResponse(ReportRequest request, String message, HttpStatus status) {
+        Map<String, Object> error = new HashMap<>();
+        error.put("success", false);
+        error.put("error", message);
+        error.put("reportName", request.getReportName());
+        return ResponseEntity.status(status).body(error);
+    }
+
     @GetMapping("/formats")
     public ResponseEntity<Map<String, Object>> listFormats() {
         Map<String, Object> response = new HashMap<>();
@@ -0,0 +1,121 @@
+package com.baraba.jasper.controller;
+
+import com.baraba.jasper.model.ReportJob;
+import com.baraba.jasper.model.ReportRequest;
+import com.baraba.jasper.service.ReportJobService;
+import com.baraba.jasper.service.ReportService;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.core.io.FileSystemResource;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Asynchronous report generation: submit a job, poll its status, download the result.
+ */
+@RestController
+@RequestMapping("/api/reports/jobs")
+@CrossOrigin(origins = "*")
+public class ReportJobController {
+
+    @Autowired
+    private ReportJobService jobService;
+
+    @Autowired
+    private ReportService reportService;
+
+    /**
+     * Submit a report for background generation
+     * POST /api/reports/jobs
+     */
+    @PostMapping
+    public ResponseEntity<Map<String, Object>> submit(@RequestBody ReportRequest request) {
+        try {
+            ReportJob job = jobService.submit(request);
+
+            Map<String, Object> response = new HashMap<>();
+            response.put("success", true);
+            response.put("jobId", job.getJobId());
+            response.put("status", job.getStatus());
+            response.put("message", "Report queued. Poll /api/reports/jobs/" + job.getJobId() + "/status for progress.");
+            return ResponseEntity.accepted().body(response);
+
+        } catch (IllegalArgumentException e) {
+            return error(request.getReportName(), e.getMessage(), HttpStatus.BAD_REQUEST);
+        } catch (IllegalStateException e) {
+            return error(request.getReportName(), e.getMessage(), HttpStatus.TOO_MANY_REQUESTS);
+        }
+    }
+
+    /**
+     * Get job status
+     * GET /api/reports/jobs/{jobId}/status
+     */
+    @GetMapping("/{jobId}/status")
+    public ResponseEntity<ReportJob> getStatus(@PathVariable String jobId) {
+        return jobService.getJob(jobId)
+            .map(ResponseEntity::ok)
+            .orElse(ResponseEntity.notFound().build());
+    }
+
+    /**
+     * Download the generated report once the job is COMPLETED
+     * GET /api/reports/jobs/{jobId}/download
+     */
+    @GetMapping("/{jobId}/download")
+    public ResponseEntity<?> download(@PathVariable String jobId) {
+        ReportJob job = jobService.getJob(jobId).orElse(null);
+        if (job == null) {
+            return ResponseEntity.notFound().build();
+        }
+        if (job.getStatus() != ReportJob.Status.COMPLETED) {
+            return error(job.getReportName(), "Job is " + job.getStatus(), HttpStatus.CONFLICT);
+        }
+
+        String filename = job.getReportName() + "_" + job.getJobId() + reportService.getFileExtension(job.getFormat());
+
+        HttpHeaders headers = new HttpHeaders();
+        headers.setContentType(MediaType.parseMediaType(reportService.getContentType(job.getFormat())));
+        headers.setContentDispositionFormData("attachment", filename);
+        headers.setContentLength(job.getResultSize());
+
+        return new ResponseEntity<>(new FileSystemResource(job.getResultPath()), headers, HttpStatus.OK);
+    }
+
+    /**
+     * Cancel a queued/running job or discard a finished one
+     * DELETE /api/reports/jobs/{jobId}
+     */
+    @DeleteMapping("/{jobId}")
+    public ResponseEntity<Map<String, Object>> cancel(@PathVariable String jobId) {
+        if (!jobService.cancel(jobId)) {
+            return ResponseEntity.notFound().build();
+        }
+        return ResponseEntity.ok(Map.of("success", true, "jobId", jobId));
+    }
+
+    /**
+     * Queue depth
+     * GET /api/reports/jobs/stats
+     */
+    @GetMapping("/stats")
+    public ResponseEntity<Map<String, Object>> stats() {
+        return ResponseEntity.ok(Map.of(
+            "queued", jobService.getQueuedCount(),
+            "running", jobService.getRunningCount()
+        ));
+    }
+
+    private ResponseEntity<Map<String, Object>> error(String reportName, String message, HttpStatus status) {
+        Map<String, Object> error = new HashMap<>();
+        error.put("success", false);
+        error.put("error", message);
+        error.put("reportName", reportName);
+        return ResponseEntity.status(status).body(error);
+    }
+}
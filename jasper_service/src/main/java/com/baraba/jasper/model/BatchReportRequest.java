@@ -0,0 +1,26 @@
+package com.baraba.jasper.model;
+
+import java.util.List;
+
+public class BatchReportRequest {
+    private String name; // Optional, used for the ZIP file name
+    private List<ReportRequest> reports;
+
+    // Getters
+    public String getName() {
+        return name;
+    }
+
+    public List<ReportRequest> getReports() {
+        return reports;
+    }
+
+    // Setters
+    public void setName(String name) {
+        this.name = name;
+    }
+
+    public void setReports(List<ReportRequest> reports) {
+        this.reports = reports;
+    }
+}
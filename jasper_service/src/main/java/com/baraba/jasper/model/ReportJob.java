@@ -0,0 +1,126 @@
+package com.baraba.jasper.model;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+
+import java.nio.file.Path;
+import java.time.Instant;
+
+public class ReportJob {
+
+    public enum Status {
+        QUEUED, RUNNING, COMPLETED, FAILED, CANCELLED
+    }
+
+    private final String jobId;
+    private final String tenant;
+    private final ReportRequest request;
+    private final Instant createdAt = Instant.now();
+
+    private volatile Status status = Status.QUEUED;
+    private volatile Instant startedAt;
+    private volatile Instant completedAt;
+    private volatile String error;
+    private volatile Path resultPath;
+    private volatile long resultSize;
+
+    public ReportJob(String jobId, String tenant, ReportRequest request) {
+        this.jobId = jobId;
+        this.tenant = tenant;
+        this.request = request;
+    }
+
+    // Getters
+    public String getJobId() {
+        return jobId;
+    }
+
+    public String getTenant() {
+        return tenant;
+    }
+
+    public String getReportName() {
+        return request.getReportName();
+    }
+
+    public String getFormat() {
+        return request.getFormat();
+    }
+
+    @JsonIgnore
+    public ReportRequest getRequest() {
+        return request;
+    }
+
+    public Status getStatus() {
+        return status;
+    }
+
+    public Instant getCreatedAt() {
+        return createdAt;
+    }
+
+    public Instant getStartedAt() {
+        return startedAt;
+    }
+
+    public Instant getCompletedAt() {
+        return completedAt;
+    }
+
+    public String getError() {
+        return error;
+    }
+
+    @JsonIgnore
+    public Path getResultPath() {
+        return resultPath;
+    }
+
+    public long getResultSize() {
+        return resultSize;
+    }
+
+    public boolean isFinished() {
+        return status == Status.COMPLETED || status == Status.FAILED || status == Status.CANCELLED;
+    }
+
+    // State transitions; each one returns false if the job was cancelled or finished meanwhile
+    public synchronized boolean markRunning() {
+        if (status != Status.QUEUED) {
+            return false;
+        }
+        this.status = Status.RUNNING;
+        this.startedAt = Instant.now();
+        return true;
+    }
+
+    public synchronized boolean markCompleted(Path resultPath, long resultSize) {
+        if (status != Status.RUNNING) {
+            return false;
+        }
+        this.resultPath = resultPath;
+        this.resultSize = resultSize;
+        this.completedAt = Instant.now();
+        this.status = Status.COMPLETED;
+        return true;
+    }
+
+    public synchronized boolean markFailed(String error) {
+        if (isFinished()) {
+            return false;
+        }
+        this.error = error;
+        this.completedAt = Instant.now();
+        this.status = Status.FAILED;
+        return true;
+    }
+
+    public synchronized boolean markCancelled() {
+        if (isFinished()) {
+            return false;
+        }
+        this.completedAt = Instant.now();
+        this.status = Status.CANCELLED;
+        return true;
+    }
+}
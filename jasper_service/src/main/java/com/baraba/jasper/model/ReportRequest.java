@@ -1,5 +1,7 @@
 package com.baraba.jasper.model;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
+
 import java.util.Map;
 
 public class ReportRequest {
@@ -7,6 +9,7 @@ public class ReportRequest {
     private String format; // pdf, xlsx, html, csv
     private Map<String, Object> parameters;
     private String sql; // Optional custom SQL query
+    private Boolean virtualize; // true/false forces swap-file fill, null = decide by row estimate
 
     // Getters
     public String getReportName() {
@@ -25,6 +28,27 @@ public class ReportRequest {
         return sql;
     }
 
+    public Boolean getVirtualize() {
+        return virtualize;
+    }
+
+    /**
+     * Company the report is generated for, taken from the usual company parameter names.
+     * Used to share workers fairly and to scope cache invalidation.
+     */
+    @JsonIgnore
+    public String getTenant() {
+        if (parameters != null) {
+            for (String key : new String[] {"company_id", "companyId", "company_uid"}) {
+                Object value = parameters.get(key);
+                if (value != null) {
+                    return value.toString();
+                }
+            }
+        }
+        return "default";
+    }
+
     // Setters
     public void setReportName(String reportName) {
         this.reportName = reportName;
@@ -41,4 +65,8 @@ public class ReportRequest {
     public void setSql(String sql) {
         this.sql = sql;
     }
+
+    public void setVirtualize(Boolean virtualize) {
+        this.virtualize = virtualize;
+    }
 }
@@ -0,0 +1,192 @@
+package com.baraba.jasper.service;
+
+import com.baraba.jasper.model.ReportRequest;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Generates many reports in one call and writes them into a ZIP as they complete.
+ *
+ * Fills run on a fixed pool shared by all batches, so concurrent batches together never
+ * hold more than {@code jasper.batch.parallelism} database connections. Each batch keeps
+ * at most twice that many entries submitted or finished but not yet written, so a slow
+ * client holds a bounded number of rendered reports in memory. A failed entry does not
+ * fail the batch; its error is recorded in {@code manifest.json}, which is written last.
+ */
+@Service
+public class BatchReportService {
+
+    private static final Logger log = LoggerFactory.getLogger(BatchReportService.class);
+
+    @Autowired
+    private ReportService reportService;
+
+    @Value("${jasper.batch.parallelism:4}")
+    private int parallelism;
+
+    @Value("${jasper.batch.max-entries:2000}")
+    private int maxEntries;
+
+    private final ObjectMapper objectMapper = new ObjectMapper()
+        .enable(SerializationFeature.INDENT_OUTPUT);
+
+    private ExecutorService executor;
+
+    @PostConstruct
+    public void init() {
+        AtomicInteger threadCount = new AtomicInteger();
+        executor = Executors.newFixedThreadPool(parallelism, r -> {
+            Thread t = new Thread(r, "report-batch-" + threadCount.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * Validate a batch before the response is committed.
+     * @throws IllegalArgumentException if the batch is empty, too large or has an unsupported format
+     */
+    public void validate(List<ReportRequest> reports) {
+        if (reports == null || reports.isEmpty()) {
+            throw new IllegalArgumentException("No reports in batch");
+        }
+        if (reports.size() > maxEntries) {
+            throw new IllegalArgumentException("Batch has " + reports.size() + " reports, limit is " + maxEntries);
+        }
+        for (ReportRequest request : reports) {
+            if (request.getReportName() == null || !reportService.isSupportedFormat(request.getFormat())) {
+                throw new IllegalArgumentException("Invalid batch entry: " + request.getReportName() + " / " + request.getFormat());
+            }
+        }
+    }
+
+    /**
+     * Generate all reports and write them, followed by manifest.json, into a ZIP on the stream.
+     */
+    public void generateZip(List<ReportRequest> reports, OutputStream out) throws IOException {
+        long start = System.currentTimeMillis();
+        CompletionService<EntryResult> completion = new ExecutorCompletionService<>(executor);
+        List<Future<EntryResult>> futures = new ArrayList<>();
+
+        // Results wait here until the client has taken the previous entries
+        int window = Math.max(1, parallelism * 2);
+        int submitted = 0;
+        while (submitted < Math.min(window, reports.size())) {
+            futures.add(submit(completion, submitted, reports.get(submitted)));
+            submitted++;
+        }
+
+        List<Map<String, Object>> manifest = new ArrayList<>();
+        int failed = 0;
+
+        try (ZipOutputStream zip = new ZipOutputStream(out)) {
+            for (int done = 0; done < reports.size(); done++) {
+                EntryResult result;
+                try {
+                    result = completion.take().get();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("Batch interrupted", e);
+                } catch (ExecutionException e) {
+                    // generateEntry catches everything, so this is not expected
+                    throw new IOException("Batch entry failed unexpectedly", e.getCause());
+                }
+
+                if (submitted < reports.size()) {
+                    futures.add(submit(completion, submitted, reports.get(submitted)));
+                    submitted++;
+                }
+
+                if (result.data != null) {
+                    zip.putNextEntry(new ZipEntry(result.fileName));
+                    zip.write(result.data);
+                    zip.closeEntry();
+                    zip.flush();
+                } else {
+                    failed++;
+                }
+                manifest.add(result.manifest);
+            }
+
+            manifest.sort((a, b) -> Integer.compare((Integer) a.get("index"), (Integer) b.get("index")));
+            Map<String, Object> summary = new LinkedHashMap<>();
+            summary.put("total", reports.size());
+            summary.put("succeeded", reports.size() - failed);
+            summary.put("failed", failed);
+            summary.put("durationMs", System.currentTimeMillis() - start);
+            summary.put("entries", manifest);
+
+            zip.putNextEntry(new ZipEntry("manifest.json"));
+            zip.write(objectMapper.writeValueAsBytes(summary));
+            zip.closeEntry();
+
+        } finally {
+            // Client went away: don't keep filling reports nobody will receive
+            futures.forEach(f -> f.cancel(true));
+        }
+
+        log.info("Batch of {} reports done in {}ms, {} failed", reports.size(), System.currentTimeMillis() - start, failed);
+    }
+
+    private Future<EntryResult> submit(CompletionService<EntryResult> completion, int index, ReportRequest request) {
+        return completion.submit(() -> generateEntry(index, request));
+    }
+
+    private EntryResult generateEntry(int index, ReportRequest request) {
+        String fileName = String.format("%04d_%s_%s%s", index + 1, request.getReportName(),
+            request.getTenant(), reportService.getFileExtension(request.getFormat()));
+
+        Map<String, Object> manifest = new LinkedHashMap<>();
+        manifest.put("index", index);
+        manifest.put("reportName", request.getReportName());
+        manifest.put("format", request.getFormat());
+        manifest.put("parameters", request.getParameters());
+
+        long start = System.currentTimeMillis();
+        try {
+            byte[] data = reportService.generateReport(request);
+            manifest.put("status", "OK");
+            manifest.put("file", fileName);
+            manifest.put("bytes", data.length);
+            manifest.put("durationMs", System.currentTimeMillis() - start);
+            return new EntryResult(fileName, data, manifest);
+        } catch (Exception e) {
+            log.warn("Batch entry {} ({}) failed: {}", index, request.getReportName(), e.getMessage());
+            manifest.put("status", "ERROR");
+            manifest.put("error", e.getMessage());
+            manifest.put("durationMs", System.currentTimeMillis() - start);
+            return new EntryResult(fileName, null, manifest);
+        }
+    }
+
+    private record EntryResult(String fileName, byte[] data, Map<String, Object> manifest) {
+    }
+}
@@ -0,0 +1,307 @@
+package com.baraba.jasper.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import net.sf.jasperreports.engine.JasperCompileManager;
+import net.sf.jasperreports.engine.JasperReport;
+import net.sf.jasperreports.engine.util.JRLoader;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.core.io.Resource;
+import org.springframework.core.io.support.PathMatchingResourcePatternResolver;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+/**
+ * Keeps one compiled {@link JasperReport} per template name.
+ *
+ * Templates are resolved in the same order as before: {@code <reports-dir>/<name>.jrxml}
+ * on the file system (hot reload), then {@code reports/<name>.jasper} and
+ * {@code reports/<name>.jrxml} on the classpath. A WatchService on the reports
+ * directory evicts an entry as soon as its .jrxml changes, so edits are picked up
+ * on the next request without a restart. Every eviction bumps a generation number; a load
+ * that started before an eviction is returned to its caller but not cached, so it cannot
+ * put back a template that was just evicted.
+ */
+@Component
+public class CompiledReportCache {
+
+    private static final Logger log = LoggerFactory.getLogger(CompiledReportCache.class);
+
+    private final Map<String, Entry> reports = new ConcurrentHashMap<>();
+    private final AtomicLong generation = new AtomicLong();
+
+    private final Counter hits;
+    private final Counter misses;
+    private final Counter evictions;
+    private final Timer compileTimer;
+
+    @Value("${jasper.reports-dir:reports}")
+    private String reportsDir;
+
+    @Value("${jasper.cache.watch-enabled:true}")
+    private boolean watchEnabled;
+
+    @Value("${jasper.cache.warm-up:true}")
+    private boolean warmUpEnabled;
+
+    private WatchService watchService;
+    private Thread watchThread;
+
+    public CompiledReportCache(MeterRegistry registry) {
+        this.hits = Counter.builder("jasper.template.cache")
+            .tag("result", "hit")
+            .description("Compiled template lookups served from cache")
+            .register(registry);
+        this.misses = Counter.builder("jasper.template.cache")
+            .tag("result", "miss")
+            .description("Compiled template lookups that required loading")
+            .register(registry);
+        this.evictions = Counter.builder("jasper.template.cache.evictions")
+            .description("Templates evicted because their .jrxml changed")
+            .register(registry);
+        this.compileTimer = Timer.builder("jasper.template.compile")
+            .description("Time spent loading or compiling a template")
+            .register(registry);
+        Gauge.builder("jasper.template.cache.size", reports, Map::size)
+            .description("Number of compiled templates held in memory")
+            .register(registry);
+    }
+
+    @PostConstruct
+    public void startWatching() {
+        Path dir = Path.of(reportsDir);
+        if (!watchEnabled || !Files.isDirectory(dir)) {
+            log.info("Template directory watch disabled (dir: {}, enabled: {})", dir.toAbsolutePath(), watchEnabled);
+            return;
+        }
+
+        try {
+            watchService = FileSystems.getDefault().newWatchService();
+            dir.register(watchService,
+                StandardWatchEventKinds.ENTRY_CREATE,
+                StandardWatchEventKinds.ENTRY_MODIFY,
+                StandardWatchEventKinds.ENTRY_DELETE);
+        } catch (IOException e) {
+            log.warn("Could not watch template directory {}: {}", dir.toAbsolutePath(), e.getMessage());
+            return;
+        }
+
+        watchThread = new Thread(this::watchLoop, "jasper-template-watch");
+        watchThread.setDaemon(true);
+        watchThread.start();
+        log.info("Watching {} for template changes", dir.toAbsolutePath());
+    }
+
+    @PreDestroy
+    public void stopWatching() throws IOException {
+        if (watchService != null) {
+            watchService.close();
+        }
+    }
+
+    /**
+     * Loads every known template once the application is up, so the first request
+     * after a deploy does not pay for loading or compiling.
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void warmUp() {
+        if (!warmUpEnabled) {
+            return;
+        }
+
+        long start = System.currentTimeMillis();
+        int loaded = 0;
+        for (String name : templateNames()) {
+            try {
+                get(name);
+                loaded++;
+            } catch (Exception e) {
+                log.warn("Failed to warm up template {}: {}", name, e.getMessage());
+            }
+        }
+        log.info("Warmed up {} report templates in {}ms", loaded, System.currentTimeMillis() - start);
+    }
+
+    /**
+     * Returns the compiled report for the given template name, compiling it on first use.
+     */
+    public JasperReport get(String reportName) throws Exception {
+        return entry(reportName).report();
+    }
+
+    /**
+     * Identifies the source the compiled report was loaded from and when that source last
+     * changed, so results rendered from an older version of the template can be told apart.
+     */
+    public String version(String reportName) throws Exception {
+        return entry(reportName).version();
+    }
+
+    private Entry entry(String reportName) throws Exception {
+        Entry cached = reports.get(reportName);
+        if (cached != null) {
+            hits.increment();
+            return cached;
+        }
+
+        misses.increment();
+        long loadGeneration = generation.get();
+        Entry loaded = compileTimer.recordCallable(() -> load(reportName));
+
+        // Another thread may have loaded the same template meanwhile; keep the first one
+        Entry previous = reports.putIfAbsent(reportName, loaded);
+        if (previous != null) {
+            return previous;
+        }
+
+        // evict() bumps the generation before removing, so either it removes our entry or we see the bump
+        if (generation.get() != loadGeneration) {
+            reports.remove(reportName, loaded);
+        }
+        return loaded;
+    }
+
+    public void evict(String reportName) {
+        generation.incrementAndGet();
+        if (reports.remove(reportName) != null) {
+            evictions.increment();
+            log.info("Evicted compiled template: {}", reportName);
+        }
+    }
+
+    public void clear() {
+        generation.incrementAndGet();
+        reports.clear();
+    }
+
+    private Entry load(String reportName) throws Exception {
+        // 1. Try to load .jrxml from file system (for hot reloading)
+        Path fsFile = Path.of(reportsDir, reportName + ".jrxml");
+        if (Files.exists(fsFile)) {
+            try (InputStream in = Files.newInputStream(fsFile)) {
+                long modified = Files.getLastModifiedTime(fsFile).toMillis();
+                return new Entry(JasperCompileManager.compileReport(in), "file:" + modified);
+            } catch (Exception e) {
+                // Log and ignore, fall back to classpath
+                log.warn("Failed to load/compile report from file system: {}", e.getMessage());
+            }
+        }
+
+        // 2. Precompiled .jasper from the classpath
+        ClassPathResource jasper = new ClassPathResource("reports/" + reportName + ".jasper");
+        if (jasper.exists()) {
+            try (InputStream in = jasper.getInputStream()) {
+                return new Entry((JasperReport) JRLoader.loadObject(in), "jasper:" + lastModified(jasper));
+            }
+        }
+
+        // 3. Compile .jrxml from the classpath
+        ClassPathResource jrxml = new ClassPathResource("reports/" + reportName + ".jrxml");
+        try (InputStream in = jrxml.getInputStream()) {
+            return new Entry(JasperCompileManager.compileReport(in), "jrxml:" + lastModified(jrxml));
+        }
+    }
+
+    private static long lastModified(Resource resource) {
+        try {
+            return resource.lastModified();
+        } catch (IOException e) {
+            // Classpath templates only change with a deploy
+            return 0;
+        }
+    }
+
+    /**
+     * Names of all templates available on the classpath or in the reports directory.
+     */
+    public Set<String> templateNames() {
+        Set<String> names = new TreeSet<>();
+        try {
+            PathMatchingResourcePatternResolver resolver = new PathMatchingResourcePatternResolver();
+            for (String pattern : new String[] {"classpath*:reports/*.jasper", "classpath*:reports/*.jrxml"}) {
+                for (Resource resource : resolver.getResources(pattern)) {
+                    addTemplateName(names, resource.getFilename());
+                }
+            }
+        } catch (IOException e) {
+            log.warn("Failed to list classpath templates: {}", e.getMessage());
+        }
+
+        Path dir = Path.of(reportsDir);
+        if (Files.isDirectory(dir)) {
+            try (Stream<Path> files = Files.list(dir)) {
+                files.forEach(p -> addTemplateName(names, p.getFileName().toString()));
+            } catch (IOException e) {
+                log.warn("Failed to list templates in {}: {}", dir.toAbsolutePath(), e.getMessage());
+            }
+        }
+        return names;
+    }
+
+    private static void addTemplateName(Set<String> names, String fileName) {
+        if (fileName == null) {
+            return;
+        }
+        if (fileName.endsWith(".jrxml")) {
+            names.add(fileName.substring(0, fileName.length() - ".jrxml".length()));
+        } else if (fileName.endsWith(".jasper")) {
+            names.add(fileName.substring(0, fileName.length() - ".jasper".length()));
+        }
+    }
+
+    private void watchLoop() {
+        while (true) {
+            WatchKey key;
+            try {
+                key = watchService.take();
+            } catch (InterruptedException | ClosedWatchServiceException e) {
+                return;
+            }
+
+            for (WatchEvent<?> event : key.pollEvents()) {
+                if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                    log.info("Template watch overflow, clearing compiled template cache");
+                    clear();
+                    continue;
+                }
+                String fileName = event.context().toString();
+                if (fileName.endsWith(".jrxml")) {
+                    evict(fileName.substring(0, fileName.length() - ".jrxml".length()));
+                }
+            }
+
+            if (!key.reset()) {
+                log.warn("Template directory is no longer accessible, stopping watch");
+                return;
+            }
+        }
+    }
+
+    private record Entry(JasperReport report, String version) {
+    }
+}
@@ -0,0 +1,42 @@
+package com.baraba.jasper.service;
+
+import net.sf.jasperreports.engine.JRVirtualizer;
+import net.sf.jasperreports.engine.JasperPrint;
+
+/**
+ * A filled report together with the virtualizer that backs its pages, if any.
+ *
+ * Virtualized pages live in a swap file until the report is exported, so the
+ * virtualizer has to stay open until the last export is done. Close the handle
+ * afterwards to delete the swap file; closing it again does nothing.
+ */
+public class FilledReport implements AutoCloseable {
+
+    private final JasperPrint jasperPrint;
+    private final JRVirtualizer virtualizer;
+    private boolean closed;
+
+    public FilledReport(JasperPrint jasperPrint, JRVirtualizer virtualizer) {
+        this.jasperPrint = jasperPrint;
+        this.virtualizer = virtualizer;
+    }
+
+    public JasperPrint getJasperPrint() {
+        return jasperPrint;
+    }
+
+    public boolean isVirtualized() {
+        return virtualizer != null;
+    }
+
+    @Override
+    public synchronized void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        if (virtualizer != null) {
+            virtualizer.cleanup();
+        }
+    }
+}
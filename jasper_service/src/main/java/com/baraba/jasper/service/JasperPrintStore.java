@@ -0,0 +1,262 @@
+package com.baraba.jasper.service;
+
+import com.baraba.jasper.model.ReportRequest;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import net.sf.jasperreports.engine.JRException;
+import net.sf.jasperreports.engine.JasperPrint;
+import net.sf.jasperreports.engine.util.JRLoader;
+import net.sf.jasperreports.engine.util.JRSaver;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Stream;
+
+/**
+ * Keeps filled reports on disk for a short window so that the same fill can be exported
+ * to several formats without running the SQL again.
+ *
+ * Each stored print gets a handle that clients can export from explicitly, and is also
+ * indexed by its fill key (report, converted parameters, data version). With
+ * {@code jasper.print-store.reuse-on-generate} set, a second /generate call that only
+ * differs in format exports the stored print instead of filling again.
+ *
+ * The files on disk are bounded by {@code jasper.print-store.max-size-mb}; the oldest
+ * prints are dropped first, and a print larger than the limit is not stored at all.
+ */
+@Component
+public class JasperPrintStore {
+
+    private static final Logger log = LoggerFactory.getLogger(JasperPrintStore.class);
+
+    @Value("${jasper.print-store.enabled:true}")
+    private boolean enabled;
+
+    @Value("${jasper.print-store.dir:${java.io.tmpdir}/jasper-prints}")
+    private String storeDir;
+
+    @Value("${jasper.print-store.ttl-minutes:5}")
+    private long ttlMinutes;
+
+    @Value("${jasper.print-store.max-size-mb:1024}")
+    private long maxSizeMb;
+
+    private final Map<String, Entry> byHandle = new ConcurrentHashMap<>();
+    private final Map<String, String> handleByFillKey = new ConcurrentHashMap<>();
+
+    // Guarded by "this"
+    private long totalBytes;
+
+    private final Counter reused;
+
+    public JasperPrintStore(MeterRegistry registry) {
+        this.reused = Counter.builder("jasper.print.reused")
+            .description("Exports served from a stored fill instead of a new database fill")
+            .register(registry);
+        Gauge.builder("jasper.print.store.bytes", this, JasperPrintStore::getTotalBytes)
+            .description("Bytes of filled reports held on disk")
+            .register(registry);
+    }
+
+    @PostConstruct
+    public void init() throws IOException {
+        if (!enabled) {
+            return;
+        }
+        Path dir = Path.of(storeDir);
+        Files.createDirectories(dir);
+        try (Stream<Path> files = Files.list(dir)) {
+            files.forEach(this::deleteQuietly);
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Serialize the print to disk and return its handle.
+     * @throws IllegalStateException if the serialized print is larger than the store
+     */
+    public String store(String fillKey, ReportRequest request, JasperPrint jasperPrint)
+            throws JRException, IOException {
+        String handle = UUID.randomUUID().toString();
+        Path path = Path.of(storeDir, handle + ".jrprint");
+        long size;
+        try {
+            JRSaver.saveObject(jasperPrint, path.toFile());
+            size = Files.size(path);
+        } catch (JRException | IOException e) {
+            deleteQuietly(path);
+            throw e;
+        }
+        if (size > maxBytes()) {
+            deleteQuietly(path);
+            throw new IllegalStateException("Filled report " + request.getReportName() + " is too large to retain (" +
+                size + " bytes, limit " + maxBytes() + ")");
+        }
+
+        Entry entry = new Entry(handle, fillKey, path, request.getReportName(), jasperPrint.getPages().size(), size);
+        synchronized (this) {
+            byHandle.put(handle, entry);
+            totalBytes += size;
+            if (fillKey != null) {
+                String previous = handleByFillKey.put(fillKey, handle);
+                if (previous != null) {
+                    remove(previous);
+                }
+            }
+            evictToSize(handle);
+        }
+        return handle;
+    }
+
+    /**
+     * Stored print for the handle, or null if unknown or expired.
+     */
+    public JasperPrint load(String handle) throws JRException {
+        Entry entry = byHandle.get(handle);
+        if (entry == null || entry.isExpired(ttlMinutes)) {
+            if (entry != null) {
+                remove(handle);
+            }
+            return null;
+        }
+        JasperPrint print;
+        try {
+            print = (JasperPrint) JRLoader.loadObject(new File(entry.path.toString()));
+        } catch (JRException e) {
+            if (!byHandle.containsKey(handle)) {
+                // Evicted or expired while loading
+                return null;
+            }
+            throw e;
+        }
+        reused.increment();
+        return print;
+    }
+
+    public JasperPrint findByFillKey(String fillKey) throws JRException {
+        if (!enabled) {
+            return null;
+        }
+        String handle = handleByFillKey.get(fillKey);
+        return handle != null ? load(handle) : null;
+    }
+
+    public Entry getEntry(String handle) {
+        return byHandle.get(handle);
+    }
+
+    public Instant expiresAt(Entry entry) {
+        return entry.createdAt.plus(Duration.ofMinutes(ttlMinutes));
+    }
+
+    public synchronized boolean remove(String handle) {
+        Entry entry = byHandle.remove(handle);
+        if (entry == null) {
+            return false;
+        }
+        totalBytes -= entry.size;
+        if (entry.fillKey != null) {
+            handleByFillKey.remove(entry.fillKey, handle);
+        }
+        deleteQuietly(entry.path);
+        return true;
+    }
+
+    @Scheduled(fixedDelayString = "${jasper.print-store.cleanup-interval-ms:60000}")
+    public void expire() {
+        for (Entry entry : byHandle.values()) {
+            if (entry.isExpired(ttlMinutes)) {
+                remove(entry.handle);
+            }
+        }
+    }
+
+    public synchronized long getTotalBytes() {
+        return totalBytes;
+    }
+
+    /**
+     * Drop the oldest prints, except the one just stored, until the store fits its limit.
+     */
+    private void evictToSize(String keep) {
+        if (totalBytes <= maxBytes()) {
+            return;
+        }
+        List<Entry> oldestFirst = byHandle.values().stream()
+            .filter(e -> !e.handle.equals(keep))
+            .sorted(Comparator.comparing((Entry e) -> e.createdAt))
+            .toList();
+        for (Entry entry : oldestFirst) {
+            if (totalBytes <= maxBytes()) {
+                break;
+            }
+            remove(entry.handle);
+        }
+    }
+
+    private long maxBytes() {
+        return maxSizeMb * 1024 * 1024;
+    }
+
+    private void deleteQuietly(Path path) {
+        try {
+            Files.deleteIfExists(path);
+        } catch (IOException e) {
+            log.warn("Failed to delete stored print {}: {}", path, e.getMessage());
+        }
+    }
+
+    public static final class Entry {
+        final String handle;
+        final String fillKey;
+        final Path path;
+        final String reportName;
+        final int pages;
+        final long size;
+        final Instant createdAt = Instant.now();
+
+        Entry(String handle, String fillKey, Path path, String reportName, int pages, long size) {
+            this.handle = handle;
+            this.fillKey = fillKey;
+            this.path = path;
+            this.reportName = reportName;
+            this.pages = pages;
+            this.size = size;
+        }
+
+        public String getHandle() {
+            return handle;
+        }
+
+        public String getReportName() {
+            return reportName;
+        }
+
+        public int getPages() {
+            return pages;
+        }
+
+        boolean isExpired(long ttlMinutes) {
+            return createdAt.plus(Duration.ofMinutes(ttlMinutes)).isBefore(Instant.now());
+        }
+    }
+}
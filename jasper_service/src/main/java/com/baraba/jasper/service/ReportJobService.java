@@ -0,0 +1,251 @@
+package com.baraba.jasper.service;
+
+import com.baraba.jasper.model.ReportJob;
+import com.baraba.jasper.model.ReportRequest;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+
+/**
+ * Runs report generation in the background.
+ *
+ * Jobs are queued per tenant (company) and dispatched round-robin across tenants onto a
+ * fixed pool of workers, so one company's year-end batch cannot starve the others and
+ * the number of concurrent fills (and DB connections) never exceeds the worker count.
+ * Results are spooled to disk and kept until they expire. Jobs live in memory only, so
+ * results left in the spool directory by a previous run are deleted at startup.
+ */
+@Service
+public class ReportJobService {
+
+    private static final Logger log = LoggerFactory.getLogger(ReportJobService.class);
+
+    @Autowired
+    private ReportService reportService;
+
+    @Value("${jasper.jobs.workers:4}")
+    private int workers;
+
+    @Value("${jasper.jobs.max-queued:200}")
+    private int maxQueued;
+
+    @Value("${jasper.jobs.spool-dir:${java.io.tmpdir}/jasper-jobs}")
+    private String spoolDir;
+
+    @Value("${jasper.jobs.result-ttl-minutes:60}")
+    private long resultTtlMinutes;
+
+    private final Map<String, ReportJob> jobs = new ConcurrentHashMap<>();
+
+    // Guarded by "this"
+    private final Map<String, Deque<ReportJob>> tenantQueues = new HashMap<>();
+    private final Deque<String> tenantRotation = new ArrayDeque<>();
+    private int queued;
+    private int running;
+
+    private ExecutorService executor;
+
+    @PostConstruct
+    public void init() throws IOException {
+        Path dir = Path.of(spoolDir);
+        Files.createDirectories(dir);
+
+        // Nobody can ask for the results of jobs from a previous run any more
+        try (Stream<Path> files = Files.list(dir)) {
+            files.forEach(this::deleteResult);
+        }
+
+        AtomicInteger threadCount = new AtomicInteger();
+        executor = Executors.newFixedThreadPool(workers, r -> {
+            Thread t = new Thread(r, "report-job-" + threadCount.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+        log.info("Report job queue started with {} workers, spool dir {}", workers, spoolDir);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * Queue a report for background generation.
+     * @throws IllegalArgumentException for an unsupported format
+     * @throws IllegalStateException when the queue is full
+     */
+    public ReportJob submit(ReportRequest request) {
+        if (!reportService.isSupportedFormat(request.getFormat())) {
+            throw new IllegalArgumentException("Unsupported format: " + request.getFormat());
+        }
+
+        ReportJob job = new ReportJob(UUID.randomUUID().toString(), request.getTenant(), request);
+
+        synchronized (this) {
+            if (queued >= maxQueued) {
+                throw new IllegalStateException("Report queue is full (" + maxQueued + " jobs), try again later");
+            }
+            Deque<ReportJob> queue = tenantQueues.get(job.getTenant());
+            if (queue == null) {
+                queue = new ArrayDeque<>();
+                tenantQueues.put(job.getTenant(), queue);
+                tenantRotation.addLast(job.getTenant());
+            }
+            queue.addLast(job);
+            queued++;
+            jobs.put(job.getJobId(), job);
+            dispatch();
+        }
+
+        log.info("Queued report job {} ({} / {}) for tenant {}",
+            job.getJobId(), job.getReportName(), job.getFormat(), job.getTenant());
+        return job;
+    }
+
+    public Optional<ReportJob> getJob(String jobId) {
+        return Optional.ofNullable(jobs.get(jobId));
+    }
+
+    /**
+     * Cancel a queued job, or drop a finished job and its result file.
+     * A running job is marked cancelled and its result discarded when the fill ends.
+     */
+    public boolean cancel(String jobId) {
+        ReportJob job = jobs.get(jobId);
+        if (job == null) {
+            return false;
+        }
+
+        synchronized (this) {
+            Deque<ReportJob> queue = tenantQueues.get(job.getTenant());
+            if (queue != null && queue.remove(job)) {
+                queued--;
+                if (queue.isEmpty()) {
+                    tenantQueues.remove(job.getTenant());
+                    tenantRotation.remove(job.getTenant());
+                }
+            }
+        }
+
+        if (!job.markCancelled()) {
+            // Already finished: drop the job and its result file
+            remove(job);
+        }
+        return true;
+    }
+
+    public synchronized int getQueuedCount() {
+        return queued;
+    }
+
+    public synchronized int getRunningCount() {
+        return running;
+    }
+
+    /**
+     * Start as many queued jobs as there are free workers, taking one job per tenant in turn.
+     */
+    private synchronized void dispatch() {
+        while (running < workers && !tenantRotation.isEmpty()) {
+            String tenant = tenantRotation.pollFirst();
+            Deque<ReportJob> queue = tenantQueues.get(tenant);
+            ReportJob job = queue.pollFirst();
+            if (queue.isEmpty()) {
+                tenantQueues.remove(tenant);
+            } else {
+                tenantRotation.addLast(tenant);
+            }
+
+            queued--;
+            running++;
+            executor.execute(() -> run(job));
+        }
+    }
+
+    private void run(ReportJob job) {
+        ReportRequest request = job.getRequest();
+        Path resultPath = Path.of(spoolDir, job.getJobId() + reportService.getFileExtension(request.getFormat()));
+        try {
+            // Cancelled while queued
+            if (!job.markRunning()) {
+                return;
+            }
+            long start = System.currentTimeMillis();
+
+            try (FilledReport filled = reportService.fillReport(request);
+                 OutputStream out = Files.newOutputStream(resultPath)) {
+                reportService.exportReport(filled.getJasperPrint(), request.getFormat(), out);
+            }
+
+            if (!job.markCompleted(resultPath, Files.size(resultPath))) {
+                // Cancelled while running
+                deleteResult(resultPath);
+                return;
+            }
+            log.info("Report job {} completed in {}ms ({} bytes)",
+                job.getJobId(), System.currentTimeMillis() - start, job.getResultSize());
+
+        } catch (Exception e) {
+            log.error("Report job {} failed: {}", job.getJobId(), e.getMessage());
+            // Don't leave a partially written result in the spool directory
+            deleteResult(resultPath);
+            job.markFailed(e.getMessage());
+        } finally {
+            synchronized (this) {
+                running--;
+                dispatch();
+            }
+        }
+    }
+
+    /**
+     * Drop finished jobs whose results are older than the configured TTL.
+     */
+    @Scheduled(fixedDelayString = "${jasper.jobs.cleanup-interval-ms:60000}")
+    public void expireFinishedJobs() {
+        Instant cutoff = Instant.now().minus(Duration.ofMinutes(resultTtlMinutes));
+        for (ReportJob job : jobs.values()) {
+            if (job.isFinished() && job.getCompletedAt() != null && job.getCompletedAt().isBefore(cutoff)) {
+                remove(job);
+            }
+        }
+    }
+
+    private void remove(ReportJob job) {
+        jobs.remove(job.getJobId());
+        if (job.getResultPath() != null) {
+            deleteResult(job.getResultPath());
+        }
+    }
+
+    private void deleteResult(Path resultPath) {
+        try {
+            Files.deleteIfExists(resultPath);
+        } catch (IOException e) {
+            log.warn("Failed to delete job result {}: {}", resultPath, e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,122 @@
+package com.baraba.jasper.service;
+
+import net.sf.jasperreports.engine.JRParameter;
+import net.sf.jasperreports.engine.JasperReport;
+import org.springframework.stereotype.Component;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.sql.Timestamp;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.WeakHashMap;
+import java.util.function.Function;
+
+/**
+ * Converts request parameters to the classes declared by the template.
+ *
+ * The converter table of a template is built once from its {@link JRParameter}
+ * declarations and reused for every request, so a value is converted straight to what
+ * the report expects instead of being guessed from its shape (a numeric
+ * {@code company_id} stays a String when the template declares a String).
+ * Parameters the template does not declare are passed through unchanged.
+ */
+@Component
+public class ReportParameterConverter {
+
+    private static final Map<Class<?>, Function<Object, Object>> CONVERTERS = Map.ofEntries(
+        Map.entry(String.class, Object::toString),
+        Map.entry(Long.class, v -> v instanceof Number n ? n.longValue() : Long.valueOf(text(v))),
+        Map.entry(Integer.class, v -> v instanceof Number n ? n.intValue() : Integer.valueOf(text(v))),
+        Map.entry(Short.class, v -> v instanceof Number n ? n.shortValue() : Short.valueOf(text(v))),
+        Map.entry(Double.class, v -> v instanceof Number n ? n.doubleValue() : Double.valueOf(text(v))),
+        Map.entry(Float.class, v -> v instanceof Number n ? n.floatValue() : Float.valueOf(text(v))),
+        Map.entry(BigDecimal.class, v -> new BigDecimal(text(v))),
+        Map.entry(BigInteger.class, v -> new BigInteger(text(v))),
+        Map.entry(Boolean.class, v -> Boolean.valueOf(text(v))),
+        Map.entry(UUID.class, v -> UUID.fromString(text(v))),
+        Map.entry(LocalDate.class, v -> localDate(v)),
+        Map.entry(LocalDateTime.class, v -> localDateTime(v)),
+        Map.entry(java.sql.Date.class, v -> java.sql.Date.valueOf(localDate(v))),
+        Map.entry(java.util.Date.class, v -> java.sql.Date.valueOf(localDate(v))),
+        Map.entry(Timestamp.class, v -> Timestamp.valueOf(localDateTime(v)))
+    );
+
+    // Keyed by template instance, so a recompiled template gets a fresh table
+    private final Map<JasperReport, Map<String, Function<Object, Object>>> tables =
+        Collections.synchronizedMap(new WeakHashMap<>());
+
+    /**
+     * Returns a new map with every declared parameter converted to its declared class.
+     * @throws IllegalArgumentException if a value cannot be converted
+     */
+    public Map<String, Object> convert(JasperReport report, Map<String, Object> parameters) {
+        Map<String, Object> converted = new HashMap<>();
+        if (parameters == null) {
+            return converted;
+        }
+
+        Map<String, Function<Object, Object>> table = tables.computeIfAbsent(report, ReportParameterConverter::buildTable);
+
+        for (Map.Entry<String, Object> entry : parameters.entrySet()) {
+            Object value = entry.getValue();
+            Function<Object, Object> converter = table.get(entry.getKey());
+            if (converter != null && value != null) {
+                try {
+                    value = converter.apply(value);
+                } catch (RuntimeException e) {
+                    throw new IllegalArgumentException("Invalid value for parameter " + entry.getKey() +
+                        ": '" + entry.getValue() + "' (" + e.getMessage() + ")", e);
+                }
+            }
+            converted.put(entry.getKey(), value);
+        }
+        return converted;
+    }
+
+    private static Map<String, Function<Object, Object>> buildTable(JasperReport report) {
+        Map<String, Function<Object, Object>> table = new HashMap<>();
+        for (JRParameter parameter : report.getParameters()) {
+            if (parameter.isSystemDefined()) {
+                continue;
+            }
+            Class<?> valueClass = parameter.getValueClass();
+            Function<Object, Object> converter = CONVERTERS.get(valueClass);
+            if (converter != null) {
+                table.put(parameter.getName(), v -> valueClass.isInstance(v) ? v : converter.apply(v));
+            }
+        }
+        return table;
+    }
+
+    private static String text(Object value) {
+        return value.toString().trim();
+    }
+
+    private static LocalDate localDate(Object value) {
+        if (value instanceof java.sql.Date d) {
+            return d.toLocalDate();
+        }
+        if (value instanceof java.util.Date d) {
+            return new java.sql.Date(d.getTime()).toLocalDate();
+        }
+        if (value instanceof Number n) {
+            return new java.sql.Date(n.longValue()).toLocalDate();
+        }
+        String text = text(value);
+        // Accept ISO date-times from the frontend, e.g. 2024-12-31T00:00:00
+        return LocalDate.parse(text.length() > 10 && text.charAt(10) == 'T' ? text.substring(0, 10) : text);
+    }
+
+    private static LocalDateTime localDateTime(Object value) {
+        if (value instanceof java.util.Date d) {
+            return new Timestamp(d.getTime()).toLocalDateTime();
+        }
+        String text = text(value);
+        return text.length() == 10 ? LocalDate.parse(text).atStartOfDay() : LocalDateTime.parse(text);
+    }
+}
@@ -0,0 +1,70 @@
+package com.baraba.jasper.service;
+
+import net.sf.jasperreports.engine.JasperCompileManager;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.stream.Stream;
+
+/**
+ * Build-time compiler for report templates.
+ *
+ * Invoked by the exec-maven-plugin in the process-classes phase with the .jrxml
+ * source directory and the output directory. Every template is compiled to a
+ * .jasper file next to it on the classpath; any template that fails to compile
+ * fails the build.
+ */
+public final class ReportPrecompiler {
+
+    private static final Logger log = LoggerFactory.getLogger(ReportPrecompiler.class);
+
+    private ReportPrecompiler() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length != 2) {
+            throw new IllegalArgumentException("Usage: ReportPrecompiler <jrxml-dir> <output-dir>");
+        }
+        System.setProperty("java.awt.headless", "true");
+
+        Path sourceDir = Path.of(args[0]);
+        Path outputDir = Path.of(args[1]);
+        Files.createDirectories(outputDir);
+
+        List<Path> templates = listTemplates(sourceDir);
+        int failed = 0;
+
+        for (Path template : templates) {
+            String fileName = template.getFileName().toString();
+            Path target = outputDir.resolve(fileName.replace(".jrxml", ".jasper"));
+            try {
+                JasperCompileManager.compileReportToFile(template.toString(), target.toString());
+                log.info("Compiled report: {}", fileName);
+            } catch (Exception e) {
+                failed++;
+                log.error("Failed to compile report {}: {}", fileName, e.getMessage());
+            }
+        }
+
+        if (failed > 0) {
+            throw new IllegalStateException(failed + " of " + templates.size() + " report templates failed to compile");
+        }
+        log.info("Precompiled {} report templates into {}", templates.size(), outputDir);
+    }
+
+    private static List<Path> listTemplates(Path sourceDir) throws IOException {
+        if (!Files.isDirectory(sourceDir)) {
+            throw new IllegalArgumentException("Template directory not found: " + sourceDir);
+        }
+        try (Stream<Path> files = Files.list(sourceDir)) {
+            return files
+                .filter(p -> p.getFileName().toString().endsWith(".jrxml"))
+                .sorted()
+                .toList();
+        }
+    }
+}
@@ -0,0 +1,323 @@
+package com.baraba.jasper.service;
+
+import com.baraba.jasper.model.ReportRequest;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+/**
+ * Disk-backed LRU cache of rendered reports.
+ *
+ * The key is the report name, the version of its template, the normalized format, the
+ * converted parameter map and the current data versions that apply to the request.
+ * Invalidating bumps the data version of exactly what was invalidated (everything, one
+ * company, one report, or one report of one company), so a fill that was already running
+ * when the data changed cannot store a stale entry under a key that will be looked up again. Report bodies live
+ * in files under {@code jasper.result-cache.dir}; only metadata is kept in memory.
+ *
+ * Nothing in this service sees the accounting data change, so entries are only retired by
+ * the TTL or by whoever writes the data calling /api/reports/cache/invalidate. The cache
+ * is therefore off unless {@code jasper.result-cache.enabled} is set.
+ */
+@Component
+public class ReportResultCache {
+
+    private static final Logger log = LoggerFactory.getLogger(ReportResultCache.class);
+
+    @Value("${jasper.result-cache.enabled:false}")
+    private boolean enabled;
+
+    @Value("${jasper.result-cache.dir:${java.io.tmpdir}/jasper-results}")
+    private String cacheDir;
+
+    @Value("${jasper.result-cache.max-size-mb:1024}")
+    private long maxSizeMb;
+
+    @Value("${jasper.result-cache.ttl-minutes:30}")
+    private long ttlMinutes;
+
+    // Access-ordered, guarded by "this"
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long totalBytes;
+
+    private final Map<Scope, AtomicLong> dataVersions = new ConcurrentHashMap<>();
+
+    private final CompiledReportCache templates;
+
+    private final Counter hits;
+    private final Counter misses;
+
+    public ReportResultCache(CompiledReportCache templates, MeterRegistry registry) {
+        this.templates = templates;
+        this.hits = Counter.builder("jasper.result.cache")
+            .tag("result", "hit")
+            .description("Rendered reports served from the result cache")
+            .register(registry);
+        this.misses = Counter.builder("jasper.result.cache")
+            .tag("result", "miss")
+            .description("Rendered report lookups not found in the result cache")
+            .register(registry);
+        Gauge.builder("jasper.result.cache.bytes", this, ReportResultCache::getTotalBytes)
+            .description("Bytes of rendered reports held on disk")
+            .register(registry);
+    }
+
+    @PostConstruct
+    public void init() throws IOException {
+        if (!enabled) {
+            return;
+        }
+        Path dir = Path.of(cacheDir);
+        Files.createDirectories(dir);
+
+        // Metadata is in memory only, so anything left from a previous run is unreachable
+        try (Stream<Path> files = Files.list(dir)) {
+            files.forEach(this::deleteQuietly);
+        }
+    }
+
+    /**
+     * Cache key for a request whose parameters have already been converted.
+     */
+    public String keyFor(ReportRequest request, Map<String, Object> parameters) throws Exception {
+        return key(request, parameters, normalizeFormat(request.getFormat()));
+    }
+
+    /**
+     * Key identifying the fill itself, regardless of export format. Shares the data
+     * version with {@link #keyFor}, so invalidation also retires stored fills.
+     */
+    public String fillKeyFor(ReportRequest request, Map<String, Object> parameters) throws Exception {
+        return key(request, parameters, "fill");
+    }
+
+    private String key(ReportRequest request, Map<String, Object> parameters, String variant) throws Exception {
+        String reportName = request.getReportName();
+        String tenant = request.getTenant();
+        StringBuilder sb = new StringBuilder()
+            .append(reportName).append('|')
+            .append(templates.version(reportName)).append('|')
+            .append(variant).append('|')
+            .append(version(null, null)).append('.')
+            .append(version(null, tenant)).append('.')
+            .append(version(reportName, null)).append('.')
+            .append(version(reportName, tenant));
+
+        for (Map.Entry<String, Object> param : new TreeMap<>(parameters).entrySet()) {
+            Object value = param.getValue();
+            sb.append('|').append(param.getKey()).append('=');
+            if (value != null) {
+                sb.append(value.getClass().getSimpleName()).append(':').append(value);
+            }
+        }
+        return sha256(sb.toString());
+    }
+
+    /**
+     * Rendered report for the key, or null when absent or expired.
+     */
+    public byte[] get(String key) {
+        if (!enabled) {
+            return null;
+        }
+
+        Entry entry;
+        synchronized (this) {
+            entry = entries.get(key);
+            if (entry != null && entry.isExpired(ttlMinutes)) {
+                removeEntry(key);
+                entry = null;
+            }
+        }
+
+        if (entry == null) {
+            misses.increment();
+            return null;
+        }
+
+        try {
+            byte[] data = Files.readAllBytes(entry.path);
+            hits.increment();
+            return data;
+        } catch (IOException e) {
+            log.warn("Cached report {} is unreadable, dropping it: {}", entry.path, e.getMessage());
+            synchronized (this) {
+                removeEntry(key);
+            }
+            misses.increment();
+            return null;
+        }
+    }
+
+    public void put(String key, ReportRequest request, byte[] data) {
+        if (!enabled || data.length > maxBytes()) {
+            return;
+        }
+
+        Path path = Path.of(cacheDir, key);
+        Path tmp = null;
+        try {
+            // Concurrent misses for the same key each write their own file; the last move wins
+            tmp = Files.createTempFile(Path.of(cacheDir), key, ".tmp");
+            Files.write(tmp, data);
+            Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            log.warn("Failed to store report in result cache: {}", e.getMessage());
+            if (tmp != null) {
+                deleteQuietly(tmp);
+            }
+            return;
+        }
+
+        synchronized (this) {
+            Entry previous = entries.put(key, new Entry(path, data.length, request.getReportName(), request.getTenant()));
+            if (previous != null) {
+                totalBytes -= previous.size;
+            }
+            totalBytes += data.length;
+            evictToSize();
+        }
+    }
+
+    /**
+     * Drop cached reports for the given report name and/or company. Both null clears everything.
+     * @return number of entries removed
+     */
+    public int invalidate(String reportName, String tenant) {
+        dataVersions.computeIfAbsent(new Scope(reportName, tenant), s -> new AtomicLong()).incrementAndGet();
+
+        int removed = 0;
+        synchronized (this) {
+            List<String> keys = new ArrayList<>();
+            for (Map.Entry<String, Entry> e : entries.entrySet()) {
+                Entry entry = e.getValue();
+                if ((reportName == null || reportName.equals(entry.reportName))
+                        && (tenant == null || tenant.equals(entry.tenant))) {
+                    keys.add(e.getKey());
+                }
+            }
+            for (String key : keys) {
+                removeEntry(key);
+                removed++;
+            }
+        }
+
+        log.info("Invalidated {} cached reports (report: {}, company: {})", removed, reportName, tenant);
+        return removed;
+    }
+
+    public synchronized Map<String, Object> stats() {
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("enabled", enabled);
+        stats.put("entries", entries.size());
+        stats.put("bytes", totalBytes);
+        stats.put("maxBytes", maxBytes());
+        stats.put("hits", (long) hits.count());
+        stats.put("misses", (long) misses.count());
+        return stats;
+    }
+
+    public synchronized long getTotalBytes() {
+        return totalBytes;
+    }
+
+    private void evictToSize() {
+        Iterator<Map.Entry<String, Entry>> it = entries.entrySet().iterator();
+        while (totalBytes > maxBytes() && it.hasNext()) {
+            Entry eldest = it.next().getValue();
+            it.remove();
+            totalBytes -= eldest.size;
+            deleteQuietly(eldest.path);
+        }
+    }
+
+    private void removeEntry(String key) {
+        Entry entry = entries.remove(key);
+        if (entry != null) {
+            totalBytes -= entry.size;
+            deleteQuietly(entry.path);
+        }
+    }
+
+    /**
+     * Data version of a scope; null stands for every report or every company.
+     */
+    private long version(String reportName, String tenant) {
+        AtomicLong version = dataVersions.get(new Scope(reportName, tenant));
+        return version != null ? version.get() : 0;
+    }
+
+    private long maxBytes() {
+        return maxSizeMb * 1024 * 1024;
+    }
+
+    private void deleteQuietly(Path path) {
+        try {
+            Files.deleteIfExists(path);
+        } catch (IOException e) {
+            log.warn("Failed to delete cached report {}: {}", path, e.getMessage());
+        }
+    }
+
+    static String normalizeFormat(String format) {
+        String lower = format == null ? "" : format.toLowerCase();
+        return "excel".equals(lower) ? "xlsx" : lower;
+    }
+
+    private static String sha256(String value) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            return HexFormat.of().formatHex(digest.digest(value.getBytes(StandardCharsets.UTF_8)));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
+
+    private record Scope(String reportName, String tenant) {
+    }
+
+    private static final class Entry {
+        final Path path;
+        final long size;
+        final String reportName;
+        final String tenant;
+        final Instant createdAt = Instant.now();
+
+        Entry(Path path, long size, String reportName, String tenant) {
+            this.path = path;
+            this.size = size;
+            this.reportName = reportName;
+            this.tenant = tenant;
+        }
+
+        boolean isExpired(long ttlMinutes) {
+            return createdAt.plus(Duration.ofMinutes(ttlMinutes)).isBefore(Instant.now());
+        }
+    }
+}
@@ -6,14 +6,15 @@ import net.sf.jasperreports.engine.export.HtmlExporter;
 import net.sf.jasperreports.engine.export.JRCsvExporter;
 import net.sf.jasperreports.engine.export.ooxml.JRXlsxExporter;
 import net.sf.jasperreports.export.*;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.core.io.ClassPathResource;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
 import javax.sql.DataSource;
 import java.io.ByteArrayOutputStream;
-import java.io.File;
-import java.io.InputStream;
+import java.io.OutputStream;
 import java.sql.Connection;
 import java.util.HashMap;
 import java.util.Map;
@@ -21,75 +22,117 @@ import java.util.Map;
 @Service
 public class ReportService {
 
+    private static final Logger log = LoggerFactory.getLogger(ReportService.class);
+
     @Autowired
     private DataSource dataSource;
 
+    @Autowired
+    private CompiledReportCache reportCache;
+
+    @Autowired
+    private ReportVirtualizerFactory virtualizerFactory;
+
+    @Autowired
+    private ReportResultCache resultCache;
+
+    @Autowired
+    private JasperPrintStore printStore;
+
+    @Autowired
+    private ReportParameterConverter parameterConverter;
+
+    // Keep every /generate fill in the print store so another format can reuse it
+    @Value("${jasper.print-store.reuse-on-generate:false}")
+    private boolean reuseOnGenerate;
+
     public byte[] generateReport(ReportRequest request) throws Exception {
-        String reportName = request.getReportName();
-        InputStream reportStream = null;
-        JasperReport jasperReport = null;
-
-        // 1. Try to load .jrxml from file system (for hot reloading)
-        File fsFile = new File("reports/" + reportName + ".jrxml");
-        if (fsFile.exists()) {
-            try {
-                reportStream = new java.io.FileInputStream(fsFile);
-                jasperReport = JasperCompileManager.compileReport(reportStream);
-            } catch (Exception e) {
-                // Log and ignore, fall back to classpath
-                System.err.println("Failed to load/compile report from file system: " + e.getMessage());
+        Map<String, Object> parameters = prepareParameters(request);
+
+        String cacheKey = resultCache.keyFor(request, parameters);
+        byte[] cached = resultCache.get(cacheKey);
+        if (cached != null) {
+            return cached;
+        }
+
+        // Same fill exported to another format a moment ago: reuse it, skip the database
+        String fillKey = reuseOnGenerate ? resultCache.fillKeyFor(request, parameters) : null;
+        JasperPrint stored = fillKey != null ? printStore.findByFillKey(fillKey) : null;
+
+        byte[] data;
+        if (stored != null) {
+            data = exportReport(stored, request.getFormat());
+        } else {
+            try (FilledReport filled = fill(request, parameters)) {
+                data = exportReport(filled.getJasperPrint(), request.getFormat());
+                if (fillKey != null) {
+                    retain(fillKey, request, filled);
+                }
             }
         }
+        resultCache.put(cacheKey, request, data);
+        return data;
+    }
 
-        // 2. If not found or failed, try classpath
-        if (jasperReport == null) {
-            String reportPath = "reports/" + reportName + ".jasper";
-            try {
-                reportStream = new ClassPathResource(reportPath).getInputStream();
-                jasperReport = (JasperReport) net.sf.jasperreports.engine.util.JRLoader.loadObject(reportStream);
-            } catch (Exception e) {
-                // Try .jrxml if .jasper not found
-                String jrxmlPath = "reports/" + reportName + ".jrxml";
-                reportStream = new ClassPathResource(jrxmlPath).getInputStream();
-                jasperReport = JasperCompileManager.compileReport(reportStream);
+    /**
+     * Fill the report once and keep it for a short time under a handle, so it can be
+     * exported to several formats with {@link #exportRetained}.
+     * @throws IllegalStateException if the print store is disabled or the fill was
+     *         virtualized; storing it would bring every swapped page back onto the heap
+     */
+    public String fillAndRetain(ReportRequest request) throws Exception {
+        if (!printStore.isEnabled()) {
+            throw new IllegalStateException("Print store is disabled");
+        }
+        Map<String, Object> parameters = prepareParameters(request);
+        try (FilledReport filled = fill(request, parameters)) {
+            if (filled.isVirtualized()) {
+                throw new IllegalStateException("Report " + request.getReportName() +
+                    " is too large to retain (virtualized fill); export it with /generate/stream instead");
             }
+            return printStore.store(resultCache.fillKeyFor(request, parameters), request, filled.getJasperPrint());
         }
+    }
 
-        Map<String, Object> parameters = request.getParameters() != null
-            ? request.getParameters()
-            : new HashMap<>();
+    /**
+     * Export a retained fill. Returns false if the handle is unknown or has expired.
+     */
+    public boolean exportRetained(String handle, String format, OutputStream outputStream) throws Exception {
+        JasperPrint jasperPrint = printStore.load(handle);
+        if (jasperPrint == null) {
+            return false;
+        }
+        exportReport(jasperPrint, format, outputStream);
+        return true;
+    }
 
-        // Fix parameter types - convert numeric types for JasperReports compatibility
-        for (Map.Entry<String, Object> entry : parameters.entrySet()) {
-            Object val = entry.getValue();
-            // Convert Integer to Long (JSON deserializes small numbers as Integer)
-            if (val instanceof Integer) {
-                entry.setValue(((Integer) val).longValue());
-            }
-            // Convert String numbers/dates (but not UUIDs)
-            else if (val instanceof String) {
-                String strVal = (String) val;
-                // Check if it's a UUID (format: 8-4-4-4-12 hex chars)
-                boolean isUuid = strVal.matches("[0-9a-fA-F]{8}-[0-9a-fA-F]{4}-[0-9a-fA-F]{4}-[0-9a-fA-F]{4}-[0-9a-fA-F]{12}");
-                if (isUuid) {
-                    // Keep UUIDs as strings
-                }
-                // Convert numeric strings to Long
-                else if (strVal.matches("-?\\d+")) {
-                    try {
-                        entry.setValue(Long.valueOf(strVal));
-                    } catch (NumberFormatException ignored) {}
-                }
-                // Convert date strings to java.sql.Date
-                else if (strVal.matches("\\d{4}-\\d{2}-\\d{2}")) {
-                    try {
-                        entry.setValue(java.sql.Date.valueOf(strVal));
-                    } catch (IllegalArgumentException ignored) {}
-                }
-            }
+    private void retain(String fillKey, ReportRequest request, FilledReport filled) {
+        // Virtualized prints are the ones too big to keep around; do not materialize them
+        if (!printStore.isEnabled() || filled.isVirtualized()) {
+            return;
+        }
+        try {
+            printStore.store(fillKey, request, filled.getJasperPrint());
+        } catch (Exception e) {
+            log.warn("Failed to retain filled report {}: {}", request.getReportName(), e.getMessage());
         }
+    }
+
+    /**
+     * Fill the report without exporting it. Used by the streaming endpoint so that SQL
+     * errors surface before the response is committed. The caller must close the
+     * returned handle once it has finished exporting.
+     */
+    public FilledReport fillReport(ReportRequest request) throws Exception {
+        return fill(request, prepareParameters(request));
+    }
 
-        JasperPrint jasperPrint;
+    /**
+     * Parameters of the request converted to the types the templates expect.
+     */
+    public Map<String, Object> prepareParameters(ReportRequest request) throws Exception {
+        JasperReport jasperReport = reportCache.get(request.getReportName());
+        Map<String, Object> parameters = parameterConverter.convert(jasperReport, request.getParameters());
 
         // Log parameters for debugging
         System.out.println("Report parameters: " + parameters);
@@ -98,15 +141,35 @@ public class ReportService {
                 " (type: " + (entry.getValue() != null ? entry.getValue().getClass().getName() : "null") + ")");
         }
 
+        return parameters;
+    }
+
+    private FilledReport fill(ReportRequest request, Map<String, Object> parameters) throws Exception {
+        JasperReport jasperReport = reportCache.get(request.getReportName());
+
+        JRVirtualizer virtualizer = null;
         try (Connection connection = dataSource.getConnection()) {
-            jasperPrint = JasperFillManager.fillReport(jasperReport, parameters, connection);
+            Map<String, Object> fillParameters = parameters;
+            if (virtualizerFactory.shouldVirtualize(request, jasperReport, parameters, connection)) {
+                virtualizer = virtualizerFactory.create();
+                fillParameters = new HashMap<>(parameters);
+                fillParameters.put(JRParameter.REPORT_VIRTUALIZER, virtualizer);
+            }
+
+            JasperPrint jasperPrint = JasperFillManager.fillReport(jasperReport, fillParameters, connection);
+            if (virtualizer != null) {
+                // No more pages will be added; lets the virtualizer drop its write buffers
+                virtualizer.setReadOnly(true);
+            }
+            return new FilledReport(jasperPrint, virtualizer);
         } catch (Exception e) {
+            if (virtualizer != null) {
+                virtualizer.cleanup();
+            }
             System.err.println("SQL Error: " + e.getMessage());
             e.printStackTrace();
             throw new RuntimeException("Error executing SQL statement for: " + request.getReportName() + ". Details: " + e.getMessage(), e);
         }
-
-        return exportReport(jasperPrint, request.getFormat());
     }
 
     public byte[] generateReportFromTemplate(String templateName, Map<String, Object> parameters, String format) throws Exception {
@@ -119,7 +182,14 @@ public class ReportService {
 
     private byte[] exportReport(JasperPrint jasperPrint, String format) throws Exception {
         ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        exportReport(jasperPrint, format, outputStream);
+        return outputStream.toByteArray();
+    }
 
+    /**
+     * Export a filled report straight into the given stream. The stream is flushed but not closed.
+     */
+    public void exportReport(JasperPrint jasperPrint, String format, OutputStream outputStream) throws Exception {
         switch (format.toLowerCase()) {
             case "pdf":
                 JasperExportManager.exportReportToPdfStream(jasperPrint, outputStream);
@@ -158,7 +228,11 @@ public class ReportService {
                 throw new IllegalArgumentException("Unsupported format: " + format);
         }
 
-        return outputStream.toByteArray();
+        outputStream.flush();
+    }
+
+    public boolean isSupportedFormat(String format) {
+        return format != null && !getFileExtension(format).isEmpty();
     }
 
     public String getContentType(String format) {
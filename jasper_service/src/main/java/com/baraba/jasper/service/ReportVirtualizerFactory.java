@@ -0,0 +1,184 @@
+package com.baraba.jasper.service;
+
+import com.baraba.jasper.model.ReportRequest;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import net.sf.jasperreports.engine.JRQuery;
+import net.sf.jasperreports.engine.JRQueryChunk;
+import net.sf.jasperreports.engine.JRVirtualizable;
+import net.sf.jasperreports.engine.JRVirtualizer;
+import net.sf.jasperreports.engine.JasperReport;
+import net.sf.jasperreports.engine.fill.JRSwapFileVirtualizer;
+import net.sf.jasperreports.engine.util.JRSwapFile;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Decides whether a fill should be virtualized and creates the swap-file virtualizer.
+ *
+ * A request can force the mode with {@code virtualize: true/false}. Otherwise, when
+ * auto mode is on, the report query is run through {@code EXPLAIN} with the request
+ * parameters and the fill is virtualized if Postgres estimates more rows than
+ * {@code jasper.virtualizer.auto-row-threshold}. Auto mode costs an extra round trip on
+ * every fill, small reports included, so it is off unless
+ * {@code jasper.virtualizer.auto-enabled} is set.
+ */
+@Component
+public class ReportVirtualizerFactory {
+
+    private static final Logger log = LoggerFactory.getLogger(ReportVirtualizerFactory.class);
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    private final Counter virtualizedFills;
+    private final Counter pagesOut;
+    private final Counter pagesIn;
+
+    @Value("${jasper.virtualizer.auto-enabled:false}")
+    private boolean autoEnabled;
+
+    @Value("${jasper.virtualizer.auto-row-threshold:50000}")
+    private long autoRowThreshold;
+
+    @Value("${jasper.virtualizer.max-pages-in-memory:100}")
+    private int maxPagesInMemory;
+
+    @Value("${jasper.virtualizer.temp-dir:${java.io.tmpdir}/jasper-swap}")
+    private String tempDir;
+
+    @Value("${jasper.virtualizer.block-size:4096}")
+    private int blockSize;
+
+    @Value("${jasper.virtualizer.min-grow-count:100}")
+    private int minGrowCount;
+
+    public ReportVirtualizerFactory(MeterRegistry registry) {
+        this.virtualizedFills = Counter.builder("jasper.virtualizer.fills")
+            .description("Report fills that used the swap-file virtualizer")
+            .register(registry);
+        this.pagesOut = Counter.builder("jasper.virtualizer.pages")
+            .tag("direction", "out")
+            .description("Report pages swapped out to disk")
+            .register(registry);
+        this.pagesIn = Counter.builder("jasper.virtualizer.pages")
+            .tag("direction", "in")
+            .description("Report pages swapped back in from disk")
+            .register(registry);
+    }
+
+    public boolean shouldVirtualize(ReportRequest request, JasperReport report,
+                                    Map<String, Object> parameters, Connection connection) {
+        if (request.getVirtualize() != null) {
+            return request.getVirtualize();
+        }
+        if (!autoEnabled) {
+            return false;
+        }
+
+        long estimate = estimateRows(report, parameters, connection);
+        if (estimate > autoRowThreshold) {
+            log.info("Virtualizing {}: estimated {} rows > {}", request.getReportName(), estimate, autoRowThreshold);
+            return true;
+        }
+        return false;
+    }
+
+    public JRVirtualizer create() throws IOException {
+        Path dir = Path.of(tempDir);
+        Files.createDirectories(dir);
+
+        JRSwapFile swapFile = new JRSwapFile(dir.toString(), blockSize, minGrowCount);
+        virtualizedFills.increment();
+        return new CountingSwapFileVirtualizer(maxPagesInMemory, swapFile);
+    }
+
+    /**
+     * Row estimate for the report's main query, or -1 if it cannot be estimated
+     * (non-SQL query, $X{} clauses, missing parameters or an EXPLAIN failure).
+     */
+    long estimateRows(JasperReport report, Map<String, Object> parameters, Connection connection) {
+        JRQuery query = report.getQuery();
+        if (query == null || query.getChunks() == null
+                || (query.getLanguage() != null && !"sql".equalsIgnoreCase(query.getLanguage()))) {
+            return -1;
+        }
+
+        StringBuilder sql = new StringBuilder("EXPLAIN (FORMAT JSON) ");
+        List<Object> bindings = new ArrayList<>();
+
+        for (JRQueryChunk chunk : query.getChunks()) {
+            switch (chunk.getType()) {
+                case JRQueryChunk.TYPE_TEXT -> sql.append(chunk.getText());
+                case JRQueryChunk.TYPE_PARAMETER -> {
+                    if (!parameters.containsKey(chunk.getText())) {
+                        return -1;
+                    }
+                    sql.append('?');
+                    bindings.add(parameters.get(chunk.getText()));
+                }
+                case JRQueryChunk.TYPE_PARAMETER_CLAUSE -> {
+                    Object value = parameters.get(chunk.getText());
+                    if (value == null) {
+                        return -1;
+                    }
+                    sql.append(value);
+                }
+                default -> {
+                    return -1;
+                }
+            }
+        }
+
+        try (PreparedStatement stmt = connection.prepareStatement(sql.toString())) {
+            for (int i = 0; i < bindings.size(); i++) {
+                stmt.setObject(i + 1, bindings.get(i));
+            }
+            try (ResultSet rs = stmt.executeQuery()) {
+                if (!rs.next()) {
+                    return -1;
+                }
+                JsonNode plan = objectMapper.readTree(rs.getString(1)).path(0).path("Plan");
+                return plan.path("Plan Rows").asLong(-1);
+            }
+        } catch (Exception e) {
+            log.debug("Could not estimate rows for {}: {}", report.getName(), e.getMessage());
+            return -1;
+        }
+    }
+
+    /**
+     * Swap-file virtualizer that reports page swaps to the meter registry.
+     */
+    private class CountingSwapFileVirtualizer extends JRSwapFileVirtualizer {
+
+        CountingSwapFileVirtualizer(int maxSize, JRSwapFile swapFile) {
+            super(maxSize, swapFile, true);
+        }
+
+        @Override
+        protected void pageOut(JRVirtualizable o) throws IOException {
+            super.pageOut(o);
+            pagesOut.increment();
+        }
+
+        @Override
+        protected void pageIn(JRVirtualizable o) throws IOException {
+            super.pageIn(o);
+            pagesIn.increment();
+        }
+    }
+}
@@ -0,0 +1,96 @@
+package com.baraba.jasper.model;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ReportJobTest {
+
+    @Test
+    void runsAndCompletes() {
+        ReportJob job = job();
+        assertEquals(ReportJob.Status.QUEUED, job.getStatus());
+
+        assertTrue(job.markRunning());
+        assertEquals(ReportJob.Status.RUNNING, job.getStatus());
+        assertNotNull(job.getStartedAt());
+        assertFalse(job.isFinished());
+
+        assertTrue(job.markCompleted(Path.of("result.pdf"), 42));
+        assertEquals(ReportJob.Status.COMPLETED, job.getStatus());
+        assertEquals(Path.of("result.pdf"), job.getResultPath());
+        assertEquals(42, job.getResultSize());
+        assertNotNull(job.getCompletedAt());
+        assertTrue(job.isFinished());
+    }
+
+    @Test
+    void completesOnlyWhenRunning() {
+        ReportJob job = job();
+
+        assertFalse(job.markCompleted(Path.of("result.pdf"), 42));
+        assertEquals(ReportJob.Status.QUEUED, job.getStatus());
+        assertNull(job.getResultPath());
+    }
+
+    @Test
+    void startsOnlyOnce() {
+        ReportJob job = job();
+
+        assertTrue(job.markRunning());
+        assertFalse(job.markRunning());
+    }
+
+    @Test
+    void cancelledWhileQueuedNeverRuns() {
+        ReportJob job = job();
+
+        assertTrue(job.markCancelled());
+        assertFalse(job.markRunning());
+        assertEquals(ReportJob.Status.CANCELLED, job.getStatus());
+    }
+
+    @Test
+    void cancelledWhileRunningCannotComplete() {
+        ReportJob job = job();
+        job.markRunning();
+
+        assertTrue(job.markCancelled());
+        assertFalse(job.markCompleted(Path.of("result.pdf"), 42));
+        assertFalse(job.markFailed("late error"));
+        assertEquals(ReportJob.Status.CANCELLED, job.getStatus());
+        assertNull(job.getResultPath());
+        assertNull(job.getError());
+    }
+
+    @Test
+    void failsWithError() {
+        ReportJob job = job();
+        job.markRunning();
+
+        assertTrue(job.markFailed("SQL error"));
+        assertEquals(ReportJob.Status.FAILED, job.getStatus());
+        assertEquals("SQL error", job.getError());
+        assertTrue(job.isFinished());
+    }
+
+    @Test
+    void finishedJobCannotBeCancelledOrFailed() {
+        ReportJob job = job();
+        job.markRunning();
+        job.markCompleted(Path.of("result.pdf"), 42);
+
+        assertFalse(job.markCancelled());
+        assertFalse(job.markFailed("late error"));
+        assertEquals(ReportJob.Status.COMPLETED, job.getStatus());
+    }
+
+    private static ReportJob job() {
+        ReportRequest request = new ReportRequest();
+        request.setReportName("trial_balance");
+        request.setFormat("pdf");
+        return new ReportJob("job-1", "default", request);
+    }
+}
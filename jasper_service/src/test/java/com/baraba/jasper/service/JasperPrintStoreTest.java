@@ -0,0 +1,111 @@
+package com.baraba.jasper.service;
+
+import com.baraba.jasper.model.ReportRequest;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import net.sf.jasperreports.engine.JasperPrint;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class JasperPrintStoreTest {
+
+    @TempDir
+    Path storeDir;
+
+    private JasperPrintStore store;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        store = new JasperPrintStore(new SimpleMeterRegistry());
+        ReflectionTestUtils.setField(store, "enabled", true);
+        ReflectionTestUtils.setField(store, "storeDir", storeDir.toString());
+        ReflectionTestUtils.setField(store, "ttlMinutes", 5L);
+        ReflectionTestUtils.setField(store, "maxSizeMb", 1L);
+        store.init();
+    }
+
+    @Test
+    void loadsStoredPrintByHandleAndFillKey() throws Exception {
+        String handle = store.store("fill-1", request(), print("trial_balance", 0));
+
+        assertEquals("trial_balance", store.load(handle).getName());
+        assertEquals("trial_balance", store.findByFillKey("fill-1").getName());
+        assertNull(store.findByFillKey("fill-2"));
+        assertEquals(Files.size(storeDir.resolve(handle + ".jrprint")), store.getTotalBytes());
+    }
+
+    @Test
+    void newFillForSameKeyReplacesPrevious() throws Exception {
+        String first = store.store("fill-1", request(), print("first", 0));
+        String second = store.store("fill-1", request(), print("second", 0));
+
+        assertNull(store.load(first));
+        assertEquals("second", store.findByFillKey("fill-1").getName());
+        assertEquals(List.of(storeDir.resolve(second + ".jrprint")), files());
+    }
+
+    @Test
+    void evictsOldestPrintsOverLimit() throws Exception {
+        String first = store.store("fill-1", request(), print("first", 600 * 1024));
+        String second = store.store("fill-2", request(), print("second", 600 * 1024));
+
+        assertNull(store.load(first));
+        assertNull(store.findByFillKey("fill-1"));
+        assertEquals("second", store.load(second).getName());
+        assertEquals(Files.size(storeDir.resolve(second + ".jrprint")), store.getTotalBytes());
+    }
+
+    @Test
+    void rejectsPrintLargerThanStore() throws Exception {
+        assertThrows(IllegalStateException.class,
+            () -> store.store("fill-1", request(), print("huge", 2 * 1024 * 1024)));
+
+        assertEquals(0, store.getTotalBytes());
+        assertNull(store.findByFillKey("fill-1"));
+        assertEquals(List.of(), files());
+    }
+
+    @Test
+    void removeDeletesFileAndBytes() throws Exception {
+        String handle = store.store("fill-1", request(), print("trial_balance", 0));
+
+        assertTrue(store.remove(handle));
+
+        assertFalse(store.remove(handle));
+        assertEquals(0, store.getTotalBytes());
+        assertEquals(List.of(), files());
+    }
+
+    private List<Path> files() {
+        try (Stream<Path> files = Files.list(storeDir)) {
+            return files.toList();
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static JasperPrint print(String name, int padding) {
+        JasperPrint print = new JasperPrint();
+        print.setName(name);
+        if (padding > 0) {
+            print.setProperty("padding", "x".repeat(padding));
+        }
+        return print;
+    }
+
+    private static ReportRequest request() {
+        ReportRequest request = new ReportRequest();
+        request.setReportName("trial_balance");
+        request.setFormat("pdf");
+        return request;
+    }
+}
@@ -0,0 +1,226 @@
+package com.baraba.jasper.service;
+
+import com.baraba.jasper.model.ReportJob;
+import com.baraba.jasper.model.ReportRequest;
+import net.sf.jasperreports.engine.JasperPrint;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ReportJobServiceTest {
+
+    @TempDir
+    Path spoolDir;
+
+    private final FakeReportService reportService = new FakeReportService();
+    private ReportJobService jobs;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        jobs = startService();
+    }
+
+    @AfterEach
+    void tearDown() {
+        reportService.gate.countDown();
+        jobs.shutdown();
+    }
+
+    @Test
+    void completesJobAndSpoolsResult() throws Exception {
+        ReportJob job = jobs.submit(request("trial_balance", "1"));
+
+        await(() -> job.getStatus() == ReportJob.Status.COMPLETED);
+
+        assertEquals("report", Files.readString(job.getResultPath()));
+        assertEquals(6, job.getResultSize());
+        assertEquals(job, jobs.getJob(job.getJobId()).orElseThrow());
+        await(() -> jobs.getRunningCount() == 0);
+    }
+
+    @Test
+    void rejectsUnsupportedFormat() {
+        ReportRequest request = request("trial_balance", "1");
+        request.setFormat("docx");
+
+        assertThrows(IllegalArgumentException.class, () -> jobs.submit(request));
+    }
+
+    @Test
+    void rejectsWhenQueueIsFull() throws Exception {
+        ReflectionTestUtils.setField(jobs, "maxQueued", 1);
+        reportService.gate = new CountDownLatch(1);
+
+        jobs.submit(request("running", "1"));
+        await(() -> reportService.fills().size() == 1);
+        jobs.submit(request("queued", "1"));
+
+        assertEquals(1, jobs.getQueuedCount());
+        assertThrows(IllegalStateException.class, () -> jobs.submit(request("rejected", "1")));
+    }
+
+    @Test
+    void cancelledQueuedJobNeverRuns() throws Exception {
+        reportService.gate = new CountDownLatch(1);
+        ReportJob running = jobs.submit(request("running", "1"));
+        await(() -> reportService.fills().size() == 1);
+        ReportJob queued = jobs.submit(request("queued", "1"));
+
+        assertTrue(jobs.cancel(queued.getJobId()));
+        assertEquals(ReportJob.Status.CANCELLED, queued.getStatus());
+        assertEquals(0, jobs.getQueuedCount());
+
+        reportService.gate.countDown();
+        await(() -> running.getStatus() == ReportJob.Status.COMPLETED);
+        await(() -> jobs.getRunningCount() == 0);
+        assertEquals(List.of("running"), reportService.fills());
+        assertEquals(ReportJob.Status.CANCELLED, queued.getStatus());
+    }
+
+    @Test
+    void cancelledRunningJobDiscardsItsResult() throws Exception {
+        reportService.gate = new CountDownLatch(1);
+        ReportJob job = jobs.submit(request("running", "1"));
+        await(() -> job.getStatus() == ReportJob.Status.RUNNING);
+
+        assertTrue(jobs.cancel(job.getJobId()));
+        reportService.gate.countDown();
+        await(() -> jobs.getRunningCount() == 0);
+
+        assertEquals(ReportJob.Status.CANCELLED, job.getStatus());
+        assertNull(job.getResultPath());
+        assertEquals(List.of(), spoolContents());
+    }
+
+    @Test
+    void failedJobLeavesNoPartialResult() throws Exception {
+        reportService.failExport = true;
+
+        ReportJob job = jobs.submit(request("trial_balance", "1"));
+        await(() -> job.getStatus() == ReportJob.Status.FAILED);
+
+        assertEquals("export failed", job.getError());
+        assertEquals(List.of(), spoolContents());
+    }
+
+    @Test
+    void cancellingFinishedJobRemovesItsResult() throws Exception {
+        ReportJob job = jobs.submit(request("trial_balance", "1"));
+        await(() -> job.getStatus() == ReportJob.Status.COMPLETED);
+        Path result = job.getResultPath();
+
+        assertTrue(jobs.cancel(job.getJobId()));
+
+        assertTrue(jobs.getJob(job.getJobId()).isEmpty());
+        assertFalse(Files.exists(result));
+        assertFalse(jobs.cancel(job.getJobId()));
+    }
+
+    @Test
+    void dispatchesTenantsInTurn() throws Exception {
+        reportService.gate = new CountDownLatch(1);
+        jobs.submit(request("a1", "a"));
+        await(() -> reportService.fills().size() == 1);
+        jobs.submit(request("a2", "a"));
+        ReportJob a3 = jobs.submit(request("a3", "a"));
+        ReportJob b1 = jobs.submit(request("b1", "b"));
+
+        reportService.gate.countDown();
+        await(() -> a3.isFinished() && b1.isFinished());
+
+        assertEquals(List.of("a1", "a2", "b1", "a3"), reportService.fills());
+    }
+
+    @Test
+    void startupDeletesResultsOfPreviousRun() throws Exception {
+        Files.writeString(spoolDir.resolve("lost-job.pdf"), "old report");
+
+        ReportJobService restarted = startService();
+        try {
+            assertEquals(List.of(), spoolContents());
+        } finally {
+            restarted.shutdown();
+        }
+    }
+
+    private ReportJobService startService() throws IOException {
+        ReportJobService service = new ReportJobService();
+        ReflectionTestUtils.setField(service, "reportService", reportService);
+        ReflectionTestUtils.setField(service, "workers", 1);
+        ReflectionTestUtils.setField(service, "maxQueued", 200);
+        ReflectionTestUtils.setField(service, "spoolDir", spoolDir.toString());
+        ReflectionTestUtils.setField(service, "resultTtlMinutes", 60L);
+        service.init();
+        return service;
+    }
+
+    private List<Path> spoolContents() throws IOException {
+        try (Stream<Path> files = Files.list(spoolDir)) {
+            return files.toList();
+        }
+    }
+
+    private static ReportRequest request(String reportName, String companyId) {
+        ReportRequest request = new ReportRequest();
+        request.setReportName(reportName);
+        request.setFormat("pdf");
+        request.setParameters(Map.of("company_id", companyId));
+        return request;
+    }
+
+    private static void await(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (!condition.getAsBoolean()) {
+            assertTrue(System.nanoTime() < deadline, "condition not reached in time");
+            Thread.sleep(10);
+        }
+    }
+
+    /**
+     * Fills instantly, or when the gate opens, and exports a fixed body.
+     */
+    private static final class FakeReportService extends ReportService {
+        private final List<String> fills = Collections.synchronizedList(new ArrayList<>());
+        volatile CountDownLatch gate = new CountDownLatch(0);
+        volatile boolean failExport;
+
+        @Override
+        public FilledReport fillReport(ReportRequest request) throws Exception {
+            fills.add(request.getReportName());
+            assertTrue(gate.await(5, TimeUnit.SECONDS), "gate not opened");
+            return new FilledReport(new JasperPrint(), null);
+        }
+
+        @Override
+        public void exportReport(JasperPrint jasperPrint, String format, OutputStream outputStream) throws Exception {
+            outputStream.write("report".getBytes(StandardCharsets.UTF_8));
+            if (failExport) {
+                throw new IOException("export failed");
+            }
+        }
+
+        List<String> fills() {
+            synchronized (fills) {
+                return new ArrayList<>(fills);
+            }
+        }
+    }
+}
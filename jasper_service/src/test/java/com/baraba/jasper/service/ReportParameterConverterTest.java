@@ -0,0 +1,112 @@
+package com.baraba.jasper.service;
+
+import net.sf.jasperreports.engine.JasperCompileManager;
+import net.sf.jasperreports.engine.JasperReport;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.sql.Timestamp;
+import java.time.LocalDate;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ReportParameterConverterTest {
+
+    private static final String TEMPLATE = """
+        <?xml version="1.0" encoding="UTF-8"?>
+        <jasperReport xmlns="http://jasperreports.sourceforge.net/jasperreports"
+                      xmlns:xsi="http://www.w3.org/2001/XMLSchema-instance"
+                      xsi:schemaLocation="http://jasperreports.sourceforge.net/jasperreports http://jasperreports.sourceforge.net/xsd/jasperreport.xsd"
+                      name="converter_test" pageWidth="595" pageHeight="842" columnWidth="555"
+                      leftMargin="20" rightMargin="20" topMargin="20" bottomMargin="20">
+            <parameter name="company_id" class="java.lang.String"/>
+            <parameter name="year" class="java.lang.Integer"/>
+            <parameter name="amount" class="java.math.BigDecimal"/>
+            <parameter name="from_date" class="java.util.Date"/>
+            <parameter name="as_of" class="java.sql.Timestamp"/>
+            <parameter name="include_zero" class="java.lang.Boolean"/>
+            <parameter name="account_id" class="java.util.UUID"/>
+        </jasperReport>
+        """;
+
+    private static JasperReport report;
+
+    private final ReportParameterConverter converter = new ReportParameterConverter();
+
+    @BeforeAll
+    static void compile() throws Exception {
+        report = JasperCompileManager.compileReport(
+            new ByteArrayInputStream(TEMPLATE.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    @Test
+    void convertsToDeclaredClasses() {
+        UUID account = UUID.randomUUID();
+        Map<String, Object> params = new HashMap<>();
+        params.put("company_id", 42);
+        params.put("year", "2024");
+        params.put("amount", 12.5);
+        params.put("from_date", "2024-01-31");
+        params.put("as_of", "2024-12-31");
+        params.put("include_zero", "true");
+        params.put("account_id", account.toString());
+
+        Map<String, Object> converted = converter.convert(report, params);
+
+        assertEquals("42", converted.get("company_id"));
+        assertEquals(2024, converted.get("year"));
+        assertEquals(new BigDecimal("12.5"), converted.get("amount"));
+        assertEquals(java.sql.Date.valueOf(LocalDate.of(2024, 1, 31)), converted.get("from_date"));
+        assertEquals(Timestamp.valueOf("2024-12-31 00:00:00"), converted.get("as_of"));
+        assertEquals(Boolean.TRUE, converted.get("include_zero"));
+        assertEquals(account, converted.get("account_id"));
+    }
+
+    @Test
+    void acceptsIsoDateTimeForDate() {
+        Map<String, Object> converted = converter.convert(report, Map.of("from_date", "2024-12-31T00:00:00"));
+
+        assertEquals(java.sql.Date.valueOf(LocalDate.of(2024, 12, 31)), converted.get("from_date"));
+    }
+
+    @Test
+    void keepsValuesOfDeclaredClass() {
+        Integer year = 2023;
+
+        Map<String, Object> converted = converter.convert(report, Map.of("year", year));
+
+        assertSame(year, converted.get("year"));
+    }
+
+    @Test
+    void passesUndeclaredAndNullValuesThrough() {
+        Map<String, Object> params = new HashMap<>();
+        params.put("unknown", "123");
+        params.put("year", null);
+
+        Map<String, Object> converted = converter.convert(report, params);
+
+        assertEquals("123", converted.get("unknown"));
+        assertTrue(converted.containsKey("year"));
+        assertNull(converted.get("year"));
+    }
+
+    @Test
+    void returnsEmptyMapForNullParameters() {
+        assertTrue(converter.convert(report, null).isEmpty());
+    }
+
+    @Test
+    void rejectsInvalidValueWithParameterName() {
+        IllegalArgumentException e = assertThrows(IllegalArgumentException.class,
+            () -> converter.convert(report, Map.of("year", "abc")));
+
+        assertTrue(e.getMessage().contains("year"), e.getMessage());
+    }
+}
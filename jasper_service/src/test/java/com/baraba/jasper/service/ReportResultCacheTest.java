@@ -0,0 +1,286 @@
+package com.baraba.jasper.service;
+
+import com.baraba.jasper.model.ReportRequest;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ReportResultCacheTest {
+
+    @TempDir
+    Path cacheDir;
+
+    private final Map<String, String> templateVersions = new HashMap<>();
+    private ReportResultCache cache;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        CompiledReportCache templates = new CompiledReportCache(registry) {
+            @Override
+            public String version(String reportName) {
+                return templateVersions.getOrDefault(reportName, "v1");
+            }
+        };
+
+        cache = new ReportResultCache(templates, registry);
+        ReflectionTestUtils.setField(cache, "enabled", true);
+        ReflectionTestUtils.setField(cache, "cacheDir", cacheDir.toString());
+        ReflectionTestUtils.setField(cache, "maxSizeMb", 1L);
+        ReflectionTestUtils.setField(cache, "ttlMinutes", 30L);
+        cache.init();
+    }
+
+    @Test
+    void keyIgnoresParameterOrder() throws Exception {
+        Map<String, Object> first = new LinkedHashMap<>();
+        first.put("company_id", "1");
+        first.put("year", 2024);
+        Map<String, Object> second = new LinkedHashMap<>();
+        second.put("year", 2024);
+        second.put("company_id", "1");
+
+        assertEquals(cache.keyFor(request("trial_balance", "pdf", first), first),
+            cache.keyFor(request("trial_balance", "pdf", second), second));
+    }
+
+    @Test
+    void keyDependsOnParameterValueAndClass() throws Exception {
+        Map<String, Object> asString = Map.of("company_id", "1", "year", "2024");
+        Map<String, Object> asInteger = Map.of("company_id", "1", "year", 2024);
+        Map<String, Object> otherYear = Map.of("company_id", "1", "year", 2023);
+
+        String key = cache.keyFor(request("trial_balance", "pdf", asInteger), asInteger);
+
+        assertNotEquals(key, cache.keyFor(request("trial_balance", "pdf", asString), asString));
+        assertNotEquals(key, cache.keyFor(request("trial_balance", "pdf", otherYear), otherYear));
+    }
+
+    @Test
+    void keyDependsOnFormatButExcelIsXlsx() throws Exception {
+        Map<String, Object> params = Map.of("company_id", "1");
+
+        String pdf = cache.keyFor(request("trial_balance", "pdf", params), params);
+        String xlsx = cache.keyFor(request("trial_balance", "xlsx", params), params);
+        String excel = cache.keyFor(request("trial_balance", "EXCEL", params), params);
+        String fill = cache.fillKeyFor(request("trial_balance", "pdf", params), params);
+
+        assertNotEquals(pdf, xlsx);
+        assertEquals(xlsx, excel);
+        assertNotEquals(pdf, fill);
+        assertEquals(fill, cache.fillKeyFor(request("trial_balance", "xlsx", params), params));
+    }
+
+    @Test
+    void keyChangesWithTemplateVersion() throws Exception {
+        Map<String, Object> params = Map.of("company_id", "1");
+        ReportRequest request = request("trial_balance", "pdf", params);
+
+        String before = cache.keyFor(request, params);
+        templateVersions.put("trial_balance", "v2");
+
+        assertNotEquals(before, cache.keyFor(request, params));
+    }
+
+    @Test
+    void storesAndReturnsReport() throws Exception {
+        Map<String, Object> params = Map.of("company_id", "1");
+        ReportRequest request = request("trial_balance", "pdf", params);
+        String key = cache.keyFor(request, params);
+
+        assertNull(cache.get(key));
+        cache.put(key, request, bytes("report"));
+
+        assertArrayEquals(bytes("report"), cache.get(key));
+    }
+
+    @Test
+    void invalidatingCompanyRemovesItsEntriesAndChangesItsKeys() throws Exception {
+        Map<String, Object> first = Map.of("company_id", "1");
+        Map<String, Object> second = Map.of("company_id", "2");
+        ReportRequest firstRequest = request("trial_balance", "pdf", first);
+        ReportRequest secondRequest = request("trial_balance", "pdf", second);
+        String firstKey = cache.keyFor(firstRequest, first);
+        String secondKey = cache.keyFor(secondRequest, second);
+        cache.put(firstKey, firstRequest, bytes("first"));
+        cache.put(secondKey, secondRequest, bytes("second"));
+
+        assertEquals(1, cache.invalidate(null, "1"));
+
+        assertNull(cache.get(firstKey));
+        assertNotEquals(firstKey, cache.keyFor(firstRequest, first));
+        assertArrayEquals(bytes("second"), cache.get(secondKey));
+        assertEquals(secondKey, cache.keyFor(secondRequest, second));
+    }
+
+    @Test
+    void invalidatingReportKeepsOtherReports() throws Exception {
+        Map<String, Object> params = Map.of("company_id", "1");
+        ReportRequest trialBalance = request("trial_balance", "pdf", params);
+        ReportRequest balanceSheet = request("balance_sheet", "pdf", params);
+        String trialBalanceKey = cache.keyFor(trialBalance, params);
+        String balanceSheetKey = cache.keyFor(balanceSheet, params);
+        cache.put(trialBalanceKey, trialBalance, bytes("trial balance"));
+        cache.put(balanceSheetKey, balanceSheet, bytes("balance sheet"));
+
+        assertEquals(1, cache.invalidate("trial_balance", "1"));
+
+        assertNull(cache.get(trialBalanceKey));
+        assertArrayEquals(bytes("balance sheet"), cache.get(balanceSheetKey));
+    }
+
+    @Test
+    void invalidatingReportForAllCompaniesKeepsOtherReportsKeys() throws Exception {
+        Map<String, Object> first = Map.of("company_id", "1");
+        Map<String, Object> second = Map.of("company_id", "2");
+        ReportRequest trialBalance = request("trial_balance", "pdf", first);
+        ReportRequest otherCompany = request("trial_balance", "pdf", second);
+        ReportRequest balanceSheet = request("balance_sheet", "pdf", first);
+        String trialBalanceKey = cache.keyFor(trialBalance, first);
+        String otherCompanyKey = cache.keyFor(otherCompany, second);
+        String balanceSheetKey = cache.keyFor(balanceSheet, first);
+        String balanceSheetFillKey = cache.fillKeyFor(balanceSheet, first);
+        cache.put(balanceSheetKey, balanceSheet, bytes("balance sheet"));
+
+        cache.invalidate("trial_balance", null);
+
+        assertNotEquals(trialBalanceKey, cache.keyFor(trialBalance, first));
+        assertNotEquals(otherCompanyKey, cache.keyFor(otherCompany, second));
+        assertEquals(balanceSheetKey, cache.keyFor(balanceSheet, first));
+        assertEquals(balanceSheetFillKey, cache.fillKeyFor(balanceSheet, first));
+        assertArrayEquals(bytes("balance sheet"), cache.get(balanceSheetKey));
+    }
+
+    @Test
+    void invalidatingReportOfCompanyKeepsOtherKeys() throws Exception {
+        Map<String, Object> first = Map.of("company_id", "1");
+        Map<String, Object> second = Map.of("company_id", "2");
+        ReportRequest trialBalance = request("trial_balance", "pdf", first);
+        ReportRequest otherCompany = request("trial_balance", "pdf", second);
+        ReportRequest balanceSheet = request("balance_sheet", "pdf", first);
+        String trialBalanceKey = cache.keyFor(trialBalance, first);
+        String otherCompanyKey = cache.keyFor(otherCompany, second);
+        String balanceSheetKey = cache.keyFor(balanceSheet, first);
+
+        cache.invalidate("trial_balance", "1");
+
+        assertNotEquals(trialBalanceKey, cache.keyFor(trialBalance, first));
+        assertEquals(otherCompanyKey, cache.keyFor(otherCompany, second));
+        assertEquals(balanceSheetKey, cache.keyFor(balanceSheet, first));
+    }
+
+    @Test
+    void concurrentPutsOfOneKeyDoNotMixContents() throws Exception {
+        Map<String, Object> params = Map.of("company_id", "1");
+        ReportRequest request = request("trial_balance", "pdf", params);
+        String key = cache.keyFor(request, params);
+        List<byte[]> bodies = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            byte[] body = new byte[100 * 1024];
+            Arrays.fill(body, (byte) i);
+            bodies.add(body);
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(bodies.size());
+        try {
+            CountDownLatch start = new CountDownLatch(1);
+            List<Future<?>> puts = new ArrayList<>();
+            for (byte[] body : bodies) {
+                puts.add(executor.submit(() -> {
+                    start.await();
+                    cache.put(key, request, body);
+                    return null;
+                }));
+            }
+            start.countDown();
+            for (Future<?> put : puts) {
+                put.get(10, TimeUnit.SECONDS);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        byte[] stored = cache.get(key);
+        assertTrue(bodies.stream().anyMatch(body -> Arrays.equals(body, stored)), "stored body is a mix of writes");
+        try (Stream<Path> files = Files.list(cacheDir)) {
+            assertEquals(List.of(cacheDir.resolve(key)), files.toList());
+        }
+    }
+
+    @Test
+    void invalidatingEverythingChangesAllKeys() throws Exception {
+        Map<String, Object> params = Map.of("company_id", "1");
+        ReportRequest request = request("trial_balance", "pdf", params);
+        String key = cache.keyFor(request, params);
+        cache.put(key, request, bytes("report"));
+
+        assertEquals(1, cache.invalidate(null, null));
+
+        assertNull(cache.get(key));
+        assertNotEquals(key, cache.keyFor(request, params));
+        assertEquals(0L, cache.getTotalBytes());
+    }
+
+    @Test
+    void evictsLeastRecentlyUsedOverMaxSize() throws Exception {
+        byte[] half = new byte[600 * 1024];
+        Map<String, Object> first = Map.of("company_id", "1");
+        Map<String, Object> second = Map.of("company_id", "2");
+        ReportRequest firstRequest = request("trial_balance", "pdf", first);
+        ReportRequest secondRequest = request("trial_balance", "pdf", second);
+        String firstKey = cache.keyFor(firstRequest, first);
+        String secondKey = cache.keyFor(secondRequest, second);
+
+        cache.put(firstKey, firstRequest, half);
+        cache.put(secondKey, secondRequest, half);
+
+        assertNull(cache.get(firstKey));
+        assertNotNull(cache.get(secondKey));
+        assertEquals(half.length, cache.getTotalBytes());
+    }
+
+    @Test
+    void disabledCacheStoresNothing() throws Exception {
+        ReflectionTestUtils.setField(cache, "enabled", false);
+        Map<String, Object> params = Map.of("company_id", "1");
+        ReportRequest request = request("trial_balance", "pdf", params);
+        String key = cache.keyFor(request, params);
+
+        cache.put(key, request, bytes("report"));
+
+        assertNull(cache.get(key));
+        assertEquals(0L, cache.getTotalBytes());
+    }
+
+    private static ReportRequest request(String reportName, String format, Map<String, Object> parameters) {
+        ReportRequest request = new ReportRequest();
+        request.setReportName(reportName);
+        request.setFormat(format);
+        request.setParameters(parameters);
+        return request;
+    }
+
+    private static byte[] bytes(String value) {
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+}
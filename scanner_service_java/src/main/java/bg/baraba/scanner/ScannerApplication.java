@@ -3,9 +3,11 @@ package bg.baraba.scanner;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
 import org.springframework.scheduling.annotation.EnableAsync;
+import org.springframework.scheduling.annotation.EnableScheduling;
 
 @SpringBootApplication
 @EnableAsync
+@EnableScheduling
 public class ScannerApplication {
     public static void main(String[] args) {
         SpringApplication.run(ScannerApplication.class, args);
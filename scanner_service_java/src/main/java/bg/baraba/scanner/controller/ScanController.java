@@ -3,6 +3,8 @@ package bg.baraba.scanner.controller;
 import bg.baraba.scanner.model.dto.*;
 import bg.baraba.scanner.model.entity.ScannedInvoice;
 import bg.baraba.scanner.service.BatchScanService;
+import bg.baraba.scanner.service.UploadStagingService;
+import jakarta.servlet.http.HttpServletRequest;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.http.MediaType;
@@ -10,6 +12,7 @@ import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.multipart.MultipartFile;
 
+import java.io.IOException;
 import java.util.List;
 import java.util.Map;
 
@@ -21,10 +24,11 @@ import java.util.Map;
 public class ScanController {
 
     private final BatchScanService batchScanService;
+    private final UploadStagingService uploadStaging;
 
     /**
      * Upload multiple files for batch scanning
-     * Files will be grouped into batches of 10 and processed asynchronously
+     * Files will be packed into batches by size and page count and processed asynchronously
      *
      * POST /api/scan/batch
      */
@@ -58,6 +62,38 @@ public class ScanController {
         return ResponseEntity.accepted().body(response);
     }
 
+    /**
+     * Upload multiple files for batch scanning, streaming them to disk as they arrive.
+     * Same form fields as /batch; the body is not parsed or buffered by the servlet layer,
+     * so lazy multipart resolution must stay enabled.
+     *
+     * POST /api/scan/batch/stream
+     */
+    @PostMapping(value = "/batch/stream", consumes = MediaType.MULTIPART_FORM_DATA_VALUE)
+    public ResponseEntity<BatchUploadResponse> uploadBatchStream(
+            HttpServletRequest request,
+            @RequestHeader(value = "Authorization", required = false) String authHeader) throws IOException {
+
+        UploadStagingService.StagedUpload upload = uploadStaging.stage(request.getInputStream(), request.getContentType());
+
+        String companyUid = upload.fields().get("companyUid");
+        String invoiceType = upload.fields().get("invoiceType");
+        if (companyUid == null || invoiceType == null) {
+            uploadStaging.discard(upload);
+            throw new IllegalArgumentException("companyUid and invoiceType are required");
+        }
+
+        log.info("Received streamed batch upload: {} files for company {}", upload.files().size(), companyUid);
+
+        Long userId = extractUserId(authHeader);
+
+        BatchUploadResponse response = batchScanService.startBatchProcessing(
+            upload, companyUid, invoiceType, userId
+        );
+
+        return ResponseEntity.accepted().body(response);
+    }
+
     /**
      * Single file scan (backwards compatibility with old Nim API)
      *
@@ -33,6 +33,10 @@ public class RecognizedInvoice {
     private Long sessionId;
     private Long journalEntryId;
 
+    // Pages of the analyzed PDF the document was found on (1-based), used to map it to its file
+    private Integer firstPage;
+    private Integer lastPage;
+
     @Data
     @Builder
     @NoArgsConstructor
@@ -0,0 +1,43 @@
+package bg.baraba.scanner.model.entity;
+
+import jakarta.persistence.*;
+import lombok.*;
+import org.hibernate.annotations.JdbcTypeCode;
+import org.hibernate.type.SqlTypes;
+
+import java.time.Instant;
+
+@Entity
+@Table(name = "scanner_recognition_cache")
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+public class RecognitionCacheEntry {
+
+    @Id
+    @Column(name = "content_hash", length = 64)
+    private String contentHash;
+
+    @Column(name = "model_id", nullable = false)
+    private String modelId;
+
+    // JSON array of RecognizedInvoice
+    @JdbcTypeCode(SqlTypes.JSON)
+    @Column(nullable = false, columnDefinition = "jsonb")
+    private String result;
+
+    @Column(name = "invoice_count", nullable = false)
+    private Integer invoiceCount;
+
+    @Column(name = "hit_count", nullable = false)
+    @Builder.Default
+    private Long hitCount = 0L;
+
+    @Column(name = "created_at", nullable = false, updatable = false)
+    @Builder.Default
+    private Instant createdAt = Instant.now();
+
+    @Column(name = "last_hit_at")
+    private Instant lastHitAt;
+}
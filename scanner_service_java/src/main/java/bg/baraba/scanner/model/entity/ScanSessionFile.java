@@ -12,8 +12,10 @@ import java.time.Instant;
 @Builder
 public class ScanSessionFile {
 
+    // Ids are taken 50 at a time from the sequence (INCREMENT BY 50), so inserts can be batched
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "scan_session_files_seq")
+    @SequenceGenerator(name = "scan_session_files_seq", sequenceName = "scan_session_files_id_seq", allocationSize = 50)
     private Long id;
 
     @Column(name = "session_id", nullable = false)
@@ -28,6 +30,10 @@ public class ScanSessionFile {
     @Column(name = "file_size")
     private Long fileSize;
 
+    // SHA-256 of the uploaded bytes, key of the recognition cache
+    @Column(name = "content_hash", length = 64)
+    private String contentHash;
+
     @Column(name = "batch_number")
     private Integer batchNumber;
 
@@ -42,6 +48,13 @@ public class ScanSessionFile {
     @Column(name = "error_message")
     private String errorMessage;
 
+    // Worker holding the batch while PROCESSING ("<instance>/<uuid>") and when it took it
+    @Column(name = "claimed_by", length = 100)
+    private String claimedBy;
+
+    @Column(name = "claimed_at")
+    private Instant claimedAt;
+
     @Column(name = "created_at", nullable = false, updatable = false)
     @Builder.Default
     private Instant createdAt = Instant.now();
@@ -14,8 +14,10 @@ import java.time.LocalDate;
 @Builder
 public class ScannedInvoice {
 
+    // Ids are taken 50 at a time from the sequence (INCREMENT BY 50), so inserts can be batched
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "scanned_invoices_seq")
+    @SequenceGenerator(name = "scanned_invoices_seq", sequenceName = "scanned_invoices_id_seq", allocationSize = 50)
     private Long id;
 
     @Column(name = "session_id")
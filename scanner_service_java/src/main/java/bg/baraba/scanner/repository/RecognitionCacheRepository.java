@@ -0,0 +1,34 @@
+package bg.baraba.scanner.repository;
+
+import bg.baraba.scanner.model.entity.RecognitionCacheEntry;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+@Repository
+public interface RecognitionCacheRepository extends JpaRepository<RecognitionCacheEntry, String> {
+
+    @Transactional
+    @Modifying
+    @Query("UPDATE RecognitionCacheEntry e SET e.hitCount = e.hitCount + :hits, e.lastHitAt = CURRENT_TIMESTAMP " +
+           "WHERE e.contentHash = :hash")
+    int recordHits(@Param("hash") String hash, @Param("hits") long hits);
+
+    /**
+     * Insert or replace the result for a hash; concurrent sessions may store the same file.
+     */
+    @Transactional
+    @Modifying
+    @Query(value = "INSERT INTO scanner_recognition_cache (content_hash, model_id, result, invoice_count) " +
+                   "VALUES (:hash, :modelId, CAST(:result AS jsonb), :invoiceCount) " +
+                   "ON CONFLICT (content_hash) DO UPDATE SET model_id = EXCLUDED.model_id, " +
+                   "result = EXCLUDED.result, invoice_count = EXCLUDED.invoice_count, created_at = NOW()",
+           nativeQuery = true)
+    int upsert(@Param("hash") String hash,
+               @Param("modelId") String modelId,
+               @Param("result") String result,
+               @Param("invoiceCount") int invoiceCount);
+}
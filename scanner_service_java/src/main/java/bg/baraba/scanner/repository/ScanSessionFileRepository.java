@@ -2,9 +2,16 @@ package bg.baraba.scanner.repository;
 
 import bg.baraba.scanner.model.entity.ScanSessionFile;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
 
+import java.time.Instant;
+import java.util.Collection;
 import java.util.List;
+import java.util.Optional;
 
 @Repository
 public interface ScanSessionFileRepository extends JpaRepository<ScanSessionFile, Long> {
@@ -14,4 +21,69 @@ public interface ScanSessionFileRepository extends JpaRepository<ScanSessionFile
     List<ScanSessionFile> findBySessionIdAndBatchNumber(Long sessionId, Integer batchNumber);
 
     List<ScanSessionFile> findBySessionIdOrderByBatchNumberAscPageInBatchAsc(Long sessionId);
+
+    /**
+     * Lock the first file of the next batch that is pending, or whose claim has expired, in a
+     * session that is still processing. Rows locked by another worker are skipped, so
+     * concurrent workers never pick the same batch.
+     */
+    @Query(value = "SELECT f.batch_number FROM scan_session_files f " +
+                   "JOIN scan_sessions s ON s.id = f.session_id " +
+                   "WHERE f.session_id = :sessionId AND f.page_in_batch = 1 AND s.status = 'PROCESSING' " +
+                   "AND (f.status = 'PENDING' OR (f.status = 'PROCESSING' AND f.claimed_at < :staleBefore)) " +
+                   "ORDER BY f.batch_number LIMIT 1 " +
+                   "FOR UPDATE OF f SKIP LOCKED",
+           nativeQuery = true)
+    Optional<Integer> lockNextBatch(@Param("sessionId") Long sessionId,
+                                    @Param("staleBefore") Instant staleBefore);
+
+    @Modifying
+    @Query("UPDATE ScanSessionFile f SET f.status = :processing, f.claimedBy = :claim, f.claimedAt = :now " +
+           "WHERE f.sessionId = :sessionId AND f.batchNumber = :batchNumber AND f.status IN :claimable")
+    int claimBatch(@Param("sessionId") Long sessionId,
+                   @Param("batchNumber") Integer batchNumber,
+                   @Param("claim") String claim,
+                   @Param("now") Instant now,
+                   @Param("claimable") Collection<ScanSessionFile.FileStatus> claimable,
+                   @Param("processing") ScanSessionFile.FileStatus processing);
+
+    /**
+     * Hand back batches claimed by an earlier run of this instance; it cannot still be working on them.
+     * @param claimPrefix LIKE pattern with '!' as the escape character
+     */
+    @Transactional
+    @Modifying
+    @Query("UPDATE ScanSessionFile f SET f.status = :pending, f.claimedBy = NULL, f.claimedAt = NULL " +
+           "WHERE f.status = :processing AND f.claimedBy LIKE :claimPrefix ESCAPE '!'")
+    int releaseClaims(@Param("claimPrefix") String claimPrefix,
+                      @Param("processing") ScanSessionFile.FileStatus processing,
+                      @Param("pending") ScanSessionFile.FileStatus pending);
+
+    /**
+     * Hand back batches whose claim has expired, whoever holds it.
+     */
+    @Transactional
+    @Modifying
+    @Query("UPDATE ScanSessionFile f SET f.status = :pending, f.claimedBy = NULL, f.claimedAt = NULL " +
+           "WHERE f.status = :processing AND f.claimedAt < :staleBefore")
+    int releaseExpiredClaims(@Param("staleBefore") Instant staleBefore,
+                             @Param("processing") ScanSessionFile.FileStatus processing,
+                             @Param("pending") ScanSessionFile.FileStatus pending);
+
+    @Modifying
+    @Query("UPDATE ScanSessionFile f SET f.status = :status, f.errorMessage = :errorMessage " +
+           "WHERE f.id IN :ids AND f.claimedBy = :claim")
+    int updateStatus(@Param("ids") Collection<Long> ids,
+                     @Param("claim") String claim,
+                     @Param("status") ScanSessionFile.FileStatus status,
+                     @Param("errorMessage") String errorMessage);
+
+    @Modifying
+    @Query("UPDATE ScanSessionFile f SET f.status = :status, f.errorMessage = :errorMessage " +
+           "WHERE f.sessionId = :sessionId AND f.batchNumber = :batchNumber AND f.claimedBy = :claim")
+    int updateBatchStatus(@Param("sessionId") Long sessionId,
+                          @Param("batchNumber") Integer batchNumber,
+                          @Param("claim") String claim,
+                          @Param("status") ScanSessionFile.FileStatus status,
+                          @Param("errorMessage") String errorMessage);
 }
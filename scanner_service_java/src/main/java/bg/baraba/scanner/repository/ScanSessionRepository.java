@@ -2,8 +2,13 @@ package bg.baraba.scanner.repository;
 
 import bg.baraba.scanner.model.entity.ScanSession;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
 
+import java.util.Collection;
 import java.util.List;
 
 @Repository
@@ -13,5 +18,47 @@ public interface ScanSessionRepository extends JpaRepository<ScanSession, Long>
 
     List<ScanSession> findByStatus(ScanSession.SessionStatus status);
 
+    List<ScanSession> findByStatusIn(Collection<ScanSession.SessionStatus> statuses);
+
     List<ScanSession> findByCompanyUidAndStatus(String companyUid, ScanSession.SessionStatus status);
+
+    @Modifying
+    @Query("UPDATE ScanSession s SET s.processedBatches = s.processedBatches + 1, " +
+           "s.processedFiles = s.processedFiles + :files, s.updatedAt = CURRENT_TIMESTAMP " +
+           "WHERE s.id = :sessionId")
+    int incrementProgress(@Param("sessionId") Long sessionId, @Param("files") int files);
+
+    /**
+     * Move the session to a new status if it is currently in one of the given ones.
+     * @return 0 if another worker already moved it elsewhere
+     */
+    @Transactional
+    @Modifying
+    @Query("UPDATE ScanSession s SET s.status = :to, s.updatedAt = CURRENT_TIMESTAMP " +
+           "WHERE s.id = :sessionId AND s.status IN :from")
+    int transition(@Param("sessionId") Long sessionId,
+                   @Param("from") Collection<ScanSession.SessionStatus> from,
+                   @Param("to") ScanSession.SessionStatus to);
+
+    @Transactional
+    @Modifying
+    @Query("UPDATE ScanSession s SET s.status = :failed, s.errorMessage = :errorMessage, " +
+           "s.updatedAt = CURRENT_TIMESTAMP WHERE s.id = :sessionId AND s.status IN :from")
+    int fail(@Param("sessionId") Long sessionId,
+             @Param("errorMessage") String errorMessage,
+             @Param("from") Collection<ScanSession.SessionStatus> from,
+             @Param("failed") ScanSession.SessionStatus failed);
+
+    /**
+     * Mark the session completed once none of its files is pending or being processed.
+     * Only one of several workers finishing at the same time gets 1.
+     */
+    @Transactional
+    @Modifying
+    @Query(value = "UPDATE scan_sessions SET status = 'COMPLETED', completed_at = NOW(), updated_at = NOW() " +
+                   "WHERE id = :sessionId AND status = 'PROCESSING' AND NOT EXISTS (" +
+                   "SELECT 1 FROM scan_session_files WHERE session_id = :sessionId " +
+                   "AND status IN ('PENDING', 'PROCESSING'))",
+           nativeQuery = true)
+    int complete(@Param("sessionId") Long sessionId);
 }
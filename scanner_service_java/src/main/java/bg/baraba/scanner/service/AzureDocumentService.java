@@ -1,41 +1,101 @@
 package bg.baraba.scanner.service;
 
 import bg.baraba.scanner.model.dto.RecognizedInvoice;
-import com.azure.ai.formrecognizer.documentanalysis.DocumentAnalysisClient;
+import com.azure.ai.formrecognizer.documentanalysis.DocumentAnalysisAsyncClient;
 import com.azure.ai.formrecognizer.documentanalysis.DocumentAnalysisClientBuilder;
 import com.azure.ai.formrecognizer.documentanalysis.models.*;
 import com.azure.core.credential.AzureKeyCredential;
+import com.azure.core.exception.HttpResponseException;
+import com.azure.core.http.HttpHeaderName;
+import com.azure.core.http.HttpPipelineCallContext;
+import com.azure.core.http.HttpPipelineNextPolicy;
+import com.azure.core.http.HttpResponse;
+import com.azure.core.http.policy.FixedDelayOptions;
+import com.azure.core.http.policy.HttpPipelinePolicy;
+import com.azure.core.http.policy.RetryOptions;
 import com.azure.core.util.BinaryData;
+import com.azure.core.util.polling.LongRunningOperationStatus;
+import lombok.RequiredArgsConstructor;
+import org.apache.pdfbox.Loader;
+import org.apache.pdfbox.pdmodel.PDDocument;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
 import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import reactor.core.publisher.Mono;
+
+import java.io.IOException;
 import java.math.BigDecimal;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
 import java.time.LocalDate;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
 
 @Service
 @Slf4j
+@RequiredArgsConstructor
 public class AzureDocumentService {
 
+    public static final String MODEL_ID = "prebuilt-invoice";
+
+    // First pause before resending after a network error or 5xx; doubles with every attempt
+    private static final long TRANSIENT_RETRY_DELAY_MS = 1000;
+
+    private final AzureRateLimiter rateLimiter;
+
     @Value("${azure.document-intelligence.endpoint:}")
     private String endpoint;
 
     @Value("${azure.document-intelligence.api-key:}")
     private String apiKey;
 
-    private DocumentAnalysisClient client;
+    @Value("${azure.document-intelligence.max-retries:3}")
+    private int maxRetries;
+
+    @Value("${azure.document-intelligence.poll-interval-ms:1000}")
+    private long pollIntervalMs;
+
+    @Value("${spring.threads.virtual.enabled:false}")
+    private boolean virtualThreads;
+
+    private DocumentAnalysisAsyncClient client;
     private boolean mockMode = false;
 
+    // Admission waits block, so they run here instead of on Reactor's threads
+    private ExecutorService admissionExecutor;
+
     @PostConstruct
     public void init() {
+        // One thread per waiting call, so callers of different companies queue in the rate
+        // limiter rather than behind each other; in-flight batches bound the platform threads
+        admissionExecutor = virtualThreads
+            ? Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("azure-admission-", 1).factory())
+            : Executors.newCachedThreadPool(namedThreads("azure-admission-"));
+
         if (endpoint != null && !endpoint.isEmpty() && apiKey != null && !apiKey.isEmpty()) {
             try {
                 client = new DocumentAnalysisClientBuilder()
                     .endpoint(endpoint)
                     .credential(new AzureKeyCredential(apiKey))
-                    .buildClient();
+                    // Retries happen only in attempt(), so every resend waits for the rate limiter
+                    .retryOptions(new RetryOptions(new FixedDelayOptions(0, Duration.ZERO)))
+                    .addPolicy(new ThrottleFeedbackPolicy())
+                    .buildAsyncClient();
                 log.info("Azure Document Intelligence client initialized successfully");
             } catch (Exception e) {
                 log.error("Failed to initialize Azure client: {}", e.getMessage());
@@ -47,41 +107,192 @@ public class AzureDocumentService {
         }
     }
 
+    @PreDestroy
+    public void shutdown() {
+        admissionExecutor.shutdownNow();
+    }
+
+    private static ThreadFactory namedThreads(String prefix) {
+        AtomicInteger count = new AtomicInteger();
+        return r -> {
+            Thread t = new Thread(r, prefix + count.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        };
+    }
+
     /**
-     * Recognize invoices from PDF data
+     * Recognize invoices from PDF data, blocking until Azure has finished.
      * @param pdfData PDF file bytes
      * @param invoiceType PURCHASE or SALES
+     * @param companyUid company the call is made for, used for fair queuing between companies
      * @return List of recognized invoices (one per page/document)
      */
-    public List<RecognizedInvoice> recognizeInvoices(byte[] pdfData, String invoiceType) {
+    public List<RecognizedInvoice> recognizeInvoices(byte[] pdfData, String invoiceType, String companyUid) {
+        try {
+            return recognizeInvoicesAsync(pdfData, invoiceType, companyUid).join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException cause) {
+                throw cause;
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Recognize invoices from PDF data without holding a thread while Azure works.
+     *
+     * The analyze request is sent once the rate limiter admits it; the result is then
+     * polled reactively every {@code azure.document-intelligence.poll-interval-ms}.
+     * Throttled requests, network errors and 5xx responses are retried up to
+     * {@code max-retries} times; the SDK's own retry policy is turned off.
+     */
+    public CompletableFuture<List<RecognizedInvoice>> recognizeInvoicesAsync(
+            byte[] pdfData, String invoiceType, String companyUid) {
+        return recognizeAsync(BinaryData.fromBytes(pdfData), invoiceType, companyUid);
+    }
+
+    /**
+     * Same as {@link #recognizeInvoicesAsync(byte[], String, String)} for a PDF on disk; the
+     * file is streamed to Azure (again on each retry) instead of being read into memory.
+     */
+    public CompletableFuture<List<RecognizedInvoice>> recognizeInvoicesAsync(
+            Path pdfFile, String invoiceType, String companyUid) {
+        return recognizeAsync(BinaryData.fromFile(pdfFile), invoiceType, companyUid);
+    }
+
+    private CompletableFuture<List<RecognizedInvoice>> recognizeAsync(
+            BinaryData pdfData, String invoiceType, String companyUid) {
         if (mockMode || client == null) {
             log.info("Using mock data (Azure not configured)");
-            return List.of(createMockInvoice(invoiceType));
+            return CompletableFuture.completedFuture(createMockInvoices(pdfData, invoiceType));
         }
+        return attempt(pdfData, invoiceType, companyUid, 1, admissionExecutor);
+    }
 
-        log.info("Sending {} bytes to Azure Document Intelligence", pdfData.length);
-        long startTime = System.currentTimeMillis();
+    private CompletableFuture<List<RecognizedInvoice>> attempt(
+            BinaryData pdfData, String invoiceType, String companyUid, int attempt, Executor admitOn) {
+        return CompletableFuture
+            // Waits for the rate limiter, including any Retry-After pause from earlier throttling
+            .supplyAsync(() -> rateLimiter.acquire(companyUid), admitOn)
+            .thenCompose(permit -> analyze(pdfData, invoiceType)
+                .doOnSuccess(invoices -> permit.success())
+                .doFinally(signal -> permit.close())
+                .toFuture())
+            .handle((invoices, error) -> {
+                if (error == null) {
+                    return CompletableFuture.completedFuture(invoices);
+                }
+                Throwable cause = error instanceof CompletionException && error.getCause() != null
+                    ? error.getCause() : error;
+
+                if (cause instanceof HttpResponseException e && isThrottled(e.getResponse()) && attempt <= maxRetries) {
+                    // The policy has already paused the limiter for Retry-After
+                    log.warn("Azure throttled the request (attempt {}/{}), retrying", attempt, maxRetries + 1);
+                    return attempt(pdfData, invoiceType, companyUid, attempt + 1, admissionExecutor);
+                }
+                if (isTransient(cause) && attempt <= maxRetries) {
+                    long delay = TRANSIENT_RETRY_DELAY_MS << (attempt - 1);
+                    log.warn("Azure request failed (attempt {}/{}): {}, retrying in {}ms",
+                        attempt, maxRetries + 1, cause.getMessage(), delay);
+                    return attempt(pdfData, invoiceType, companyUid, attempt + 1,
+                        CompletableFuture.delayedExecutor(delay, TimeUnit.MILLISECONDS, admissionExecutor));
+                }
+                if (cause instanceof ExternalCallLimiter.ServiceBusyException) {
+                    return CompletableFuture.<List<RecognizedInvoice>>failedFuture(cause);
+                }
+                log.error("Azure document analysis failed: {}", cause.getMessage(), cause);
+                return CompletableFuture.<List<RecognizedInvoice>>failedFuture(
+                    new RuntimeException("Document analysis failed: " + cause.getMessage(), cause));
+            })
+            .thenCompose(Function.identity());
+    }
+
+    private Mono<List<RecognizedInvoice>> analyze(BinaryData pdfData, String invoiceType) {
+        return Mono.defer(() -> {
+            log.info("Sending {} bytes to Azure Document Intelligence", pdfData.getLength());
+            long startTime = System.currentTimeMillis();
 
-        try {
             // Analyze document using prebuilt-invoice model
-            AnalyzeResult result = client
-                .beginAnalyzeDocument("prebuilt-invoice", BinaryData.fromBytes(pdfData))
-                .getFinalResult();
+            return client
+                .beginAnalyzeDocument(MODEL_ID, pdfData)
+                .setPollInterval(Duration.ofMillis(pollIntervalMs))
+                .last()
+                .flatMap(response -> {
+                    if (response.getStatus() != LongRunningOperationStatus.SUCCESSFULLY_COMPLETED) {
+                        return Mono.error(new RuntimeException("Analysis ended with status " + response.getStatus()));
+                    }
+                    return response.getFinalResult();
+                })
+                .map(result -> {
+                    List<RecognizedInvoice> invoices = new ArrayList<>();
 
-            List<RecognizedInvoice> invoices = new ArrayList<>();
+                    for (AnalyzedDocument document : result.getDocuments()) {
+                        invoices.add(parseDocument(document, invoiceType));
+                    }
 
-            for (AnalyzedDocument document : result.getDocuments()) {
-                invoices.add(parseDocument(document, invoiceType));
-            }
+                    long duration = System.currentTimeMillis() - startTime;
+                    log.info("Recognized {} invoices in {}ms", invoices.size(), duration);
 
-            long duration = System.currentTimeMillis() - startTime;
-            log.info("Recognized {} invoices in {}ms", invoices.size(), duration);
+                    return invoices;
+                });
+        });
+    }
 
-            return invoices;
+    private static boolean isThrottled(HttpResponse response) {
+        return response != null && (response.getStatusCode() == 429 || response.getStatusCode() == 503);
+    }
 
-        } catch (Exception e) {
-            log.error("Azure document analysis failed: {}", e.getMessage(), e);
-            throw new RuntimeException("Document analysis failed: " + e.getMessage(), e);
+    /**
+     * Failures the SDK's default retry policy used to retry: timeouts, 5xx and I/O errors
+     * (Reactor may wrap the latter in a RuntimeException).
+     */
+    private static boolean isTransient(Throwable error) {
+        if (error instanceof HttpResponseException e) {
+            int status = e.getResponse() != null ? e.getResponse().getStatusCode() : 0;
+            return status == 408 || status == 500 || status == 502 || status == 504;
+        }
+        return error instanceof IOException || error instanceof TimeoutException
+            || error.getCause() instanceof IOException || error.getCause() instanceof TimeoutException;
+    }
+
+    /**
+     * Retry-After of a throttled response: retry-after-ms, then Retry-After in seconds or as an HTTP date.
+     */
+    private static Duration retryAfter(HttpResponse response) {
+        try {
+            String millis = response.getHeaderValue(HttpHeaderName.fromString("retry-after-ms"));
+            if (millis != null) {
+                return Duration.ofMillis(Long.parseLong(millis.trim()));
+            }
+            String value = response.getHeaderValue(HttpHeaderName.RETRY_AFTER);
+            if (value == null) {
+                return null;
+            }
+            value = value.trim();
+            if (value.chars().allMatch(Character::isDigit)) {
+                return Duration.ofSeconds(Long.parseLong(value));
+            }
+            Duration until = Duration.between(Instant.now(),
+                ZonedDateTime.parse(value, DateTimeFormatter.RFC_1123_DATE_TIME).toInstant());
+            return until.isNegative() ? Duration.ZERO : until;
+        } catch (RuntimeException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Reports every 429/503 the SDK sees (including result polls) to
+     * the rate limiter, so the whole service backs off rather than just the failing call.
+     */
+    private class ThrottleFeedbackPolicy implements HttpPipelinePolicy {
+        @Override
+        public Mono<HttpResponse> process(HttpPipelineCallContext context, HttpPipelineNextPolicy next) {
+            return next.process().doOnNext(response -> {
+                if (isThrottled(response)) {
+                    rateLimiter.onThrottled(retryAfter(response));
+                }
+            });
         }
     }
 
@@ -133,6 +344,17 @@ public class AzureDocumentService {
         // Calculate confidence
         BigDecimal confidence = BigDecimal.valueOf(doc.getConfidence());
 
+        // Pages the document spans in the submitted PDF
+        Integer firstPage = null;
+        Integer lastPage = null;
+        if (doc.getBoundingRegions() != null) {
+            for (BoundingRegion region : doc.getBoundingRegions()) {
+                int page = region.getPageNumber();
+                firstPage = firstPage == null ? page : Math.min(firstPage, page);
+                lastPage = lastPage == null ? page : Math.max(lastPage, page);
+            }
+        }
+
         return RecognizedInvoice.builder()
             .vendorName(vendorName)
             .vendorVatNumber(vendorVat)
@@ -151,6 +373,8 @@ public class AzureDocumentService {
             .requiresManualReview(needsReview)
             .manualReviewReason(reviewReason.toString().trim())
             .confidence(confidence)
+            .firstPage(firstPage)
+            .lastPage(lastPage)
             .build();
     }
 
@@ -218,6 +442,29 @@ public class AzureDocumentService {
         }
     }
 
+    /**
+     * One mock invoice per page, with page numbers like Azure reports them, so every file of
+     * a merged batch gets its own result.
+     */
+    private List<RecognizedInvoice> createMockInvoices(BinaryData pdfData, String invoiceType) {
+        int pages;
+        try (PDDocument document = Loader.loadPDF(pdfData.toBytes())) {
+            pages = Math.max(1, document.getNumberOfPages());
+        } catch (Exception e) {
+            log.debug("Mock mode could not count pages: {}", e.getMessage());
+            return List.of(createMockInvoice(invoiceType));
+        }
+
+        List<RecognizedInvoice> invoices = new ArrayList<>(pages);
+        for (int page = 1; page <= pages; page++) {
+            RecognizedInvoice invoice = createMockInvoice(invoiceType);
+            invoice.setFirstPage(page);
+            invoice.setLastPage(page);
+            invoices.add(invoice);
+        }
+        return invoices;
+    }
+
     private RecognizedInvoice createMockInvoice(String invoiceType) {
         return RecognizedInvoice.builder()
             .vendorName("Mock Доставчик ЕООД")
@@ -0,0 +1,306 @@
+package bg.baraba.scanner.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Admission control for Azure Document Intelligence calls, shared by all sessions.
+ *
+ * A call is admitted when three conditions hold:
+ * <ul>
+ *   <li>a token is available in a bucket refilled at {@code rate-limit.tps} (our tier's quota)</li>
+ *   <li>the number of calls in flight is below the adaptive concurrency limit</li>
+ *   <li>Azure has not asked us to back off (Retry-After of the last 429/503)</li>
+ * </ul>
+ * The concurrency limit follows AIMD: it grows by about one per window of successful calls
+ * up to {@code max-concurrent-requests} and is halved on throttling. Waiting callers are
+ * queued per company and admitted round-robin, so one large upload cannot starve others.
+ *
+ * Uses a ReentrantLock rather than monitors so that waiting virtual threads do not pin
+ * their carrier.
+ */
+@Component
+@Slf4j
+public class AzureRateLimiter {
+
+    private final double tokensPerSecond;
+    private final double burst;
+    private final int maxLimit;
+    private final int minLimit;
+    private final double backoffFactor;
+    private final Duration defaultRetryAfter;
+
+    @Value("${scanner.limits.acquire-timeout-seconds:300}")
+    private long acquireTimeoutSeconds;
+
+    private final ReentrantLock lock = new ReentrantLock(true);
+    private final Condition changed = lock.newCondition();
+
+    // Guarded by lock
+    private final Map<String, Deque<Waiter>> waiting = new HashMap<>();
+    private final Deque<String> rotation = new ArrayDeque<>();
+    private int waiters;
+    private int inFlight;
+    private double limit;
+    private double tokens;
+    private long lastRefillNanos = System.nanoTime();
+    private long pausedUntilNanos = System.nanoTime();
+    private long lastDecreaseNanos = System.nanoTime() - TimeUnit.HOURS.toNanos(1);
+
+    private final Counter throttled;
+
+    public AzureRateLimiter(
+            @Value("${azure.document-intelligence.rate-limit.tps:15}") double tokensPerSecond,
+            @Value("${azure.document-intelligence.rate-limit.burst:15}") double burst,
+            @Value("${azure.document-intelligence.max-concurrent-requests:8}") int maxLimit,
+            @Value("${azure.document-intelligence.adaptive.min-concurrent-requests:1}") int minLimit,
+            @Value("${azure.document-intelligence.adaptive.backoff-factor:0.5}") double backoffFactor,
+            @Value("${azure.document-intelligence.adaptive.default-retry-after-seconds:2}") long defaultRetryAfterSeconds,
+            MeterRegistry registry) {
+        this.tokensPerSecond = tokensPerSecond;
+        this.burst = burst;
+        this.maxLimit = maxLimit;
+        this.minLimit = Math.max(1, Math.min(minLimit, maxLimit));
+        this.backoffFactor = backoffFactor;
+        this.defaultRetryAfter = Duration.ofSeconds(defaultRetryAfterSeconds);
+        this.limit = maxLimit;
+        this.tokens = burst;
+
+        this.throttled = Counter.builder("scanner.azure.throttled")
+            .description("429/503 responses received from Azure Document Intelligence")
+            .register(registry);
+        Gauge.builder("scanner.azure.concurrency.limit", this, AzureRateLimiter::getLimit)
+            .description("Current adaptive limit of concurrent Azure calls")
+            .register(registry);
+        Gauge.builder("scanner.external.in_flight", this, AzureRateLimiter::getInFlight)
+            .tag("service", "azure")
+            .description("Requests currently in flight to the external service")
+            .register(registry);
+        Gauge.builder("scanner.external.waiting", this, AzureRateLimiter::getWaiting)
+            .tag("service", "azure")
+            .description("Callers waiting for a request slot")
+            .register(registry);
+    }
+
+    /**
+     * Wait until a call for the company may start. The returned permit must be closed.
+     * @throws ExternalCallLimiter.ServiceBusyException if not admitted within the timeout
+     */
+    public Permit acquire(String tenant) {
+        String key = tenant != null ? tenant : "";
+        Waiter waiter = new Waiter(key);
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(acquireTimeoutSeconds);
+
+        lock.lock();
+        try {
+            enqueue(waiter);
+            try {
+                while (true) {
+                    long now = System.nanoTime();
+                    long waitNanos = Long.MAX_VALUE;
+
+                    if (isNext(waiter)) {
+                        waitNanos = tryAdmit(now);
+                        if (waitNanos == 0) {
+                            waiter.admitted = true;
+                            dequeue(waiter);
+                            changed.signalAll();
+                            return new Permit();
+                        }
+                    }
+
+                    long remaining = deadline - now;
+                    if (remaining <= 0) {
+                        throw new ExternalCallLimiter.ServiceBusyException(
+                            "Azure Document Intelligence is busy, try again later");
+                    }
+                    changed.awaitNanos(Math.min(waitNanos, remaining));
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new ExternalCallLimiter.ServiceBusyException("Interrupted while waiting for an Azure request slot");
+            } finally {
+                if (!waiter.admitted) {
+                    dequeue(waiter);
+                    changed.signalAll();
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Azure answered 429 or 503: shrink the concurrency limit and pause admission.
+     * Called for every throttled HTTP response, including the SDK's own retries and polls.
+     */
+    public void onThrottled(Duration retryAfter) {
+        Duration pause = retryAfter != null ? retryAfter : defaultRetryAfter;
+        throttled.increment();
+
+        lock.lock();
+        try {
+            long now = System.nanoTime();
+            pausedUntilNanos = Math.max(pausedUntilNanos, now + pause.toNanos());
+            tokens = 0;
+
+            // Responses to calls started before the last decrease carry no new information
+            if (now - lastDecreaseNanos > pause.toNanos()) {
+                double previous = limit;
+                limit = Math.max(minLimit, limit * backoffFactor);
+                lastDecreaseNanos = now;
+                log.warn("Azure throttled, concurrency limit {} -> {}, pausing {}ms",
+                    (int) previous, (int) limit, pause.toMillis());
+            }
+            changed.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public double getLimit() {
+        lock.lock();
+        try {
+            return limit;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int getInFlight() {
+        lock.lock();
+        try {
+            return inFlight;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int getWaiting() {
+        lock.lock();
+        try {
+            return waiters;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Take a token and a concurrency slot if possible.
+     * @return 0 when admitted, otherwise how long to wait before trying again
+     */
+    private long tryAdmit(long now) {
+        if (now < pausedUntilNanos) {
+            return pausedUntilNanos - now;
+        }
+        if (inFlight >= (int) limit) {
+            // Woken up by a release
+            return Long.MAX_VALUE;
+        }
+
+        tokens = Math.min(burst, tokens + (now - lastRefillNanos) * tokensPerSecond / 1_000_000_000.0);
+        lastRefillNanos = now;
+        if (tokens < 1) {
+            return (long) Math.ceil((1 - tokens) / tokensPerSecond * 1_000_000_000.0);
+        }
+
+        tokens -= 1;
+        inFlight++;
+        return 0;
+    }
+
+    private void enqueue(Waiter waiter) {
+        Deque<Waiter> queue = waiting.get(waiter.tenant);
+        if (queue == null) {
+            queue = new ArrayDeque<>();
+            waiting.put(waiter.tenant, queue);
+            rotation.addLast(waiter.tenant);
+        }
+        queue.addLast(waiter);
+        waiters++;
+    }
+
+    private boolean isNext(Waiter waiter) {
+        return waiter.tenant.equals(rotation.peekFirst()) && waiting.get(waiter.tenant).peekFirst() == waiter;
+    }
+
+    /**
+     * Remove the waiter; when it was admitted, its company moves to the back of the rotation.
+     */
+    private void dequeue(Waiter waiter) {
+        Deque<Waiter> queue = waiting.get(waiter.tenant);
+        if (queue == null || !queue.remove(waiter)) {
+            return;
+        }
+        waiters--;
+        boolean wasHead = waiter.tenant.equals(rotation.peekFirst());
+
+        if (queue.isEmpty()) {
+            waiting.remove(waiter.tenant);
+            rotation.remove(waiter.tenant);
+        } else if (wasHead && waiter.admitted) {
+            rotation.pollFirst();
+            rotation.addLast(waiter.tenant);
+        }
+    }
+
+    private void release(boolean success) {
+        lock.lock();
+        try {
+            inFlight--;
+            if (success && limit < maxLimit) {
+                // Additive increase: about +1 after a full window of successful calls
+                limit = Math.min(maxLimit, limit + 1.0 / limit);
+            }
+            changed.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private static final class Waiter {
+        final String tenant;
+        boolean admitted;
+
+        Waiter(String tenant) {
+            this.tenant = tenant;
+        }
+    }
+
+    /**
+     * Admission to call Azure. Mark the call successful before closing it so the
+     * concurrency limit can grow; a permit closed without it only frees its slot.
+     */
+    public final class Permit implements AutoCloseable {
+        private boolean success;
+        private boolean closed;
+
+        private Permit() {
+        }
+
+        public void success() {
+            this.success = true;
+        }
+
+        @Override
+        public void close() {
+            if (!closed) {
+                closed = true;
+                release(success);
+            }
+        }
+    }
+}
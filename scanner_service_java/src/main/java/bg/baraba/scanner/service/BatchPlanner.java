@@ -0,0 +1,111 @@
+package bg.baraba.scanner.service;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Groups uploaded files into Azure requests.
+ *
+ * Files are packed first-fit decreasing by their expected size after compression, so each
+ * merged PDF stays under {@code scanner.batch.max-request-mb} and {@code scanner.batch.max-pages}
+ * while carrying as many pages as possible. {@code scanner.batch-size} still caps the number
+ * of files per request. A file that exceeds a limit on its own gets a request of its own.
+ */
+@Component
+@Slf4j
+public class BatchPlanner {
+
+    @Value("${scanner.batch-size:10}")
+    private int maxFiles;
+
+    @Value("${scanner.batch.max-request-mb:40}")
+    private long maxRequestMb;
+
+    @Value("${scanner.batch.max-pages:100}")
+    private int maxPages;
+
+    @Value("${scanner.max-file-size-mb:4}")
+    private long maxFileSizeMb;
+
+    /**
+     * @param index position of the file in the upload
+     * @param bytes size on disk
+     * @param pages page count (1 for images)
+     */
+    public record PlannedFile(int index, long bytes, int pages) {
+    }
+
+    /**
+     * Plan the batches for the given files.
+     * @return batches of upload indexes; files in each batch keep their upload order
+     */
+    public List<List<Integer>> plan(List<PlannedFile> files) {
+        long maxRequestBytes = maxRequestMb * 1024 * 1024;
+
+        List<PlannedFile> bySize = new ArrayList<>(files);
+        bySize.sort(Comparator.comparingLong(this::expectedBytes).reversed()
+            .thenComparingInt(PlannedFile::index));
+
+        List<Bin> bins = new ArrayList<>();
+        for (PlannedFile file : bySize) {
+            long bytes = expectedBytes(file);
+            Bin target = null;
+            for (Bin bin : bins) {
+                if (bin.fits(bytes, file.pages(), maxRequestBytes, maxPages, maxFiles)) {
+                    target = bin;
+                    break;
+                }
+            }
+            if (target == null) {
+                target = new Bin();
+                bins.add(target);
+            }
+            target.add(file, bytes);
+        }
+
+        // Process batches in upload order of their first file
+        List<List<Integer>> batches = new ArrayList<>();
+        bins.sort(Comparator.comparingInt(Bin::firstIndex));
+        for (Bin bin : bins) {
+            batches.add(bin.indexes.stream().sorted().toList());
+        }
+
+        log.debug("Planned {} files into {} batches (limits: {} MB, {} pages, {} files)",
+            files.size(), batches.size(), maxRequestMb, maxPages, maxFiles);
+        return batches;
+    }
+
+    /**
+     * Files above the per-file limit are compressed down to it before merging.
+     */
+    private long expectedBytes(PlannedFile file) {
+        return Math.min(file.bytes(), maxFileSizeMb * 1024 * 1024);
+    }
+
+    private static final class Bin {
+        final List<Integer> indexes = new ArrayList<>();
+        long bytes;
+        int pages;
+
+        boolean fits(long fileBytes, int filePages, long maxBytes, int maxPages, int maxFiles) {
+            return indexes.size() < maxFiles
+                && bytes + fileBytes <= maxBytes
+                && pages + filePages <= maxPages;
+        }
+
+        void add(PlannedFile file, long fileBytes) {
+            indexes.add(file.index());
+            bytes += fileBytes;
+            pages += file.pages();
+        }
+
+        int firstIndex() {
+            return indexes.stream().mapToInt(Integer::intValue).min().orElse(Integer.MAX_VALUE);
+        }
+    }
+}
@@ -3,19 +3,29 @@ package bg.baraba.scanner.service;
 import bg.baraba.scanner.model.dto.*;
 import bg.baraba.scanner.model.entity.*;
 import bg.baraba.scanner.repository.*;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.ObjectProvider;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.scheduling.annotation.Async;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
 import org.springframework.web.multipart.MultipartFile;
 
 import java.io.IOException;
 import java.nio.file.*;
+import java.time.Duration;
 import java.time.Instant;
 import java.time.LocalDate;
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.stream.Collectors;
 
 @Service
@@ -29,75 +39,182 @@ public class BatchScanService {
     private final PdfMergeService pdfMergeService;
     private final AzureDocumentService azureService;
     private final ImageCompressionService compressionService;
+    private final DocumentNormalizer documentNormalizer;
+    private final RecognitionCacheService recognitionCache;
+    private final BatchPlanner batchPlanner;
+    private final UploadStagingService uploadStaging;
+    private final TransactionTemplate transactionTemplate;
+    private final ObjectProvider<BatchScanService> self;
 
-    @Value("${scanner.batch-size:10}")
-    private int batchSize;
+    @Value("${scanner.pipeline.prepare-threads:2}")
+    private int prepareThreads;
 
-    @Value("${scanner.temp-dir:/tmp/scanner-uploads}")
-    private String tempDir;
+    @Value("${scanner.pipeline.save-threads:4}")
+    private int saveThreads;
+
+    @Value("${spring.threads.virtual.enabled:false}")
+    private boolean virtualThreads;
+
+    @Value("${scanner.pipeline.max-in-flight-per-session:3}")
+    private int maxInFlightPerSession;
+
+    // Only labels claims here; releasing them after a restart relies on it being stable
+    @Value("${scanner.instance-id:}")
+    private String instanceId;
+
+    @Value("${scanner.recovery.claim-lease-minutes:30}")
+    private long claimLeaseMinutes;
+
+    private static final List<ScanSession.SessionStatus> ACTIVE_SESSION =
+        List.of(ScanSession.SessionStatus.PENDING, ScanSession.SessionStatus.PROCESSING);
+    private static final List<ScanSessionFile.FileStatus> CLAIMABLE_FILE =
+        List.of(ScanSessionFile.FileStatus.PENDING, ScanSessionFile.FileStatus.PROCESSING);
+
+    // Sessions with a processBatchesAsync run on this instance
+    private final Set<Long> activeSessions = ConcurrentHashMap.newKeySet();
+
+    private ExecutorService prepareExecutor;
+    private ExecutorService saveExecutor;
+
+    @PostConstruct
+    public void initPipeline() {
+        if (instanceId.isBlank()) {
+            instanceId = Objects.requireNonNullElse(System.getenv("HOSTNAME"), "local");
+        }
+        prepareExecutor = Executors.newFixedThreadPool(prepareThreads, namedThreads("scanner-prepare-"));
+        // Azure analysis holds no thread; results complete on Reactor threads, which must not
+        // block on JDBC, so saving hops to its own executor
+        saveExecutor = virtualThreads
+            ? Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("scanner-save-", 1).factory())
+            : Executors.newFixedThreadPool(saveThreads, namedThreads("scanner-save-"));
+    }
+
+    @PreDestroy
+    public void shutdownPipeline() {
+        prepareExecutor.shutdownNow();
+        saveExecutor.shutdownNow();
+    }
+
+    private static ThreadFactory namedThreads(String prefix) {
+        AtomicInteger count = new AtomicInteger();
+        return r -> {
+            Thread t = new Thread(r, prefix + count.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        };
+    }
 
     /**
      * Start batch processing - returns immediately with session ID
      * Processing happens asynchronously
      */
-    @Transactional
     public BatchUploadResponse startBatchProcessing(
             List<MultipartFile> files,
             String companyUid,
             String invoiceType,
             Long userId) {
 
-        log.info("Starting batch upload: {} files for company {}", files.size(), companyUid);
-
         // Validate
         if (files == null || files.isEmpty()) {
             throw new IllegalArgumentException("No files provided");
         }
 
-        // Create session
-        int totalBatches = (int) Math.ceil((double) files.size() / batchSize);
-
-        ScanSession session = ScanSession.builder()
-            .companyUid(companyUid)
-            .invoiceType(ScanSession.InvoiceType.valueOf(invoiceType.toUpperCase()))
-            .status(ScanSession.SessionStatus.PENDING)
-            .totalFiles(files.size())
-            .totalBatches(totalBatches)
-            .createdById(userId)
-            .build();
+        return startBatchProcessing(uploadStaging.stage(files), companyUid, invoiceType, userId);
+    }
 
-        session = sessionRepository.save(session);
+    /**
+     * Start batch processing for files already written to disk.
+     *
+     * Page counting and batch planning happen before any database work; the session and its
+     * files are then inserted in one short transaction.
+     */
+    public BatchUploadResponse startBatchProcessing(
+            UploadStagingService.StagedUpload upload,
+            String companyUid,
+            String invoiceType,
+            Long userId) {
 
-        // Save files and assign to batches
-        int batchNumber = 1;
-        int pageInBatch = 1;
+        List<UploadStagingService.UploadedFile> files = upload.files();
+        log.info("Starting batch upload: {} files for company {}", files.size(), companyUid);
 
-        for (MultipartFile file : files) {
-            String filePath = saveToTemp(file, session.getId());
+        if (files.isEmpty()) {
+            uploadStaging.discard(upload);
+            throw new IllegalArgumentException("No files provided");
+        }
 
-            ScanSessionFile sessionFile = ScanSessionFile.builder()
-                .sessionId(session.getId())
-                .fileName(file.getOriginalFilename())
-                .filePath(filePath)
-                .fileSize(file.getSize())
-                .batchNumber(batchNumber)
-                .pageInBatch(pageInBatch)
-                .status(ScanSessionFile.FileStatus.PENDING)
-                .build();
+        ScanSession.InvoiceType type;
+        try {
+            type = ScanSession.InvoiceType.valueOf(invoiceType.toUpperCase());
+        } catch (RuntimeException e) {
+            uploadStaging.discard(upload);
+            throw new IllegalArgumentException("Invalid invoice type: " + invoiceType);
+        }
 
-            fileRepository.save(sessionFile);
+        // Pack files into batches by size and page count
+        List<BatchPlanner.PlannedFile> planned = new ArrayList<>();
+        for (int i = 0; i < files.size(); i++) {
+            planned.add(new BatchPlanner.PlannedFile(i, files.get(i).size(),
+                pdfMergeService.getPageCount(files.get(i).path())));
+        }
+        List<List<Integer>> batches = batchPlanner.plan(planned);
+        int totalBatches = batches.size();
 
-            pageInBatch++;
-            if (pageInBatch > batchSize) {
-                batchNumber++;
-                pageInBatch = 1;
+        AtomicReference<Long> createdSessionId = new AtomicReference<>();
+        ScanSession session;
+        try {
+            session = transactionTemplate.execute(status -> {
+                ScanSession created = sessionRepository.save(ScanSession.builder()
+                    .companyUid(companyUid)
+                    .invoiceType(type)
+                    .status(ScanSession.SessionStatus.PENDING)
+                    .totalFiles(files.size())
+                    .totalBatches(totalBatches)
+                    .createdById(userId)
+                    .build());
+                createdSessionId.set(created.getId());
+
+                List<UploadStagingService.UploadedFile> moved = uploadStaging.moveToSession(upload, created.getId());
+
+                List<ScanSessionFile> sessionFiles = new ArrayList<>(files.size());
+                for (int b = 0; b < batches.size(); b++) {
+                    List<Integer> batch = batches.get(b);
+                    for (int p = 0; p < batch.size(); p++) {
+                        UploadStagingService.UploadedFile file = moved.get(batch.get(p));
+
+                        sessionFiles.add(ScanSessionFile.builder()
+                            .sessionId(created.getId())
+                            .fileName(file.originalName())
+                            .filePath(file.path().toString())
+                            .fileSize(file.size())
+                            .contentHash(file.contentHash())
+                            .batchNumber(b + 1)
+                            .pageInBatch(p + 1)
+                            .status(ScanSessionFile.FileStatus.PENDING)
+                            .build());
+                    }
+                }
+                // Pooled sequence ids + JDBC batching: one round-trip per hibernate.jdbc.batch_size rows
+                fileRepository.saveAll(sessionFiles);
+
+                // Start async processing once the session and its files are committed, through the
+                // proxy so that @Async applies
+                Long sessionId = created.getId();
+                TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                    @Override
+                    public void afterCommit() {
+                        self.getObject().processBatchesAsync(sessionId);
+                    }
+                });
+                return created;
+            });
+        } catch (RuntimeException e) {
+            uploadStaging.discard(upload);
+            if (createdSessionId.get() != null) {
+                cleanupSessionFiles(createdSessionId.get());
             }
+            throw e;
         }
 
-        // Start async processing
-        Long sessionId = session.getId();
-        processBatchesAsync(sessionId);
-
         return BatchUploadResponse.builder()
             .sessionId(session.getId())
             .totalFiles(files.size())
@@ -110,124 +227,410 @@ public class BatchScanService {
     }
 
     /**
-     * Process all batches asynchronously
+     * Process the session's batches asynchronously.
+     *
+     * Batches run as a pipeline: while batch N waits for Azure, batch N+1 is already being
+     * compressed and merged on the prepare pool. At most
+     * {@code scanner.pipeline.max-in-flight-per-session} batches of one session are between
+     * "prepare started" and "results saved" at any time, which bounds both memory (merged
+     * PDFs) and the session's share of Azure calls; the global Azure limit is enforced by
+     * {@link AzureDocumentService}.
+     *
+     * Batches are claimed one at a time from the database (see {@link #claimNextBatch}) by the
+     * prepare worker that starts on them, so the same session can be worked on by several
+     * instances and no lease runs down while a batch waits in the queue. A session interrupted by a
+     * restart continues with the batches that were not saved yet
+     * ({@link ScanSessionRecoveryService}). Whoever saves the last batch completes the session.
      */
     @Async
     public void processBatchesAsync(Long sessionId) {
+        if (!activeSessions.add(sessionId)) {
+            log.debug("Session {} is already being processed by this instance", sessionId);
+            return;
+        }
+        try {
+            processBatches(sessionId);
+        } finally {
+            activeSessions.remove(sessionId);
+        }
+    }
+
+    private void processBatches(Long sessionId) {
         log.info("Starting async batch processing for session {}", sessionId);
 
         ScanSession session = sessionRepository.findById(sessionId)
             .orElseThrow(() -> new RuntimeException("Session not found: " + sessionId));
 
-        session.setStatus(ScanSession.SessionStatus.PROCESSING);
-        sessionRepository.save(session);
+        if (sessionRepository.transition(sessionId, ACTIVE_SESSION, ScanSession.SessionStatus.PROCESSING) == 0) {
+            log.info("Session {} is no longer active, nothing to process", sessionId);
+            return;
+        }
+
+        String invoiceType = session.getInvoiceType().name();
+        String companyUid = session.getCompanyUid();
+        Semaphore inFlight = new Semaphore(maxInFlightPerSession);
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        List<CompletableFuture<Void>> pending = new ArrayList<>();
 
         try {
-            int totalBatches = session.getTotalBatches();
+            while (failure.get() == null) {
+                inFlight.acquire();
+
+                // Claim on the prepare worker, once it is free to start on the batch
+                CompletableFuture<ClaimedBatch> claim = new CompletableFuture<>();
+                CompletableFuture<PreparedBatch> preparing = CompletableFuture.supplyAsync(() -> {
+                    ClaimedBatch next = failure.get() == null ? claimNextBatch(sessionId) : null;
+                    claim.complete(next);
+                    return next != null ? prepareBatch(sessionId, next, invoiceType) : null;
+                }, prepareExecutor);
+                preparing.whenComplete((result, error) -> {
+                    if (error != null) {
+                        claim.completeExceptionally(error);
+                    }
+                });
+
+                ClaimedBatch claimed;
+                try {
+                    claimed = claim.get();
+                } catch (ExecutionException e) {
+                    inFlight.release();
+                    throw e.getCause();
+                }
+                if (claimed == null) {
+                    inFlight.release();
+                    break;
+                }
 
-            for (int batchNum = 1; batchNum <= totalBatches; batchNum++) {
-                processSingleBatch(sessionId, batchNum);
+                CompletableFuture<Void> batch = preparing
+                    .thenCompose(prepared -> analyzeBatch(prepared, invoiceType, companyUid))
+                    .thenAcceptAsync(this::saveBatchResults, saveExecutor)
+                    .whenCompleteAsync((ignored, error) -> {
+                        if (error != null) {
+                            Throwable cause = error instanceof CompletionException && error.getCause() != null
+                                ? error.getCause() : error;
+                            if (cause instanceof ClaimLostException) {
+                                // Another worker took the batch over after our claim expired
+                                log.warn(cause.getMessage());
+                            } else {
+                                failure.compareAndSet(null, cause);
+                                markBatchFailed(sessionId, claimed, cause.getMessage());
+                            }
+                        }
+                        inFlight.release();
+                    }, saveExecutor);
+                pending.add(batch);
             }
 
-            // Reload session and mark complete
-            session = sessionRepository.findById(sessionId).orElseThrow();
-            session.setStatus(ScanSession.SessionStatus.COMPLETED);
-            session.setCompletedAt(Instant.now());
-            sessionRepository.save(session);
+            // Wait for the batches already in flight, even after a failure
+            CompletableFuture.allOf(pending.toArray(new CompletableFuture[0]))
+                .exceptionally(error -> null)
+                .join();
 
-            log.info("Batch processing completed for session {}", sessionId);
+            if (failure.get() != null) {
+                throw failure.get();
+            }
 
-            // Cleanup temp files
-            cleanupSessionFiles(sessionId);
+            if (sessionRepository.complete(sessionId) == 1) {
+                log.info("Batch processing completed for session {}", sessionId);
+                // Cleanup temp files
+                cleanupSessionFiles(sessionId);
+            } else {
+                log.info("No batches left to claim for session {}; remaining ones are processed elsewhere",
+                    sessionId);
+            }
 
-        } catch (Exception e) {
+        } catch (Throwable e) {
+            if (e instanceof InterruptedException) {
+                Thread.currentThread().interrupt();
+            }
             log.error("Batch processing failed for session {}", sessionId, e);
-            session = sessionRepository.findById(sessionId).orElseThrow();
-            session.setStatus(ScanSession.SessionStatus.FAILED);
-            session.setErrorMessage(e.getMessage());
-            sessionRepository.save(session);
+            sessionRepository.fail(sessionId, e.getMessage(), ACTIVE_SESSION, ScanSession.SessionStatus.FAILED);
         }
     }
 
     /**
-     * Process a single batch (10 pages)
+     * Claim the next pending batch of the session, or one whose claim has expired because
+     * its worker died. The claim marks the batch's files PROCESSING with a token; results are
+     * only saved while the token is still on the files.
+     * @return null when no batch is left to claim
      */
-    @Transactional
-    public void processSingleBatch(Long sessionId, int batchNumber) {
-        log.info("Processing batch {} for session {}", batchNumber, sessionId);
-
-        ScanSession session = sessionRepository.findById(sessionId).orElseThrow();
+    private ClaimedBatch claimNextBatch(Long sessionId) {
+        Instant now = Instant.now();
+        String claim = instanceId + "/" + UUID.randomUUID();
+        return transactionTemplate.execute(status -> fileRepository
+            .lockNextBatch(sessionId, now.minus(Duration.ofMinutes(claimLeaseMinutes)))
+            .map(batchNumber -> {
+                fileRepository.claimBatch(sessionId, batchNumber, claim, now, CLAIMABLE_FILE,
+                    ScanSessionFile.FileStatus.PROCESSING);
+                log.debug("Claimed batch {} of session {} as {}", batchNumber, sessionId, claim);
+                return new ClaimedBatch(batchNumber, claim);
+            })
+            .orElse(null));
+    }
 
-        // Get files for this batch
+    /**
+     * Pipeline stage 1: take already recognized files from the cache, compress the others
+     * and merge them into one PDF (CPU bound)
+     */
+    PreparedBatch prepareBatch(Long sessionId, ClaimedBatch claimed, String invoiceType) {
+        int batchNumber = claimed.batchNumber();
         List<ScanSessionFile> files = fileRepository
             .findBySessionIdAndBatchNumber(sessionId, batchNumber);
 
         if (files.isEmpty()) {
             log.warn("No files found for batch {} in session {}", batchNumber, sessionId);
-            return;
+            return new PreparedBatch(sessionId, claimed, files, files, Map.of(), null, new int[0]);
         }
 
-        try {
-            // Compress and collect PDF data
-            List<byte[]> pdfPages = new ArrayList<>();
-            for (ScanSessionFile file : files) {
-                byte[] compressed = compressionService.compressIfNeeded(file.getFilePath());
-                pdfPages.add(compressed);
+        log.info("Preparing batch {} for session {}", batchNumber, sessionId);
+
+        Map<Long, List<RecognizedInvoice>> cached = new HashMap<>();
+        List<ScanSessionFile> toAnalyze = new ArrayList<>();
+        for (ScanSessionFile file : files) {
+            recognitionCache.lookup(file.getContentHash(), invoiceType)
+                .ifPresentOrElse(invoices -> cached.put(file.getId(), invoices), () -> toAnalyze.add(file));
+        }
+
+        if (toAnalyze.isEmpty()) {
+            log.info("All {} files of batch {} found in recognition cache", files.size(), batchNumber);
+            return new PreparedBatch(sessionId, claimed, files, toAnalyze, cached, null, new int[0]);
+        }
+
+        List<Path> sources = new ArrayList<>();
+        for (ScanSessionFile file : toAnalyze) {
+            Path source = Path.of(file.getFilePath());
+            if (!Files.exists(source)) {
+                // Resumed on an instance that does not share scanner.temp-dir, or cleaned up
+                throw new RuntimeException("Uploaded file is no longer available: " + file.getFileName());
             }
+            sources.add(source);
+        }
 
-            // Merge into single PDF
-            byte[] mergedPdf = pdfMergeService.mergePdfs(pdfPages);
-            log.info("Merged batch {} into {} bytes PDF", batchNumber, mergedPdf.length);
+        // Compress oversized files and convert images to PDF, in parallel; PDFs within the
+        // limit are merged straight from disk
+        List<Path> inputs = documentNormalizer.toPdfs(sources);
+        List<Path> scratch = new ArrayList<>();
+        for (int i = 0; i < inputs.size(); i++) {
+            if (!inputs.get(i).equals(sources.get(i))) {
+                scratch.add(inputs.get(i));
+            }
+        }
 
-            // Send to Azure
-            List<RecognizedInvoice> invoices = azureService.recognizeInvoices(
-                mergedPdf,
-                session.getInvoiceType().name()
-            );
+        PdfMergeService.MergedFile merged;
+        try {
+            // Merge into single PDF; unique name as an expired claim may be retried elsewhere meanwhile
+            Path output = uploadStaging.sessionDirectory(sessionId)
+                .resolve("batch-" + batchNumber + "-" + UUID.randomUUID() + ".pdf");
+            merged = pdfMergeService.mergeToFile(inputs, output);
+        } finally {
+            scratch.forEach(pdfMergeService::deleteQuietly);
+        }
+        log.info("Merged batch {} into {} bytes PDF ({} files from cache)",
+            batchNumber, merged.size(), cached.size());
 
-            log.info("Azure recognized {} invoices from batch {}", invoices.size(), batchNumber);
+        return new PreparedBatch(sessionId, claimed, files, toAnalyze, cached, merged.path(), merged.pageCounts());
+    }
 
-            // Save invoices to DB
-            for (int i = 0; i < files.size(); i++) {
-                ScanSessionFile file = files.get(i);
+    /**
+     * Pipeline stage 2: send the merged PDF to Azure (non-blocking)
+     */
+    CompletableFuture<AnalyzedBatch> analyzeBatch(PreparedBatch batch, String invoiceType, String companyUid) {
+        if (batch.mergedPdf() == null) {
+            return CompletableFuture.completedFuture(new AnalyzedBatch(batch, List.of()));
+        }
+
+        // The merged PDF is streamed from disk and deleted once Azure is done with it
+        return azureService.recognizeInvoicesAsync(batch.mergedPdf(), invoiceType, companyUid)
+            .whenComplete((invoices, error) -> pdfMergeService.deleteQuietly(batch.mergedPdf()))
+            .thenApply(invoices -> {
+                log.info("Azure recognized {} invoices from batch {}", invoices.size(), batch.batchNumber());
+                return new AnalyzedBatch(batch, invoices);
+            });
+    }
+
+    /**
+     * Pipeline stage 3: persist recognized invoices and batch progress in one transaction
+     */
+    void saveBatchResults(AnalyzedBatch analyzed) {
+        PreparedBatch batch = analyzed.batch();
+        if (batch.files().isEmpty()) {
+            return;
+        }
+
+        PageMapping mapping = mapToFiles(batch.toAnalyze(), batch.pageCounts(), analyzed.invoices());
 
-                // Get corresponding recognized invoice (or use first one if fewer results)
-                RecognizedInvoice recognized = invoices.isEmpty() ? null :
-                    invoices.get(Math.min(i, invoices.size() - 1));
+        transactionTemplate.executeWithoutResult(status -> {
+            ScanSession session = sessionRepository.findById(batch.sessionId()).orElseThrow();
 
-                if (recognized != null) {
-                    ScannedInvoice entity = mapToEntity(recognized, session, file);
-                    invoiceRepository.save(entity);
+            // Save invoices to DB
+            List<ScannedInvoice> entities = new ArrayList<>();
+            List<Long> completed = new ArrayList<>();
+            List<Long> empty = new ArrayList<>();
+            for (ScanSessionFile file : batch.files()) {
+                List<RecognizedInvoice> fileInvoices = batch.cached().containsKey(file.getId())
+                    ? batch.cached().get(file.getId())
+                    : mapping.invoices().getOrDefault(file.getId(), List.of());
+
+                for (RecognizedInvoice recognized : fileInvoices) {
+                    entities.add(mapToEntity(recognized, session, file));
                 }
 
-                file.setStatus(ScanSessionFile.FileStatus.COMPLETED);
-                fileRepository.save(file);
+                if (fileInvoices.isEmpty() && !mapping.continued().contains(file.getId())) {
+                    empty.add(file.getId());
+                } else {
+                    completed.add(file.getId());
+                }
+            }
+
+            // The files were loaded in the prepare stage; update them in bulk instead of merging each one.
+            // Only files still carrying our claim are updated; if any were taken over, save nothing.
+            String claim = batch.claim().claim();
+            int updated = 0;
+            if (!completed.isEmpty()) {
+                updated += fileRepository.updateStatus(completed, claim, ScanSessionFile.FileStatus.COMPLETED, null);
+            }
+            if (!empty.isEmpty()) {
+                updated += fileRepository.updateStatus(empty, claim, ScanSessionFile.FileStatus.FAILED,
+                    "No invoice recognized in this file");
             }
+            if (updated != batch.files().size()) {
+                throw new ClaimLostException("Batch " + batch.batchNumber() + " of session " + batch.sessionId() +
+                    " was claimed by another worker, discarding its results");
+            }
+            invoiceRepository.saveAll(entities);
 
-            // Update session progress
-            session.setProcessedBatches(session.getProcessedBatches() + 1);
-            session.setProcessedFiles(session.getProcessedFiles() + files.size());
-            sessionRepository.save(session);
+            // Batches finish out of order, so update progress atomically in the database
+            sessionRepository.incrementProgress(batch.sessionId(), batch.files().size());
+        });
 
-            log.info("Batch {} completed. Progress: {}/{} batches, {}/{} files",
-                batchNumber,
-                session.getProcessedBatches(), session.getTotalBatches(),
-                session.getProcessedFiles(), session.getTotalFiles());
+        // Cache what is known to come from exactly one file
+        for (ScanSessionFile file : batch.toAnalyze()) {
+            if (!mapping.spanning().contains(file.getId())) {
+                recognitionCache.store(file.getContentHash(), mapping.invoices().getOrDefault(file.getId(), List.of()));
+            }
+        }
 
-        } catch (Exception e) {
-            log.error("Failed to process batch {} for session {}", batchNumber, sessionId, e);
+        log.info("Batch {} of session {} completed ({} files)",
+            batch.batchNumber(), batch.sessionId(), batch.files().size());
+    }
 
-            // Mark files as failed
-            for (ScanSessionFile file : files) {
-                file.setStatus(ScanSessionFile.FileStatus.FAILED);
-                file.setErrorMessage(e.getMessage());
-                fileRepository.save(file);
+    /**
+     * Attach each recognized document to the file its first page came from, using the page
+     * numbers Azure reports for the document in the merged PDF.
+     *
+     * A document that runs over into following files (an invoice scanned as one image per
+     * page) belongs to the file it starts in; the files it continues into are recorded as
+     * covered rather than as having no invoice. Documents without page information fall
+     * back to the first file that has nothing assigned yet.
+     */
+    static PageMapping mapToFiles(List<ScanSessionFile> files, int[] pageCounts, List<RecognizedInvoice> invoices) {
+        Map<Long, List<RecognizedInvoice>> byFile = new HashMap<>();
+        Set<Long> continued = new HashSet<>();
+        Set<Long> spanning = new HashSet<>();
+
+        // First page of each file in the merged PDF, 1-based
+        int[] firstPages = new int[files.size()];
+        int next = 1;
+        for (int i = 0; i < files.size(); i++) {
+            firstPages[i] = next;
+            next += i < pageCounts.length ? pageCounts[i] : 1;
+        }
+
+        List<RecognizedInvoice> unplaced = new ArrayList<>();
+        for (RecognizedInvoice invoice : invoices) {
+            if (invoice.getFirstPage() == null) {
+                unplaced.add(invoice);
+                continue;
+            }
+            int start = fileIndexOfPage(firstPages, invoice.getFirstPage());
+            int end = fileIndexOfPage(firstPages, invoice.getLastPage() != null ? invoice.getLastPage() : invoice.getFirstPage());
+
+            Long owner = files.get(start).getId();
+            byFile.computeIfAbsent(owner, id -> new ArrayList<>()).add(invoice);
+            if (end > start) {
+                spanning.add(owner);
+                for (int i = start + 1; i <= end; i++) {
+                    continued.add(files.get(i).getId());
+                    spanning.add(files.get(i).getId());
+                }
             }
+        }
 
-            throw e;
+        for (RecognizedInvoice invoice : unplaced) {
+            ScanSessionFile target = files.stream()
+                .filter(f -> !byFile.containsKey(f.getId()) && !continued.contains(f.getId()))
+                .findFirst()
+                .orElse(files.get(files.size() - 1));
+            byFile.computeIfAbsent(target.getId(), id -> new ArrayList<>()).add(invoice);
+            // Without page numbers we cannot be sure, so don't cache it under this file
+            spanning.add(target.getId());
+        }
+
+        return new PageMapping(byFile, continued, spanning);
+    }
+
+    private static int fileIndexOfPage(int[] firstPages, int page) {
+        int index = 0;
+        for (int i = 0; i < firstPages.length; i++) {
+            if (firstPages[i] <= page) {
+                index = i;
+            }
+        }
+        return index;
+    }
+
+    /**
+     * @param invoices recognized documents by the id of the file they start in
+     * @param continued files holding only continuation pages of a document from an earlier file
+     * @param spanning files whose result is not theirs alone and must not be cached
+     */
+    record PageMapping(Map<Long, List<RecognizedInvoice>> invoices, Set<Long> continued, Set<Long> spanning) {
+    }
+
+    private void markBatchFailed(Long sessionId, ClaimedBatch claimed, String errorMessage) {
+        int batchNumber = claimed.batchNumber();
+        log.error("Failed to process batch {} for session {}: {}", batchNumber, sessionId, errorMessage);
+        try {
+            transactionTemplate.executeWithoutResult(status -> fileRepository.updateBatchStatus(
+                sessionId, batchNumber, claimed.claim(), ScanSessionFile.FileStatus.FAILED, errorMessage));
+        } catch (Exception e) {
+            log.warn("Could not mark batch {} of session {} as failed: {}", batchNumber, sessionId, e.getMessage());
+        }
+    }
+
+    /**
+     * @param files all files of the batch
+     * @param toAnalyze files merged into {@code mergedPdf}, in page order
+     * @param cached invoices of files found in the recognition cache, by file id
+     * @param mergedPdf temp file with the merged PDF, null if every file came from the cache
+     * @param pageCounts number of pages each {@code toAnalyze} file has in {@code mergedPdf}
+     */
+    record PreparedBatch(Long sessionId, ClaimedBatch claim, List<ScanSessionFile> files,
+                         List<ScanSessionFile> toAnalyze, Map<Long, List<RecognizedInvoice>> cached,
+                         Path mergedPdf, int[] pageCounts) {
+        int batchNumber() {
+            return claim.batchNumber();
+        }
+    }
+
+    /**
+     * @param claim token written to the batch's files when it was claimed
+     */
+    record ClaimedBatch(int batchNumber, String claim) {
+    }
+
+    /**
+     * The batch's claim expired and another worker took it over; its results are dropped.
+     */
+    static class ClaimLostException extends RuntimeException {
+        ClaimLostException(String message) {
+            super(message);
         }
     }
 
+    record AnalyzedBatch(PreparedBatch batch, List<RecognizedInvoice> invoices) {
+    }
+
     /**
      * Scan single file (backwards compatibility with old API)
      */
@@ -239,11 +642,23 @@ public class BatchScanService {
 
         log.info("Scanning single file: {} for company {}", file.getOriginalFilename(), companyUid);
 
-        // Compress if needed
-        byte[] compressed = compressionService.compressIfNeeded(file);
+        String contentHash;
+        try {
+            contentHash = RecognitionCacheService.sha256(file.getBytes());
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to read file", e);
+        }
+
+        List<RecognizedInvoice> invoices = recognitionCache.lookup(contentHash, invoiceType).orElse(null);
 
-        // Send to Azure
-        List<RecognizedInvoice> invoices = azureService.recognizeInvoices(compressed, invoiceType);
+        if (invoices == null) {
+            // Compress if needed
+            byte[] compressed = compressionService.compressIfNeeded(file);
+
+            // Send to Azure
+            invoices = azureService.recognizeInvoices(compressed, invoiceType, companyUid);
+            recognitionCache.store(contentHash, invoices);
+        }
 
         if (invoices.isEmpty()) {
             throw new RuntimeException("No invoice data recognized from file");
@@ -290,41 +705,9 @@ public class BatchScanService {
         return invoiceRepository.save(entity);
     }
 
-    private String saveToTemp(MultipartFile file, Long sessionId) {
-        try {
-            Path sessionDir = Path.of(tempDir, "session-" + sessionId);
-            Files.createDirectories(sessionDir);
-
-            String fileName = UUID.randomUUID() + "_" + file.getOriginalFilename();
-            Path filePath = sessionDir.resolve(fileName);
-
-            Files.copy(file.getInputStream(), filePath, StandardCopyOption.REPLACE_EXISTING);
-
-            return filePath.toString();
-        } catch (IOException e) {
-            log.error("Failed to save file to temp: {}", file.getOriginalFilename(), e);
-            throw new RuntimeException("Failed to save file", e);
-        }
-    }
-
     private void cleanupSessionFiles(Long sessionId) {
-        try {
-            Path sessionDir = Path.of(tempDir, "session-" + sessionId);
-            if (Files.exists(sessionDir)) {
-                Files.walk(sessionDir)
-                    .sorted(Comparator.reverseOrder())
-                    .forEach(path -> {
-                        try {
-                            Files.delete(path);
-                        } catch (IOException e) {
-                            log.warn("Failed to delete: {}", path);
-                        }
-                    });
-                log.info("Cleaned up temp files for session {}", sessionId);
-            }
-        } catch (IOException e) {
-            log.warn("Failed to cleanup session {} temp files: {}", sessionId, e.getMessage());
-        }
+        uploadStaging.deleteDirectory(uploadStaging.sessionDirectory(sessionId));
+        log.info("Cleaned up temp files for session {}", sessionId);
     }
 
     private ScannedInvoice mapToEntity(
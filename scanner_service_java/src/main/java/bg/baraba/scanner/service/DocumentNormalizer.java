@@ -0,0 +1,210 @@
+package bg.baraba.scanner.service;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.graphics.image.JPEGFactory;
+import org.apache.pdfbox.pdmodel.graphics.image.LosslessFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Turns the files of a batch into PDFs that can be merged.
+ *
+ * The format is taken from the first bytes of the file, not from its name. Oversized files
+ * are compressed first. JPEG data is embedded into a single-page PDF as it is (DCTDecode)
+ * through JPEGFactory, without decoding and re-encoding; PNG, GIF, BMP and TIFF are decoded
+ * and stored losslessly, with one page per TIFF page. The files of a batch are processed in
+ * parallel on a bounded pool.
+ */
+@Component
+@RequiredArgsConstructor
+@Slf4j
+public class DocumentNormalizer {
+
+    enum Format {
+        PDF, JPEG, PNG, GIF, BMP, TIFF, UNKNOWN
+    }
+
+    private final ImageCompressionService compressionService;
+    private final PdfMergeService pdfMergeService;
+
+    @Value("${scanner.normalize.threads:0}")
+    private int threads;
+
+    private ExecutorService executor;
+
+    @PostConstruct
+    public void init() {
+        int size = threads > 0 ? threads : Runtime.getRuntime().availableProcessors();
+        AtomicInteger count = new AtomicInteger();
+        executor = Executors.newFixedThreadPool(size, r -> {
+            Thread t = new Thread(r, "scanner-normalize-" + count.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * PDF versions of the files, in the same order. An entry that differs from its source is
+     * a new file next to the source, which the caller deletes after use.
+     */
+    public List<Path> toPdfs(List<Path> sources) {
+        List<Future<Path>> futures = new ArrayList<>(sources.size());
+        for (Path source : sources) {
+            futures.add(executor.submit(() -> toPdf(source)));
+        }
+
+        List<Path> results = new ArrayList<>(sources.size());
+        RuntimeException failure = null;
+        for (int i = 0; i < futures.size(); i++) {
+            try {
+                results.add(futures.get(i).get());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                futures.forEach(f -> f.cancel(true));
+                failure = failure != null ? failure : new RuntimeException("Interrupted while preparing files");
+                results.add(null);
+            } catch (ExecutionException e) {
+                if (failure == null) {
+                    failure = e.getCause() instanceof RuntimeException cause
+                        ? cause
+                        : new RuntimeException("Failed to prepare " + sources.get(i).getFileName(), e.getCause());
+                }
+                results.add(null);
+            }
+        }
+
+        if (failure != null) {
+            // Don't leave the converted files of the other inputs behind
+            for (int i = 0; i < results.size(); i++) {
+                if (results.get(i) != null && !results.get(i).equals(sources.get(i))) {
+                    pdfMergeService.deleteQuietly(results.get(i));
+                }
+            }
+            throw failure;
+        }
+        return results;
+    }
+
+    private Path toPdf(Path source) throws IOException {
+        Path input = compressionService.compressToFileIfNeeded(source);
+        Format format = detect(input);
+        if (format == Format.PDF) {
+            return input;
+        }
+        if (format == Format.UNKNOWN) {
+            if (!input.equals(source)) {
+                pdfMergeService.deleteQuietly(input);
+            }
+            throw new IllegalArgumentException("Unsupported file type: " + source.getFileName());
+        }
+
+        Path output = source.resolveSibling(source.getFileName() + "." + UUID.randomUUID() + ".pdf");
+        try (PDDocument document = new PDDocument()) {
+            if (format == Format.JPEG) {
+                try (InputStream in = Files.newInputStream(input)) {
+                    PdfMergeService.addImagePage(document, JPEGFactory.createFromStream(document, in));
+                }
+            } else {
+                addDecodedPages(document, input, format == Format.TIFF);
+            }
+            document.save(output.toFile());
+        } catch (IOException | RuntimeException e) {
+            pdfMergeService.deleteQuietly(output);
+            throw e;
+        } finally {
+            if (!input.equals(source)) {
+                pdfMergeService.deleteQuietly(input);
+            }
+        }
+
+        log.debug("Converted {} {} to PDF", format, source.getFileName());
+        return output;
+    }
+
+    /**
+     * Decode the image and store it losslessly (Flate); every page of a TIFF, the first frame otherwise
+     */
+    private static void addDecodedPages(PDDocument document, Path image, boolean allPages) throws IOException {
+        try (ImageInputStream in = ImageIO.createImageInputStream(image.toFile())) {
+            Iterator<ImageReader> readers = ImageIO.getImageReaders(in);
+            if (!readers.hasNext()) {
+                throw new IOException("No image reader for " + image.getFileName());
+            }
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(in);
+                int pages = allPages ? reader.getNumImages(true) : 1;
+                for (int i = 0; i < pages; i++) {
+                    if (Thread.currentThread().isInterrupted()) {
+                        throw new InterruptedIOException("Interrupted while converting " + image.getFileName());
+                    }
+                    PdfMergeService.addImagePage(document, LosslessFactory.createFromImage(document, reader.read(i)));
+                }
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+
+    static Format detect(Path path) throws IOException {
+        byte[] h;
+        try (InputStream in = Files.newInputStream(path)) {
+            h = in.readNBytes(8);
+        }
+        if (startsWith(h, '%', 'P', 'D', 'F', '-')) {
+            return Format.PDF;
+        }
+        if (startsWith(h, 0xFF, 0xD8, 0xFF)) {
+            return Format.JPEG;
+        }
+        if (startsWith(h, 0x89, 'P', 'N', 'G', 0x0D, 0x0A, 0x1A, 0x0A)) {
+            return Format.PNG;
+        }
+        if (startsWith(h, 'G', 'I', 'F', '8')) {
+            return Format.GIF;
+        }
+        if (startsWith(h, 'B', 'M')) {
+            return Format.BMP;
+        }
+        if (startsWith(h, 'I', 'I', 0x2A, 0x00) || startsWith(h, 'M', 'M', 0x00, 0x2A)) {
+            return Format.TIFF;
+        }
+        return Format.UNKNOWN;
+    }
+
+    private static boolean startsWith(byte[] data, int... prefix) {
+        if (data.length < prefix.length) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length; i++) {
+            if ((data[i] & 0xFF) != prefix[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,85 @@
+package bg.baraba.scanner.service;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Caps concurrent calls to external services with a fixed limit (VIES).
+ *
+ * With virtual threads the number of threads no longer limits how many requests we send,
+ * so each service gets a fair semaphore instead. Waiting for a permit only parks the
+ * (virtual) caller; after {@code scanner.limits.acquire-timeout-seconds} it gives up.
+ * Azure Document Intelligence has its own adaptive limiter, {@link AzureRateLimiter}.
+ */
+@Component
+@Slf4j
+public class ExternalCallLimiter {
+
+    public static final String VIES = "vies";
+
+    private final Map<String, Semaphore> permits;
+
+    @Value("${scanner.limits.acquire-timeout-seconds:300}")
+    private long acquireTimeoutSeconds;
+
+    public ExternalCallLimiter(
+            @Value("${vies.max-concurrent-requests:4}") int viesLimit,
+            MeterRegistry registry) {
+        this.permits = Map.of(
+            VIES, new Semaphore(viesLimit, true)
+        );
+        registerGauge(registry, VIES, viesLimit);
+        log.info("External call limits: vies={}", viesLimit);
+    }
+
+    /**
+     * Run the call while holding a permit for the service.
+     * @throws ServiceBusyException if no permit became free within the timeout
+     */
+    public <T> T call(String service, Supplier<T> call) {
+        Semaphore semaphore = permits.get(service);
+        if (semaphore == null) {
+            throw new IllegalArgumentException("Unknown external service: " + service);
+        }
+
+        try {
+            if (!semaphore.tryAcquire(acquireTimeoutSeconds, TimeUnit.SECONDS)) {
+                throw new ServiceBusyException("Too many concurrent " + service + " requests, try again later");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ServiceBusyException("Interrupted while waiting for a " + service + " request slot");
+        }
+
+        try {
+            return call.get();
+        } finally {
+            semaphore.release();
+        }
+    }
+
+    private void registerGauge(MeterRegistry registry, String service, int limit) {
+        Gauge.builder("scanner.external.in_flight", permits.get(service), s -> limit - s.availablePermits())
+            .tag("service", service)
+            .description("Requests currently in flight to the external service")
+            .register(registry);
+        Gauge.builder("scanner.external.waiting", permits.get(service), Semaphore::getQueueLength)
+            .tag("service", service)
+            .description("Callers waiting for a request slot")
+            .register(registry);
+    }
+
+    public static class ServiceBusyException extends RuntimeException {
+        public ServiceBusyException(String message) {
+            super(message);
+        }
+    }
+}
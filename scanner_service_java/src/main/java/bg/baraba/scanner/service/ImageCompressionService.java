@@ -1,15 +1,7 @@
 package bg.baraba.scanner.service;
 
+import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
-import net.coobird.thumbnailator.Thumbnails;
-import org.apache.pdfbox.Loader;
-import org.apache.pdfbox.pdmodel.PDDocument;
-import org.apache.pdfbox.pdmodel.PDPage;
-import org.apache.pdfbox.pdmodel.PDPageContentStream;
-import org.apache.pdfbox.pdmodel.common.PDRectangle;
-import org.apache.pdfbox.pdmodel.graphics.image.JPEGFactory;
-import org.apache.pdfbox.pdmodel.graphics.image.PDImageXObject;
-import org.apache.pdfbox.rendering.PDFRenderer;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 import org.springframework.web.multipart.MultipartFile;
@@ -19,14 +11,20 @@ import java.awt.image.BufferedImage;
 import java.io.*;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.Optional;
+import java.util.UUID;
 
 @Service
+@RequiredArgsConstructor
 @Slf4j
 public class ImageCompressionService {
 
     private static final long MAX_FILE_SIZE = 4 * 1024 * 1024; // 4MB Azure limit
     private static final int MAX_DIMENSION = 4096; // Max pixels
 
+    private final PdfImageOptimizer pdfImageOptimizer;
+    private final PdfRasterizer pdfRasterizer;
+
     @Value("${scanner.temp-dir:/tmp/scanner-uploads}")
     private String tempDir;
 
@@ -62,6 +60,25 @@ public class ImageCompressionService {
         }
     }
 
+    /**
+     * Compress a stored file if needed, writing the result next to it.
+     * @return the file itself if it is within the limit, otherwise a new file the caller deletes
+     */
+    public Path compressToFileIfNeeded(Path path) {
+        try {
+            if (Files.size(path) <= MAX_FILE_SIZE) {
+                return path;
+            }
+            byte[] compressed = compressIfNeeded(path.toString());
+            Path target = path.resolveSibling(path.getFileName() + "." + UUID.randomUUID() + ".compressed");
+            Files.write(target, compressed);
+            return target;
+        } catch (IOException e) {
+            log.error("Failed to write compressed file for {}", path, e);
+            throw new RuntimeException("Compression failed", e);
+        }
+    }
+
     /**
      * Compress bytes if needed
      */
@@ -94,46 +111,8 @@ public class ImageCompressionService {
                 return imageData;
             }
 
-            // Check dimensions
-            int width = image.getWidth();
-            int height = image.getHeight();
-            boolean needsResize = width > MAX_DIMENSION || height > MAX_DIMENSION;
-
-            // Start with high quality and reduce until under limit
-            float quality = 0.85f;
-            byte[] compressed = imageData;
-
-            while (compressed.length > MAX_FILE_SIZE && quality > 0.1f) {
-                ByteArrayOutputStream out = new ByteArrayOutputStream();
-
-                var builder = Thumbnails.of(image)
-                    .outputFormat("jpeg")
-                    .outputQuality(quality);
-
-                if (needsResize) {
-                    builder.size(MAX_DIMENSION, MAX_DIMENSION);
-                } else {
-                    builder.scale(1.0);
-                }
-
-                builder.toOutputStream(out);
-                compressed = out.toByteArray();
-
-                log.debug("Compressed with quality {}: {} bytes", quality, compressed.length);
-                quality -= 0.1f;
-            }
-
-            // If still too large, aggressively resize
-            if (compressed.length > MAX_FILE_SIZE) {
-                ByteArrayOutputStream out = new ByteArrayOutputStream();
-                Thumbnails.of(image)
-                    .size(2048, 2048)
-                    .outputFormat("jpeg")
-                    .outputQuality(0.5f)
-                    .toOutputStream(out);
-                compressed = out.toByteArray();
-                log.info("Aggressively compressed to {} bytes", compressed.length);
-            }
+            // One probe-based estimate and a single full-size encode, see JpegSizeEncoder
+            byte[] compressed = JpegSizeEncoder.encode(image, MAX_FILE_SIZE, MAX_DIMENSION);
 
             log.info("Image compressed from {} to {} bytes", imageData.length, compressed.length);
             return compressed;
@@ -145,41 +124,20 @@ public class ImageCompressionService {
     }
 
     private byte[] compressPdf(byte[] pdfData) {
-        try (PDDocument document = Loader.loadPDF(pdfData)) {
-            PDFRenderer renderer = new PDFRenderer(document);
-            PDDocument newDoc = new PDDocument();
-
-            int dpi = 150; // Start with reasonable DPI
-            float quality = 0.7f;
-
-            for (int i = 0; i < document.getNumberOfPages(); i++) {
-                // Render page as image
-                BufferedImage image = renderer.renderImageWithDPI(i, dpi);
-
-                // Create new page
-                PDPage newPage = new PDPage(new PDRectangle(
-                    image.getWidth(), image.getHeight()
-                ));
-                newDoc.addPage(newPage);
-
-                // Add image to page
-                PDImageXObject pdImage = JPEGFactory.createFromImage(newDoc, image, quality);
-                try (PDPageContentStream cs = new PDPageContentStream(newDoc, newPage)) {
-                    cs.drawImage(pdImage, 0, 0, image.getWidth(), image.getHeight());
-                }
+        try {
+            // Re-encoding only the large images keeps text and vector content as it is
+            Optional<byte[]> optimized = pdfImageOptimizer.optimize(pdfData, MAX_FILE_SIZE, MAX_DIMENSION);
+            if (optimized.isPresent()) {
+                log.info("PDF images recompressed: {} to {} bytes", pdfData.length, optimized.get().length);
+                return optimized.get();
             }
 
-            ByteArrayOutputStream out = new ByteArrayOutputStream();
-            newDoc.save(out);
-            newDoc.close();
+            // Pages are rendered in parallel, each at a DPI and quality chosen from its share of the limit
+            byte[] compressed = pdfRasterizer.rasterize(pdfData, MAX_FILE_SIZE, MAX_DIMENSION);
 
-            byte[] compressed = out.toByteArray();
-
-            // If still too large, reduce DPI
             if (compressed.length > MAX_FILE_SIZE) {
-                return compressPdfAggressively(pdfData);
+                log.warn("PDF still over the size limit after compression: {} bytes", compressed.length);
             }
-
             log.info("PDF compressed from {} to {} bytes", pdfData.length, compressed.length);
             return compressed;
 
@@ -189,40 +147,6 @@ public class ImageCompressionService {
         }
     }
 
-    private byte[] compressPdfAggressively(byte[] pdfData) {
-        try (PDDocument document = Loader.loadPDF(pdfData)) {
-            PDFRenderer renderer = new PDFRenderer(document);
-            PDDocument newDoc = new PDDocument();
-
-            int dpi = 100;
-            float quality = 0.5f;
-
-            for (int i = 0; i < document.getNumberOfPages(); i++) {
-                BufferedImage image = renderer.renderImageWithDPI(i, dpi);
-
-                PDPage newPage = new PDPage(new PDRectangle(
-                    image.getWidth(), image.getHeight()
-                ));
-                newDoc.addPage(newPage);
-
-                PDImageXObject pdImage = JPEGFactory.createFromImage(newDoc, image, quality);
-                try (PDPageContentStream cs = new PDPageContentStream(newDoc, newPage)) {
-                    cs.drawImage(pdImage, 0, 0, image.getWidth(), image.getHeight());
-                }
-            }
-
-            ByteArrayOutputStream out = new ByteArrayOutputStream();
-            newDoc.save(out);
-            newDoc.close();
-
-            return out.toByteArray();
-
-        } catch (IOException e) {
-            log.error("Aggressive PDF compression failed", e);
-            return pdfData;
-        }
-    }
-
     private boolean isImage(String fileName) {
         return fileName.endsWith(".jpg") || fileName.endsWith(".jpeg") ||
                fileName.endsWith(".png") || fileName.endsWith(".gif") ||
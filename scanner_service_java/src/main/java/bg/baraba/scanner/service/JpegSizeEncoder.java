@@ -0,0 +1,195 @@
+package bg.baraba.scanner.service;
+
+import lombok.extern.slf4j.Slf4j;
+import net.coobird.thumbnailator.Thumbnails;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageOutputStream;
+import javax.imageio.stream.MemoryCacheImageOutputStream;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Encodes an image as JPEG under a byte budget with a single full-size encode.
+ *
+ * Quality and scale are chosen on a small probe of the image: a binary search over the
+ * quality finds the highest one whose bytes per pixel fit the budget, and if even the lowest
+ * quality does not fit, the image is scaled down by the missing factor (JPEG size grows
+ * roughly with the pixel count). Only if that estimate misses is a second, smaller encode
+ * done. Probe encodes are only counted, and the output buffer is sized from the estimate.
+ */
+@Slf4j
+final class JpegSizeEncoder {
+
+    static final float MIN_QUALITY = 0.4f;
+    static final float MAX_QUALITY = 0.85f;
+
+    private static final int PROBE_MAX_PIXELS = 512 * 512;
+    private static final int SEARCH_STEPS = 5;
+    // Aim a little under the budget, the probe is only an estimate
+    private static final double HEADROOM = 0.9;
+    private static final int MIN_BUFFER = 8 * 1024;
+
+    private JpegSizeEncoder() {
+    }
+
+    /**
+     * @param maxDimension longest side of the result in pixels
+     */
+    static byte[] encode(BufferedImage image, long maxBytes, int maxDimension) throws IOException {
+        BufferedImage rgb = toRgb(image);
+        double fit = Math.min(1.0, (double) maxDimension / Math.max(rgb.getWidth(), rgb.getHeight()));
+
+        try (Encoder encoder = new Encoder()) {
+            Settings settings = estimate(encoder, rgb, fit, maxBytes);
+
+            byte[] data = encoder.encode(scaled(rgb, settings.scale()), settings.quality(), settings.expectedBytes());
+            if (data.length > maxBytes) {
+                double scale = settings.scale() * Math.sqrt(maxBytes * HEADROOM / data.length);
+                log.debug("JPEG estimate missed ({} > {} bytes), re-encoding at scale {}",
+                    data.length, maxBytes, scale);
+                data = encoder.encode(scaled(rgb, scale), settings.quality(), maxBytes);
+            }
+
+            log.debug("Encoded {}x{} image as JPEG: quality {}, scale {}, {} bytes",
+                rgb.getWidth(), rgb.getHeight(), settings.quality(), settings.scale(), data.length);
+            return data;
+        }
+    }
+
+    /**
+     * Quality and scale expected to bring the image at the given scale under maxBytes.
+     */
+    static Settings estimate(BufferedImage rgb, double scale, long maxBytes) throws IOException {
+        try (Encoder encoder = new Encoder()) {
+            return estimate(encoder, rgb, scale, maxBytes);
+        }
+    }
+
+    private static Settings estimate(Encoder encoder, BufferedImage rgb, double scale, long maxBytes)
+            throws IOException {
+        double pixels = rgb.getWidth() * scale * rgb.getHeight() * scale;
+        double targetPerPixel = maxBytes * HEADROOM / pixels;
+
+        double probeScale = Math.sqrt(PROBE_MAX_PIXELS / ((double) rgb.getWidth() * rgb.getHeight()));
+        BufferedImage probe = scaled(rgb, Math.min(scale, probeScale));
+        double probePixels = (double) probe.getWidth() * probe.getHeight();
+
+        double atMin = encoder.size(probe, MIN_QUALITY) / probePixels;
+        if (atMin > targetPerPixel) {
+            return new Settings(MIN_QUALITY, scale * Math.sqrt(targetPerPixel / atMin),
+                (long) (targetPerPixel * pixels));
+        }
+        double atMax = encoder.size(probe, MAX_QUALITY) / probePixels;
+        if (atMax <= targetPerPixel) {
+            return new Settings(MAX_QUALITY, scale, (long) (atMax * pixels));
+        }
+
+        float low = MIN_QUALITY;
+        double atLow = atMin;
+        float high = MAX_QUALITY;
+        for (int i = 0; i < SEARCH_STEPS; i++) {
+            float mid = (low + high) / 2;
+            double atMid = encoder.size(probe, mid) / probePixels;
+            if (atMid <= targetPerPixel) {
+                low = mid;
+                atLow = atMid;
+            } else {
+                high = mid;
+            }
+        }
+        return new Settings(low, scale, (long) (atLow * pixels));
+    }
+
+    /**
+     * @param expectedBytes size the full encode is expected to have
+     */
+    record Settings(float quality, double scale, long expectedBytes) {
+    }
+
+    /**
+     * JPEG has no alpha channel; flatten onto white like a printed page.
+     */
+    private static BufferedImage toRgb(BufferedImage image) {
+        if (image.getType() == BufferedImage.TYPE_INT_RGB || image.getType() == BufferedImage.TYPE_3BYTE_BGR) {
+            return image;
+        }
+        BufferedImage rgb = new BufferedImage(image.getWidth(), image.getHeight(), BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = rgb.createGraphics();
+        try {
+            g.drawImage(image, 0, 0, Color.WHITE, null);
+        } finally {
+            g.dispose();
+        }
+        return rgb;
+    }
+
+    private static BufferedImage scaled(BufferedImage image, double scale) throws IOException {
+        if (scale >= 1.0) {
+            return image;
+        }
+        return Thumbnails.of(image).scale(scale).asBufferedImage();
+    }
+
+    /**
+     * One ImageWriter for the probe and full encodes of an image; disposed when closed.
+     */
+    private static final class Encoder implements AutoCloseable {
+        private final ImageWriter writer = ImageIO.getImageWritersByFormatName("jpeg").next();
+        private final ImageWriteParam param = writer.getDefaultWriteParam();
+
+        Encoder() {
+            param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+        }
+
+        long size(BufferedImage image, float quality) throws IOException {
+            CountingOutputStream counter = new CountingOutputStream();
+            write(image, quality, counter);
+            return counter.count;
+        }
+
+        byte[] encode(BufferedImage image, float quality, long expectedBytes) throws IOException {
+            // A little over the estimate, so a close miss does not copy the whole buffer
+            long capacity = Math.max(MIN_BUFFER, expectedBytes + expectedBytes / 8);
+            ByteArrayOutputStream buffer = new ByteArrayOutputStream((int) Math.min(Integer.MAX_VALUE - 8, capacity));
+            write(image, quality, buffer);
+            return buffer.toByteArray();
+        }
+
+        private void write(BufferedImage image, float quality, OutputStream target) throws IOException {
+            param.setCompressionQuality(quality);
+            try (ImageOutputStream out = new MemoryCacheImageOutputStream(target)) {
+                writer.setOutput(out);
+                writer.write(null, new IIOImage(image, null, null), param);
+            } finally {
+                writer.reset();
+            }
+        }
+
+        @Override
+        public void close() {
+            writer.dispose();
+        }
+    }
+
+    private static final class CountingOutputStream extends OutputStream {
+        private long count;
+
+        @Override
+        public void write(int b) {
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            count += len;
+        }
+    }
+}
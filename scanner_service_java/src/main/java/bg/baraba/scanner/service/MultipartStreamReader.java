@@ -0,0 +1,320 @@
+package bg.baraba.scanner.service;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Minimal forward-only reader for multipart/form-data request bodies.
+ *
+ * Part bodies are copied to an OutputStream in buffer-sized chunks as they are read from
+ * the request, so a file part never has to be held in memory or spooled by the servlet
+ * container first. Call {@link #nextPart()} and then read that part's body exactly once.
+ */
+class MultipartStreamReader {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final int MAX_HEADER_LINE = 8 * 1024;
+
+    private final InputStream in;
+    private final byte[] delimiter;
+    private final byte[] buf = new byte[BUFFER_SIZE];
+    private int pos;
+    private int limit;
+    private boolean eof;
+    private boolean started;
+    private boolean finished;
+
+    MultipartStreamReader(InputStream in, String contentType) {
+        this.in = in;
+        String boundary = boundary(contentType);
+        this.delimiter = ("\r\n--" + boundary).getBytes(StandardCharsets.ISO_8859_1);
+
+        // The first boundary has no preceding CRLF; pretend it does so one search handles both
+        buf[0] = '\r';
+        buf[1] = '\n';
+        limit = 2;
+    }
+
+    /**
+     * Headers of the next part, or null after the closing boundary.
+     */
+    Part nextPart() throws IOException {
+        if (finished) {
+            return null;
+        }
+        if (!started) {
+            // Skip the preamble
+            transferUntilDelimiter(OutputStream.nullOutputStream());
+            started = true;
+        }
+
+        // After a boundary: "--" closes the body, CRLF starts another part
+        ensure(2);
+        if (limit - pos >= 2 && buf[pos] == '-' && buf[pos + 1] == '-') {
+            finished = true;
+            return null;
+        }
+        readLine();
+
+        Map<String, String> headers = new LinkedHashMap<>();
+        String line;
+        while (!(line = readLine()).isEmpty()) {
+            int colon = line.indexOf(':');
+            if (colon > 0) {
+                headers.put(line.substring(0, colon).trim().toLowerCase(Locale.ROOT), line.substring(colon + 1).trim());
+            }
+        }
+
+        String disposition = headers.getOrDefault("content-disposition", "");
+        return new Part(
+            dispositionParam(disposition, "name"),
+            dispositionParam(disposition, "filename"),
+            headers.get("content-type"));
+    }
+
+    /**
+     * Copy the body of the current part to the stream.
+     */
+    void transferBody(OutputStream out) throws IOException {
+        transferUntilDelimiter(out);
+    }
+
+    /**
+     * Body of the current part as text, for small form fields.
+     * @throws IOException if the value is longer than maxBytes
+     */
+    String readBodyAsString(int maxBytes) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        transferUntilDelimiter(new OutputStream() {
+            @Override
+            public void write(int b) throws IOException {
+                write(new byte[] { (byte) b }, 0, 1);
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                if (out.size() + len > maxBytes) {
+                    throw new IOException("Form field longer than " + maxBytes + " bytes");
+                }
+                out.write(b, off, len);
+            }
+        });
+        return out.toString(StandardCharsets.UTF_8);
+    }
+
+    private void transferUntilDelimiter(OutputStream out) throws IOException {
+        while (true) {
+            ensure(delimiter.length);
+            int index = indexOfDelimiter();
+            if (index >= 0) {
+                out.write(buf, pos, index - pos);
+                pos = index + delimiter.length;
+                return;
+            }
+            if (eof) {
+                throw new IOException("Unexpected end of multipart body");
+            }
+            // Everything except a possible delimiter prefix at the end is body
+            int safe = limit - (delimiter.length - 1);
+            if (safe > pos) {
+                out.write(buf, pos, safe - pos);
+                pos = safe;
+            }
+            fill();
+        }
+    }
+
+    private int indexOfDelimiter() {
+        int last = limit - delimiter.length;
+        byte first = delimiter[0];
+        outer:
+        for (int i = pos; i <= last; i++) {
+            if (buf[i] != first) {
+                continue;
+            }
+            for (int j = 1; j < delimiter.length; j++) {
+                if (buf[i + j] != delimiter[j]) {
+                    continue outer;
+                }
+            }
+            return i;
+        }
+        return -1;
+    }
+
+    private String readLine() throws IOException {
+        ByteArrayOutputStream line = new ByteArrayOutputStream();
+        while (true) {
+            if (pos >= limit) {
+                fill();
+                if (pos >= limit) {
+                    throw new IOException("Unexpected end of multipart headers");
+                }
+            }
+            byte b = buf[pos++];
+            if (b == '\n') {
+                byte[] bytes = line.toByteArray();
+                int length = bytes.length > 0 && bytes[bytes.length - 1] == '\r' ? bytes.length - 1 : bytes.length;
+                // Browsers send non-ASCII file names as raw UTF-8
+                return new String(bytes, 0, length, StandardCharsets.UTF_8);
+            }
+            if (line.size() >= MAX_HEADER_LINE) {
+                throw new IOException("Multipart header line too long");
+            }
+            line.write(b);
+        }
+    }
+
+    /**
+     * Try to have at least n unread bytes buffered; fewer only at end of stream.
+     */
+    private void ensure(int n) throws IOException {
+        while (limit - pos < n && !eof) {
+            fill();
+        }
+    }
+
+    private void fill() throws IOException {
+        if (pos > 0) {
+            System.arraycopy(buf, pos, buf, 0, limit - pos);
+            limit -= pos;
+            pos = 0;
+        }
+        int read = in.read(buf, limit, buf.length - limit);
+        if (read < 0) {
+            eof = true;
+        } else {
+            limit += read;
+        }
+    }
+
+    private static String boundary(String contentType) {
+        if (contentType != null) {
+            for (String param : contentType.split(";")) {
+                String trimmed = param.trim();
+                if (trimmed.regionMatches(true, 0, "boundary=", 0, 9)) {
+                    String value = trimmed.substring(9);
+                    if (value.length() > 1 && value.startsWith("\"") && value.endsWith("\"")) {
+                        value = value.substring(1, value.length() - 1);
+                    }
+                    if (!value.isEmpty()) {
+                        return value;
+                    }
+                }
+            }
+        }
+        throw new IllegalArgumentException("Request is not multipart/form-data with a boundary");
+    }
+
+    /**
+     * Value of a Content-Disposition parameter. The RFC 5987 form ({@code filename*=UTF-8''...})
+     * wins over the plain one when both are present and it can be decoded.
+     */
+    static String dispositionParam(String disposition, String name) {
+        Map<String, String> params = dispositionParams(disposition);
+        String extended = params.get(name.toLowerCase(Locale.ROOT) + "*");
+        if (extended != null) {
+            String decoded = decodeExtValue(extended);
+            if (decoded != null) {
+                return decoded;
+            }
+        }
+        return params.get(name.toLowerCase(Locale.ROOT));
+    }
+
+    /**
+     * Parameters after the disposition type, by lower-case name. Values are tokens or quoted
+     * strings; a ';' inside quotes does not end the value. Browsers do not escape backslashes
+     * in file names, so a backslash only escapes a following quote or backslash.
+     */
+    private static Map<String, String> dispositionParams(String disposition) {
+        Map<String, String> params = new LinkedHashMap<>();
+        int length = disposition.length();
+        int i = disposition.indexOf(';');
+        while (i >= 0 && i < length) {
+            i++;
+            int eq = disposition.indexOf('=', i);
+            int semicolon = disposition.indexOf(';', i);
+            if (eq < 0 || (semicolon >= 0 && semicolon < eq)) {
+                // Parameter without a value
+                i = semicolon;
+                continue;
+            }
+            String key = disposition.substring(i, eq).trim().toLowerCase(Locale.ROOT);
+
+            i = eq + 1;
+            while (i < length && (disposition.charAt(i) == ' ' || disposition.charAt(i) == '\t')) {
+                i++;
+            }
+
+            String value;
+            if (i < length && disposition.charAt(i) == '"') {
+                StringBuilder sb = new StringBuilder();
+                for (i++; i < length && disposition.charAt(i) != '"'; i++) {
+                    char c = disposition.charAt(i);
+                    if (c == '\\' && i + 1 < length
+                            && (disposition.charAt(i + 1) == '"' || disposition.charAt(i + 1) == '\\')) {
+                        c = disposition.charAt(++i);
+                    }
+                    sb.append(c);
+                }
+                value = sb.toString();
+                i = i < length ? disposition.indexOf(';', i) : -1;
+            } else {
+                int end = disposition.indexOf(';', i);
+                value = disposition.substring(i, end < 0 ? length : end).trim();
+                i = end;
+            }
+            params.putIfAbsent(key, value);
+        }
+        return params;
+    }
+
+    /**
+     * RFC 5987 ext-value: charset'language'percent-encoded bytes. Null if malformed.
+     */
+    private static String decodeExtValue(String value) {
+        int first = value.indexOf('\'');
+        int second = first < 0 ? -1 : value.indexOf('\'', first + 1);
+        if (second < 0) {
+            return null;
+        }
+        try {
+            Charset charset = Charset.forName(value.substring(0, first));
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            for (int i = second + 1; i < value.length(); i++) {
+                char c = value.charAt(i);
+                if (c == '%') {
+                    if (i + 2 >= value.length()) {
+                        return null;
+                    }
+                    bytes.write(HexFormat.fromHexDigits(value, i + 1, i + 3));
+                    i += 2;
+                } else {
+                    bytes.write(c);
+                }
+            }
+            return bytes.toString(charset);
+        } catch (IllegalArgumentException e) {
+            // Unknown charset or bad percent escape
+            return null;
+        }
+    }
+
+    /**
+     * @param fileName null for plain form fields
+     */
+    record Part(String name, String fileName, String contentType) {
+        boolean isFile() {
+            return fileName != null;
+        }
+    }
+}
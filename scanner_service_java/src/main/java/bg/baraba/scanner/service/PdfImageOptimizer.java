@@ -0,0 +1,149 @@
+package bg.baraba.scanner.service;
+
+import lombok.extern.slf4j.Slf4j;
+import org.apache.pdfbox.Loader;
+import org.apache.pdfbox.cos.COSName;
+import org.apache.pdfbox.cos.COSStream;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.apache.pdfbox.pdmodel.PDResources;
+import org.apache.pdfbox.pdmodel.graphics.PDXObject;
+import org.apache.pdfbox.pdmodel.graphics.form.PDFormXObject;
+import org.apache.pdfbox.pdmodel.graphics.image.JPEGFactory;
+import org.apache.pdfbox.pdmodel.graphics.image.PDImageXObject;
+import org.springframework.stereotype.Component;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.*;
+
+/**
+ * Shrinks a PDF by re-encoding only its oversized images.
+ *
+ * Text, vector graphics and small images are left exactly as they are, so a born-digital
+ * invoice with one huge embedded logo stays searchable and sharp. The images are found
+ * through the page resources (including nested form XObjects); each one shared by several
+ * pages is re-encoded once. The bytes left after everything that is not re-encoded are split
+ * among the large images by pixel count, and {@link JpegSizeEncoder} fits each one to its share.
+ */
+@Component
+@Slf4j
+public class PdfImageOptimizer {
+
+    // Images smaller than this are not worth decoding
+    private static final long MIN_IMAGE_BYTES = 64 * 1024;
+    private static final double HEADROOM = 0.95;
+
+    /**
+     * @param maxDimension longest side of a re-encoded image in pixels
+     * @return the optimized PDF, or empty if its images alone cannot bring it under maxBytes
+     */
+    public Optional<byte[]> optimize(byte[] pdf, long maxBytes, int maxDimension) throws IOException {
+        try (PDDocument document = Loader.loadPDF(pdf)) {
+            Map<COSStream, List<ImageRef>> images = new LinkedHashMap<>();
+            Set<COSStream> visitedForms = new HashSet<>();
+            for (PDPage page : document.getPages()) {
+                collectImages(page.getResources(), images, visitedForms);
+            }
+
+            // Everything that stays as it is counts against the limit first
+            long candidateBytes = 0;
+            double candidatePixels = 0;
+            List<PDImageXObject> candidates = new ArrayList<>();
+            for (List<ImageRef> refs : images.values()) {
+                PDImageXObject image = refs.get(0).image();
+                if (isCandidate(image)) {
+                    candidates.add(image);
+                    candidateBytes += image.getCOSObject().getLength();
+                    candidatePixels += (double) image.getWidth() * image.getHeight();
+                }
+            }
+
+            long imageBudget = (long) (maxBytes * HEADROOM) - (pdf.length - candidateBytes);
+            if (candidates.isEmpty() || imageBudget <= 0) {
+                log.debug("Images cannot bring the PDF under {} bytes ({} candidates)", maxBytes, candidates.size());
+                return Optional.empty();
+            }
+
+            int replaced = 0;
+            for (PDImageXObject image : candidates) {
+                long share = (long) (imageBudget * image.getWidth() * (double) image.getHeight() / candidatePixels);
+                if (image.getCOSObject().getLength() <= share) {
+                    continue;
+                }
+
+                PDImageXObject smaller = reencode(document, image, share, maxDimension);
+                if (smaller == null) {
+                    continue;
+                }
+                for (ImageRef ref : images.get(image.getCOSObject())) {
+                    ref.resources().put(ref.name(), smaller);
+                }
+                replaced++;
+            }
+
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            document.save(out);
+            log.debug("Re-encoded {} of {} images: {} -> {} bytes", replaced, images.size(), pdf.length, out.size());
+
+            return out.size() <= maxBytes ? Optional.of(out.toByteArray()) : Optional.empty();
+        }
+    }
+
+    private static void collectImages(PDResources resources, Map<COSStream, List<ImageRef>> images,
+                                      Set<COSStream> visitedForms) throws IOException {
+        if (resources == null) {
+            return;
+        }
+        for (COSName name : resources.getXObjectNames()) {
+            PDXObject xobject;
+            try {
+                xobject = resources.getXObject(name);
+            } catch (IOException e) {
+                log.debug("Skipping unreadable XObject {}: {}", name.getName(), e.getMessage());
+                continue;
+            }
+
+            if (xobject instanceof PDImageXObject image) {
+                images.computeIfAbsent(image.getCOSObject(), s -> new ArrayList<>())
+                    .add(new ImageRef(resources, name, image));
+            } else if (xobject instanceof PDFormXObject form && visitedForms.add(form.getCOSObject())) {
+                collectImages(form.getResources(), images, visitedForms);
+            }
+        }
+    }
+
+    /**
+     * Large images that survive a JPEG round trip: opaque, and not bilevel scans, which
+     * CCITT/JBIG2 already store far smaller than JPEG could.
+     */
+    private static boolean isCandidate(PDImageXObject image) {
+        COSStream stream = image.getCOSObject();
+        return stream.getLength() >= MIN_IMAGE_BYTES
+            && !image.isStencil()
+            && image.getBitsPerComponent() > 1
+            && !stream.containsKey(COSName.SMASK)
+            && !stream.containsKey(COSName.MASK);
+    }
+
+    private static PDImageXObject reencode(PDDocument document, PDImageXObject image, long maxBytes,
+                                           int maxDimension) {
+        try {
+            BufferedImage decoded = image.getImage();
+            byte[] jpeg = JpegSizeEncoder.encode(decoded, maxBytes, maxDimension);
+            if (jpeg.length >= image.getCOSObject().getLength()) {
+                return null;
+            }
+
+            return JPEGFactory.createFromByteArray(document, jpeg);
+        } catch (IOException | RuntimeException e) {
+            // JPEG 2000 without a reader, unusual color spaces etc.: leave the image alone
+            log.debug("Keeping image as is: {}", e.getMessage());
+            return null;
+        }
+    }
+
+    private record ImageRef(PDResources resources, COSName name, PDImageXObject image) {
+    }
+}
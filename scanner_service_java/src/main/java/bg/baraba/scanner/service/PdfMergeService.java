@@ -2,77 +2,173 @@ package bg.baraba.scanner.service;
 
 import lombok.extern.slf4j.Slf4j;
 import org.apache.pdfbox.Loader;
+import org.apache.pdfbox.io.MemoryUsageSetting;
+import org.apache.pdfbox.io.RandomAccess;
+import org.apache.pdfbox.io.RandomAccessRead;
+import org.apache.pdfbox.io.RandomAccessReadBufferedFile;
+import org.apache.pdfbox.io.RandomAccessStreamCache;
+import org.apache.pdfbox.io.RandomAccessStreamCache.StreamCacheCreateFunction;
+import org.apache.pdfbox.io.ScratchFile;
 import org.apache.pdfbox.multipdf.PDFMergerUtility;
 import org.apache.pdfbox.pdmodel.PDDocument;
 import org.apache.pdfbox.pdmodel.PDPage;
 import org.apache.pdfbox.pdmodel.PDPageContentStream;
 import org.apache.pdfbox.pdmodel.common.PDRectangle;
 import org.apache.pdfbox.pdmodel.graphics.image.PDImageXObject;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
 import javax.imageio.ImageIO;
 import java.awt.image.BufferedImage;
 import java.io.*;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.ArrayList;
 import java.util.List;
 
 @Service
 @Slf4j
 public class PdfMergeService {
 
+    @Value("${scanner.merge.max-heap-mb:32}")
+    private long maxHeapMb;
+
+    @Value("${scanner.temp-dir:/tmp/scanner-uploads}")
+    private String tempDir;
+
     /**
      * Merge multiple PDF byte arrays into one PDF
      */
     public byte[] mergePdfs(List<byte[]> pdfPages) {
+        return merge(pdfPages).data();
+    }
+
+    /**
+     * Merge multiple PDF byte arrays into one PDF, remembering how many pages each input had
+     * so that results for the merged document can be mapped back to the inputs.
+     */
+    public MergedPdf merge(List<byte[]> pdfPages) {
         if (pdfPages == null || pdfPages.isEmpty()) {
             throw new IllegalArgumentException("No PDF pages to merge");
         }
 
         if (pdfPages.size() == 1) {
-            return pdfPages.get(0);
+            byte[] single = pdfPages.get(0);
+            return new MergedPdf(single, new int[] { getPageCount(single) });
         }
 
         log.info("Merging {} PDF pages into one document", pdfPages.size());
 
+        int[] pageCounts = new int[pdfPages.size()];
+
+        List<PDDocument> sources = new ArrayList<>();
         try (PDDocument mergedDoc = new PDDocument()) {
-            for (byte[] pdfData : pdfPages) {
-                try (PDDocument doc = Loader.loadPDF(pdfData)) {
-                    for (PDPage page : doc.getPages()) {
-                        mergedDoc.addPage(page);
-                    }
+            for (int i = 0; i < pdfPages.size(); i++) {
+                PDDocument doc = Loader.loadPDF(pdfPages.get(i));
+                sources.add(doc);
+                pageCounts[i] = doc.getNumberOfPages();
+                for (PDPage page : doc.getPages()) {
+                    mergedDoc.addPage(page);
                 }
             }
 
             ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
             mergedDoc.save(outputStream);
             byte[] result = outputStream.toByteArray();
-            
+
             log.info("Merged PDF size: {} bytes", result.length);
-            return result;
+            return new MergedPdf(result, pageCounts);
 
         } catch (IOException e) {
             log.error("Failed to merge PDFs", e);
             throw new RuntimeException("PDF merge failed: " + e.getMessage(), e);
+        } finally {
+            closeAll(sources);
         }
     }
 
+    /**
+     * Merge PDF files on disk into a PDF file, with bounded heap use.
+     *
+     * Inputs are opened as file-backed {@link RandomAccessRead} views and read lazily. The
+     * merged document and all inputs share one scratch file, so together they keep at most
+     * {@code scanner.merge.max-heap-mb} of stream data in memory, the rest on disk under
+     * {@code scanner.temp-dir}. Pages reference their source documents until the output is
+     * saved, so the sources stay open until then.
+     */
+    public MergedFile mergeToFile(List<Path> inputs, Path output) {
+        if (inputs == null || inputs.isEmpty()) {
+            throw new IllegalArgumentException("No PDF files to merge");
+        }
+
+        log.info("Merging {} PDF files into {}", inputs.size(), output.getFileName());
+        MemoryUsageSetting memory = MemoryUsageSetting.setupMixed(maxHeapMb * 1024 * 1024)
+            .setTempDir(new File(tempDir));
+        int[] pageCounts = new int[inputs.size()];
+
+        try (ScratchFile scratch = new ScratchFile(memory)) {
+            StreamCacheCreateFunction sharedCache = () -> shared(scratch);
+            List<PDDocument> sources = new ArrayList<>();
+            try (PDDocument mergedDoc = new PDDocument(sharedCache)) {
+                for (int i = 0; i < inputs.size(); i++) {
+                    PDDocument doc = Loader.loadPDF(new RandomAccessReadBufferedFile(inputs.get(i).toFile()),
+                        "", null, null, sharedCache);
+                    sources.add(doc);
+                    pageCounts[i] = doc.getNumberOfPages();
+                    for (PDPage page : doc.getPages()) {
+                        mergedDoc.addPage(page);
+                    }
+                }
+
+                mergedDoc.save(output.toFile());
+            } finally {
+                closeAll(sources);
+            }
+
+            long size = Files.size(output);
+            log.info("Merged PDF size: {} bytes", size);
+            return new MergedFile(output, size, pageCounts);
+
+        } catch (IOException e) {
+            log.error("Failed to merge PDF files", e);
+            deleteQuietly(output);
+            throw new RuntimeException("PDF merge failed: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * View of the scratch file for one document; closing the document leaves the scratch
+     * file open for the others.
+     */
+    private static RandomAccessStreamCache shared(ScratchFile scratch) {
+        return new RandomAccessStreamCache() {
+            @Override
+            public RandomAccess createBuffer() throws IOException {
+                return scratch.createBuffer();
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+    }
+
     /**
      * Merge PDF files from file paths
      */
     public byte[] mergePdfFiles(List<String> filePaths) {
         log.info("Merging {} PDF files", filePaths.size());
 
+        List<PDDocument> sources = new ArrayList<>();
         try (PDDocument mergedDoc = new PDDocument()) {
             for (String filePath : filePaths) {
                 Path path = Path.of(filePath);
                 if (Files.exists(path)) {
-                    byte[] data = Files.readAllBytes(path);
-
-                    try (PDDocument doc = Loader.loadPDF(data)) {
-                        for (PDPage page : doc.getPages()) {
-                            mergedDoc.addPage(page);
-                        }
+                    PDDocument doc = Loader.loadPDF(new RandomAccessReadBufferedFile(path.toFile()));
+                    sources.add(doc);
+                    for (PDPage page : doc.getPages()) {
+                        mergedDoc.addPage(page);
                     }
                 } else {
                     log.warn("File not found: {}", filePath);
@@ -86,6 +182,8 @@ public class PdfMergeService {
         } catch (IOException e) {
             log.error("Failed to merge PDF files", e);
             throw new RuntimeException("PDF merge failed: " + e.getMessage(), e);
+        } finally {
+            closeAll(sources);
         }
     }
 
@@ -102,32 +200,11 @@ public class PdfMergeService {
                 throw new RuntimeException("Failed to read image: " + fileName);
             }
 
-            // Create page with image dimensions (or A4 if too large)
-            float imageWidth = image.getWidth();
-            float imageHeight = image.getHeight();
-
-            // Scale to fit A4 if needed
-            float maxWidth = PDRectangle.A4.getWidth();
-            float maxHeight = PDRectangle.A4.getHeight();
-
-            float scale = Math.min(maxWidth / imageWidth, maxHeight / imageHeight);
-            if (scale > 1) scale = 1; // Don't upscale
-
-            float scaledWidth = imageWidth * scale;
-            float scaledHeight = imageHeight * scale;
-
-            PDPage page = new PDPage(new PDRectangle(scaledWidth, scaledHeight));
-            document.addPage(page);
-
             // Create image XObject
             PDImageXObject pdImage = PDImageXObject.createFromByteArray(
                 document, imageData, fileName
             );
-
-            // Draw image on page
-            try (PDPageContentStream contentStream = new PDPageContentStream(document, page)) {
-                contentStream.drawImage(pdImage, 0, 0, scaledWidth, scaledHeight);
-            }
+            addImagePage(document, pdImage);
 
             ByteArrayOutputStream out = new ByteArrayOutputStream();
             document.save(out);
@@ -139,6 +216,32 @@ public class PdfMergeService {
         }
     }
 
+    /**
+     * Add a page showing the image: one point per pixel, scaled down to fit A4 if larger
+     */
+    static void addImagePage(PDDocument document, PDImageXObject image) throws IOException {
+        float imageWidth = image.getWidth();
+        float imageHeight = image.getHeight();
+
+        // Scale to fit A4 if needed
+        float maxWidth = PDRectangle.A4.getWidth();
+        float maxHeight = PDRectangle.A4.getHeight();
+
+        float scale = Math.min(maxWidth / imageWidth, maxHeight / imageHeight);
+        if (scale > 1) scale = 1; // Don't upscale
+
+        float scaledWidth = imageWidth * scale;
+        float scaledHeight = imageHeight * scale;
+
+        PDPage page = new PDPage(new PDRectangle(scaledWidth, scaledHeight));
+        document.addPage(page);
+
+        // Draw image on page
+        try (PDPageContentStream contentStream = new PDPageContentStream(document, page)) {
+            contentStream.drawImage(image, 0, 0, scaledWidth, scaledHeight);
+        }
+    }
+
     /**
      * Check if file is an image based on extension
      */
@@ -149,6 +252,58 @@ public class PdfMergeService {
                lower.endsWith(".bmp") || lower.endsWith(".tiff");
     }
 
+    /**
+     * Merged document and the number of pages taken from each input, in input order
+     */
+    public record MergedPdf(byte[] data, int[] pageCounts) {
+    }
+
+    /**
+     * Merged document on disk and the number of pages taken from each input, in input order
+     */
+    public record MergedFile(Path path, long size, int[] pageCounts) {
+    }
+
+    public void deleteQuietly(Path path) {
+        try {
+            Files.deleteIfExists(path);
+        } catch (IOException e) {
+            log.warn("Failed to delete {}: {}", path, e.getMessage());
+        }
+    }
+
+    private static void closeAll(List<PDDocument> documents) {
+        for (PDDocument document : documents) {
+            try {
+                document.close();
+            } catch (IOException e) {
+                log.debug("Failed to close source PDF: {}", e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Page count of a stored upload: the PDF's page count, 1 for anything else (images)
+     */
+    public int getPageCount(Path path) {
+        try (InputStream in = Files.newInputStream(path)) {
+            byte[] header = in.readNBytes(5);
+            if (!"%PDF-".equals(new String(header, StandardCharsets.US_ASCII))) {
+                return 1;
+            }
+        } catch (IOException e) {
+            log.warn("Failed to read {}: {}", path, e.getMessage());
+            return 1;
+        }
+
+        try (PDDocument document = Loader.loadPDF(path.toFile())) {
+            return document.getNumberOfPages();
+        } catch (IOException e) {
+            log.warn("Failed to count pages of {}: {}", path, e.getMessage());
+            return 1;
+        }
+    }
+
     /**
      * Get page count from PDF
      */
@@ -0,0 +1,176 @@
+package bg.baraba.scanner.service;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.pdfbox.Loader;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.apache.pdfbox.pdmodel.PDPageContentStream;
+import org.apache.pdfbox.pdmodel.common.PDRectangle;
+import org.apache.pdfbox.pdmodel.graphics.image.JPEGFactory;
+import org.apache.pdfbox.pdmodel.graphics.image.PDImageXObject;
+import org.apache.pdfbox.rendering.ImageType;
+import org.apache.pdfbox.rendering.PDFRenderer;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Renders PDF pages to JPEG images on a bounded pool and rebuilds the PDF from them.
+ *
+ * PDFBox documents are not thread-safe, so each worker loads its own copy of the document
+ * and renders a contiguous range of pages. The byte budget is split across pages by page
+ * area before anything is rendered; each page derives its DPI from its share, and
+ * {@link JpegSizeEncoder} fits quality and scale to it. Every page is rendered once, and
+ * the document is never re-rendered as a whole at a lower DPI.
+ */
+@Component
+@Slf4j
+public class PdfRasterizer {
+
+    private static final float MAX_DPI = 150;
+    private static final float MIN_DPI = 72;
+    // Rough JPEG size of a scanned page at medium quality, used to pick the DPI
+    private static final double BYTES_PER_PIXEL = 0.3;
+    // Page, content stream and image dictionaries in the output PDF
+    private static final int PAGE_OVERHEAD = 2048;
+    private static final double HEADROOM = 0.95;
+
+    @Value("${scanner.compression.threads:0}")
+    private int threads;
+
+    private ExecutorService executor;
+    private int parallelism;
+
+    @PostConstruct
+    public void init() {
+        parallelism = threads > 0 ? threads : Runtime.getRuntime().availableProcessors();
+        AtomicInteger count = new AtomicInteger();
+        executor = Executors.newFixedThreadPool(parallelism, r -> {
+            Thread t = new Thread(r, "scanner-raster-" + count.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * Rasterize all pages so that the resulting PDF stays under maxBytes.
+     * @param maxDimension longest side of a page image in pixels
+     */
+    public byte[] rasterize(byte[] pdf, long maxBytes, int maxDimension) throws IOException {
+        long[] budgets;
+        try (PDDocument document = Loader.loadPDF(pdf)) {
+            budgets = pageBudgets(document, maxBytes);
+        }
+        int pageCount = budgets.length;
+        if (pageCount == 0) {
+            return pdf;
+        }
+
+        int workers = Math.min(parallelism, pageCount);
+        int chunk = (pageCount + workers - 1) / workers;
+        List<Future<List<RenderedPage>>> futures = new ArrayList<>();
+        for (int from = 0; from < pageCount; from += chunk) {
+            int start = from;
+            int end = Math.min(from + chunk, pageCount);
+            futures.add(executor.submit(() -> renderPages(pdf, start, end, budgets, maxDimension)));
+        }
+
+        List<RenderedPage> pages = new ArrayList<>(pageCount);
+        try {
+            for (Future<List<RenderedPage>> future : futures) {
+                pages.addAll(future.get());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while rasterizing PDF");
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof IOException io ? io : new IOException("Failed to rasterize PDF", e.getCause());
+        } finally {
+            futures.forEach(f -> f.cancel(true));
+        }
+
+        try (PDDocument output = new PDDocument()) {
+            for (RenderedPage rendered : pages) {
+                PDPage page = new PDPage(new PDRectangle(rendered.width(), rendered.height()));
+                output.addPage(page);
+
+                // Embed the JPEG as it is (DCTDecode), without decoding it again
+                PDImageXObject image = JPEGFactory.createFromByteArray(output, rendered.jpeg());
+                try (PDPageContentStream cs = new PDPageContentStream(output, page)) {
+                    cs.drawImage(image, 0, 0, rendered.width(), rendered.height());
+                }
+            }
+
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            output.save(out);
+            log.debug("Rasterized {} pages on {} workers: {} bytes", pageCount, futures.size(), out.size());
+            return out.toByteArray();
+        }
+    }
+
+    /**
+     * Share of the byte budget per page, proportional to the page area.
+     */
+    private static long[] pageBudgets(PDDocument document, long maxBytes) throws IOException {
+        int pageCount = document.getNumberOfPages();
+        double[] areas = new double[pageCount];
+        double total = 0;
+        for (int i = 0; i < pageCount; i++) {
+            PDRectangle box = document.getPage(i).getCropBox();
+            areas[i] = Math.max(1, (double) box.getWidth() * box.getHeight());
+            total += areas[i];
+        }
+
+        long available = (long) (maxBytes * HEADROOM) - (long) pageCount * PAGE_OVERHEAD;
+        if (available <= 0) {
+            throw new IOException("Cannot fit " + pageCount + " pages into " + maxBytes + " bytes");
+        }
+
+        long[] budgets = new long[pageCount];
+        for (int i = 0; i < pageCount; i++) {
+            budgets[i] = (long) (available * areas[i] / total);
+        }
+        return budgets;
+    }
+
+    private static List<RenderedPage> renderPages(byte[] pdf, int from, int to, long[] budgets,
+                                                  int maxDimension) throws IOException {
+        List<RenderedPage> pages = new ArrayList<>(to - from);
+        try (PDDocument document = Loader.loadPDF(pdf)) {
+            PDFRenderer renderer = new PDFRenderer(document);
+            for (int i = from; i < to; i++) {
+                PDRectangle box = document.getPage(i).getCropBox();
+                double squareInches = (box.getWidth() / 72.0) * (box.getHeight() / 72.0);
+                float dpi = (float) Math.sqrt(budgets[i] / BYTES_PER_PIXEL / Math.max(squareInches, 1.0));
+                dpi = Math.max(MIN_DPI, Math.min(MAX_DPI, dpi));
+
+                BufferedImage image = renderer.renderImageWithDPI(i, dpi, ImageType.RGB);
+                byte[] jpeg = JpegSizeEncoder.encode(image, budgets[i], maxDimension);
+                // Keep the page size in points whatever resolution the image ended up with
+                pages.add(new RenderedPage(jpeg, image.getWidth() * 72f / dpi, image.getHeight() * 72f / dpi));
+                if (Thread.currentThread().isInterrupted()) {
+                    throw new InterruptedIOException("Interrupted while rasterizing PDF");
+                }
+            }
+        }
+        return pages;
+    }
+
+    private record RenderedPage(byte[] jpeg, float width, float height) {
+    }
+}
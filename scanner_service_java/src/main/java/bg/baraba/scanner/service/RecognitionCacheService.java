@@ -0,0 +1,211 @@
+package bg.baraba.scanner.service;
+
+import bg.baraba.scanner.model.dto.RecognizedInvoice;
+import bg.baraba.scanner.model.entity.RecognitionCacheEntry;
+import bg.baraba.scanner.repository.RecognitionCacheRepository;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Content-addressed cache of Azure recognition results.
+ *
+ * Keyed by the SHA-256 of the uploaded file, so a re-uploaded scan (a retried session, the
+ * same supplier invoice uploaded as purchase and for the archive) skips the paid Azure call.
+ * Results live in {@code scanner_recognition_cache}; recently used ones are also kept in an
+ * in-memory LRU. The stored result does not depend on the invoice type, only the direction
+ * is derived from it on read. Hits are counted in memory and written to the table every
+ * {@code scanner.recognition-cache.hit-flush-interval-ms}, one UPDATE per hash.
+ */
+@Service
+@Slf4j
+public class RecognitionCacheService {
+
+    private static final TypeReference<List<RecognizedInvoice>> INVOICE_LIST = new TypeReference<>() {};
+
+    private final RecognitionCacheRepository repository;
+    private final AzureDocumentService azureService;
+    private final ObjectMapper objectMapper;
+
+    @Value("${scanner.recognition-cache.enabled:true}")
+    private boolean enabled;
+
+    private final int memoryEntries;
+
+    // hash -> result JSON, access-ordered, guarded by "memory"
+    private final LinkedHashMap<String, String> memory;
+
+    // hash -> hits not yet written to the table
+    private final Map<String, Long> pendingHits = new ConcurrentHashMap<>();
+
+    private final Counter memoryHits;
+    private final Counter databaseHits;
+    private final Counter misses;
+
+    public RecognitionCacheService(
+            RecognitionCacheRepository repository,
+            AzureDocumentService azureService,
+            ObjectMapper objectMapper,
+            @Value("${scanner.recognition-cache.memory-entries:5000}") int memoryEntries,
+            MeterRegistry registry) {
+        this.repository = repository;
+        this.azureService = azureService;
+        this.objectMapper = objectMapper;
+        this.memoryEntries = memoryEntries;
+        this.memory = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+                return size() > RecognitionCacheService.this.memoryEntries;
+            }
+        };
+
+        this.memoryHits = Counter.builder("scanner.recognition.cache")
+            .tag("result", "hit").tag("tier", "memory")
+            .description("Recognition results served from the content-hash cache")
+            .register(registry);
+        this.databaseHits = Counter.builder("scanner.recognition.cache")
+            .tag("result", "hit").tag("tier", "database")
+            .description("Recognition results served from the content-hash cache")
+            .register(registry);
+        this.misses = Counter.builder("scanner.recognition.cache")
+            .tag("result", "miss").tag("tier", "none")
+            .description("Files not found in the content-hash cache and sent to Azure")
+            .register(registry);
+        Gauge.builder("scanner.recognition.cache.hit_ratio", this, RecognitionCacheService::getHitRatio)
+            .description("Share of lookups served from the content-hash cache")
+            .register(registry);
+        Gauge.builder("scanner.recognition.cache.memory_entries", memory, m -> {
+                synchronized (m) {
+                    return m.size();
+                }
+            })
+            .description("Results held in the in-memory tier")
+            .register(registry);
+    }
+
+    /**
+     * Cached invoices for the file content, with direction set for the invoice type.
+     */
+    public Optional<List<RecognizedInvoice>> lookup(String contentHash, String invoiceType) {
+        if (!enabled || contentHash == null) {
+            return Optional.empty();
+        }
+
+        String json;
+        synchronized (memory) {
+            json = memory.get(contentHash);
+        }
+
+        if (json != null) {
+            memoryHits.increment();
+        } else {
+            RecognitionCacheEntry entry = repository.findById(contentHash)
+                .filter(e -> AzureDocumentService.MODEL_ID.equals(e.getModelId()))
+                .orElse(null);
+            if (entry == null) {
+                misses.increment();
+                return Optional.empty();
+            }
+            json = entry.getResult();
+            synchronized (memory) {
+                memory.put(contentHash, json);
+            }
+            databaseHits.increment();
+        }
+
+        pendingHits.merge(contentHash, 1L, Long::sum);
+
+        try {
+            List<RecognizedInvoice> invoices = objectMapper.readValue(json, INVOICE_LIST);
+            String direction = "PURCHASE".equalsIgnoreCase(invoiceType) ? "PURCHASE" : "SALE";
+            invoices.forEach(invoice -> invoice.setDirection(direction));
+            log.debug("Recognition cache hit for {} ({} invoices)", contentHash, invoices.size());
+            return Optional.of(invoices);
+        } catch (JsonProcessingException e) {
+            log.warn("Unreadable cached result for {}, ignoring it: {}", contentHash, e.getMessage());
+            return Optional.empty();
+        }
+    }
+
+    /**
+     * Remember the invoices recognized from the file content. Mock results are never stored.
+     */
+    public void store(String contentHash, List<RecognizedInvoice> invoices) {
+        if (!enabled || contentHash == null || invoices.isEmpty() || azureService.isMockMode()) {
+            return;
+        }
+
+        try {
+            // Keep only what Azure recognized, not what this upload attached to it
+            List<RecognizedInvoice> recognized = objectMapper.readValue(objectMapper.writeValueAsString(invoices), INVOICE_LIST);
+            for (RecognizedInvoice invoice : recognized) {
+                invoice.setId(null);
+                invoice.setSessionId(null);
+                invoice.setOriginalFileName(null);
+                invoice.setJournalEntryId(null);
+                invoice.setFirstPage(null);
+                invoice.setLastPage(null);
+            }
+            String json = objectMapper.writeValueAsString(recognized);
+
+            repository.upsert(contentHash, AzureDocumentService.MODEL_ID, json, recognized.size());
+            synchronized (memory) {
+                memory.put(contentHash, json);
+            }
+        } catch (Exception e) {
+            // The cache is an optimization; never fail a scan because of it
+            log.warn("Failed to store recognition result for {}: {}", contentHash, e.getMessage());
+        }
+    }
+
+    /**
+     * Write the hits counted since the last flush to the table.
+     */
+    @Scheduled(fixedDelayString = "${scanner.recognition-cache.hit-flush-interval-ms:60000}")
+    @PreDestroy
+    public void flushHits() {
+        for (String hash : pendingHits.keySet()) {
+            Long hits = pendingHits.remove(hash);
+            if (hits == null) {
+                continue;
+            }
+            try {
+                repository.recordHits(hash, hits);
+            } catch (Exception e) {
+                // Only statistics; losing them is better than retrying forever
+                log.debug("Failed to record {} cache hits for {}: {}", hits, hash, e.getMessage());
+            }
+        }
+    }
+
+    public double getHitRatio() {
+        double hits = memoryHits.count() + databaseHits.count();
+        double total = hits + misses.count();
+        return total == 0 ? 0 : hits / total;
+    }
+
+    public static String sha256(byte[] data) {
+        return HexFormat.of().formatHex(newDigest().digest(data));
+    }
+
+    public static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
+}
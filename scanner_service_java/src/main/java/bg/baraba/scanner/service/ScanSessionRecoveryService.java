@@ -0,0 +1,122 @@
+package bg.baraba.scanner.service;
+
+import bg.baraba.scanner.model.entity.ScanSession;
+import bg.baraba.scanner.model.entity.ScanSessionFile;
+import bg.baraba.scanner.repository.ScanSessionFileRepository;
+import bg.baraba.scanner.repository.ScanSessionRepository;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+/**
+ * Picks up batch sessions that were interrupted by a restart.
+ *
+ * A session's progress lives in the status of its files (see
+ * {@link BatchScanService#processBatchesAsync}), so resuming means starting another run for
+ * every session that is still PENDING or PROCESSING: completed batches are not claimed
+ * again, only pending ones and those whose claim expired. On startup expired claims are
+ * released whoever holds them, and orphaned upload directories are removed. Claims left by
+ * this instance's previous run are released right away only if {@code scanner.instance-id}
+ * is set: a host name changes when a pod is rescheduled, and a shared default would release
+ * live claims of other replicas. Other claims are taken over by the periodic sweep once
+ * they expire.
+ */
+@Service
+@RequiredArgsConstructor
+@Slf4j
+public class ScanSessionRecoveryService {
+
+    private static final List<ScanSession.SessionStatus> ACTIVE =
+        List.of(ScanSession.SessionStatus.PENDING, ScanSession.SessionStatus.PROCESSING);
+
+    private final ScanSessionRepository sessionRepository;
+    private final ScanSessionFileRepository fileRepository;
+    private final BatchScanService batchScanService;
+    private final UploadStagingService uploadStaging;
+
+    @Value("${scanner.instance-id:}")
+    private String instanceId;
+
+    @Value("${scanner.recovery.enabled:true}")
+    private boolean enabled;
+
+    @Value("${scanner.recovery.claim-lease-minutes:30}")
+    private long claimLeaseMinutes;
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void recoverOnStartup() {
+        if (!enabled) {
+            return;
+        }
+
+        Instant cutoff = Instant.now().minus(Duration.ofMinutes(claimLeaseMinutes));
+        int expired = fileRepository.releaseExpiredClaims(cutoff,
+            ScanSessionFile.FileStatus.PROCESSING, ScanSessionFile.FileStatus.PENDING);
+        if (expired > 0) {
+            log.info("Released {} files whose claim expired", expired);
+        }
+
+        if (instanceId.isBlank()) {
+            log.info("scanner.instance-id is not set; claims of a previous run are taken over when they expire");
+        } else {
+            int released = fileRepository.releaseClaims(likePrefix(instanceId + "/"),
+                ScanSessionFile.FileStatus.PROCESSING, ScanSessionFile.FileStatus.PENDING);
+            if (released > 0) {
+                log.info("Released {} files claimed before the restart of {}", released, instanceId);
+            }
+        }
+
+        Set<Long> active = resumeSessions();
+        if (!active.isEmpty()) {
+            log.info("Resuming {} unfinished scan sessions", active.size());
+        }
+
+        int deleted = uploadStaging.deleteOrphans(cutoff, id -> !active.contains(id));
+        if (deleted > 0) {
+            log.info("Deleted {} orphaned upload directories", deleted);
+        }
+    }
+
+    /**
+     * Join every unfinished session; there is nothing to do for sessions whose remaining
+     * batches are all claimed by live workers, so the run ends right away.
+     */
+    @Scheduled(initialDelayString = "${scanner.recovery.sweep-interval-ms:300000}",
+               fixedDelayString = "${scanner.recovery.sweep-interval-ms:300000}")
+    public void sweep() {
+        if (enabled) {
+            resumeSessions();
+        }
+    }
+
+    /**
+     * LIKE pattern matching everything that starts with the value, with '!' as escape character.
+     */
+    static String likePrefix(String value) {
+        return value.replace("!", "!!").replace("%", "!%").replace("_", "!_") + "%";
+    }
+
+    private Set<Long> resumeSessions() {
+        Set<Long> active = sessionRepository.findByStatusIn(ACTIVE).stream()
+            .map(ScanSession::getId)
+            .collect(Collectors.toSet());
+
+        if (!active.isEmpty()) {
+            log.debug("Resuming {} unfinished scan sessions", active.size());
+        }
+        for (Long sessionId : active) {
+            batchScanService.processBatchesAsync(sessionId);
+        }
+        return active;
+    }
+}
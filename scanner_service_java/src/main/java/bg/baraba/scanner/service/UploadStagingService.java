@@ -0,0 +1,257 @@
+package bg.baraba.scanner.service;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.util.unit.DataSize;
+import org.springframework.web.multipart.MaxUploadSizeExceededException;
+import org.springframework.web.multipart.MultipartFile;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.*;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.time.Instant;
+import java.util.*;
+import java.util.function.LongPredicate;
+
+/**
+ * Writes uploaded files to the temp dir before any database work happens.
+ *
+ * Each file is hashed (SHA-256) while it is written, so it is read only once. Files land in
+ * an upload directory that is renamed to the session directory once the session exists.
+ */
+@Service
+@Slf4j
+public class UploadStagingService {
+
+    private static final int MAX_FIELD_BYTES = 1024;
+
+    @Value("${scanner.temp-dir:/tmp/scanner-uploads}")
+    private String tempDir;
+
+    @Value("${spring.servlet.multipart.max-file-size:50MB}")
+    private DataSize maxFileSize;
+
+    @Value("${spring.servlet.multipart.max-request-size:500MB}")
+    private DataSize maxRequestSize;
+
+    /**
+     * Files of an upload on disk, plus the plain form fields of a streamed request.
+     */
+    public record StagedUpload(Path directory, Map<String, String> fields, List<UploadedFile> files) {
+    }
+
+    public record UploadedFile(String originalName, Path path, long size, String contentHash) {
+    }
+
+    /**
+     * Stage files already parsed by Spring.
+     */
+    public StagedUpload stage(List<MultipartFile> files) {
+        Path directory = createUploadDirectory();
+        List<UploadedFile> staged = new ArrayList<>();
+        try {
+            for (MultipartFile file : files) {
+                try (InputStream in = file.getInputStream()) {
+                    staged.add(write(directory, file.getOriginalFilename(), in::transferTo, Long.MAX_VALUE));
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            deleteDirectory(directory);
+            log.error("Failed to save uploaded files to temp", e);
+            throw new RuntimeException("Failed to save file", e);
+        }
+        return new StagedUpload(directory, Map.of(), staged);
+    }
+
+    /**
+     * Stage a multipart/form-data request body while it is being received.
+     * File parts go straight to disk; other parts are returned as form fields.
+     */
+    public StagedUpload stage(InputStream body, String contentType) throws IOException {
+        MultipartStreamReader reader = new MultipartStreamReader(body, contentType);
+        Path directory = createUploadDirectory();
+        Map<String, String> fields = new HashMap<>();
+        List<UploadedFile> staged = new ArrayList<>();
+        long total = 0;
+
+        try {
+            MultipartStreamReader.Part part;
+            while ((part = reader.nextPart()) != null) {
+                if (!part.isFile()) {
+                    fields.put(part.name(), reader.readBodyAsString(MAX_FIELD_BYTES));
+                    continue;
+                }
+                if (part.fileName().isEmpty()) {
+                    // Empty file input
+                    reader.transferBody(OutputStream.nullOutputStream());
+                    continue;
+                }
+
+                long remaining = maxRequestSize.toBytes() - total;
+                UploadedFile file = write(directory, part.fileName(), reader::transferBody,
+                    Math.min(maxFileSize.toBytes(), remaining));
+                total += file.size();
+                staged.add(file);
+            }
+        } catch (IOException | RuntimeException e) {
+            deleteDirectory(directory);
+            throw e;
+        }
+
+        log.info("Streamed {} files ({} bytes) to {}", staged.size(), total, directory);
+        return new StagedUpload(directory, fields, staged);
+    }
+
+    /**
+     * Move the staged files into the session directory.
+     * @return the files with their new paths
+     */
+    public List<UploadedFile> moveToSession(StagedUpload upload, Long sessionId) {
+        Path sessionDir = sessionDirectory(sessionId);
+        try {
+            Files.move(upload.directory(), sessionDir, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to move upload to session directory", e);
+        }
+
+        List<UploadedFile> moved = new ArrayList<>();
+        for (UploadedFile file : upload.files()) {
+            moved.add(new UploadedFile(file.originalName(), sessionDir.resolve(file.path().getFileName()),
+                file.size(), file.contentHash()));
+        }
+        return moved;
+    }
+
+    public Path sessionDirectory(Long sessionId) {
+        return Path.of(tempDir, "session-" + sessionId);
+    }
+
+    public void discard(StagedUpload upload) {
+        deleteDirectory(upload.directory());
+    }
+
+    public void deleteDirectory(Path directory) {
+        if (!Files.exists(directory)) {
+            return;
+        }
+        try (var paths = Files.walk(directory)) {
+            paths.sorted(Comparator.reverseOrder()).forEach(path -> {
+                try {
+                    Files.delete(path);
+                } catch (IOException e) {
+                    log.warn("Failed to delete: {}", path);
+                }
+            });
+        } catch (IOException e) {
+            log.warn("Failed to delete {}: {}", directory, e.getMessage());
+        }
+    }
+
+    /**
+     * Delete staging directories left behind by crashes: uploads that never became a session
+     * and session directories of sessions that are finished or gone. Only directories not
+     * modified since the cutoff are touched, so uploads in progress on a shared temp dir survive.
+     * @param sessionFinished whether the session with the given id no longer needs its files
+     */
+    public int deleteOrphans(Instant cutoff, LongPredicate sessionFinished) {
+        Path root = Path.of(tempDir);
+        if (!Files.isDirectory(root)) {
+            return 0;
+        }
+
+        int deleted = 0;
+        try (var entries = Files.list(root)) {
+            for (Path directory : entries.filter(Files::isDirectory).toList()) {
+                String name = directory.getFileName().toString();
+                boolean orphan;
+                if (name.startsWith("upload-")) {
+                    orphan = true;
+                } else if (name.startsWith("session-")) {
+                    try {
+                        orphan = sessionFinished.test(Long.parseLong(name.substring("session-".length())));
+                    } catch (NumberFormatException e) {
+                        continue;
+                    }
+                } else {
+                    continue;
+                }
+
+                if (orphan && Files.getLastModifiedTime(directory).toInstant().isBefore(cutoff)) {
+                    deleteDirectory(directory);
+                    deleted++;
+                }
+            }
+        } catch (IOException e) {
+            log.warn("Failed to scan {} for orphaned uploads: {}", root, e.getMessage());
+        }
+        return deleted;
+    }
+
+    private Path createUploadDirectory() {
+        try {
+            return Files.createDirectories(Path.of(tempDir, "upload-" + UUID.randomUUID()));
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to create upload directory", e);
+        }
+    }
+
+    private UploadedFile write(Path directory, String originalName, BodyWriter body, long maxBytes) throws IOException {
+        Path path = directory.resolve(UUID.randomUUID() + "_" + storedName(originalName));
+
+        MessageDigest digest = RecognitionCacheService.newDigest();
+        long size;
+        try (LimitedOutputStream out = new LimitedOutputStream(
+                new DigestOutputStream(Files.newOutputStream(path), digest), maxBytes)) {
+            body.writeTo(out);
+            size = out.count;
+        }
+
+        return new UploadedFile(originalName, path, size, HexFormat.of().formatHex(digest.digest()));
+    }
+
+    /**
+     * Last segment of a client supplied path, or "upload" when there is none (e.g. "/" or "C:\").
+     */
+    static String storedName(String originalName) {
+        if (originalName == null) {
+            return "upload";
+        }
+        String name = originalName.replace('\\', '/');
+        name = name.substring(name.lastIndexOf('/') + 1).strip();
+        return name.isEmpty() ? "upload" : name;
+    }
+
+    @FunctionalInterface
+    private interface BodyWriter {
+        void writeTo(OutputStream out) throws IOException;
+    }
+
+    private static final class LimitedOutputStream extends FilterOutputStream {
+        private final long maxBytes;
+        private long count;
+
+        LimitedOutputStream(OutputStream out, long maxBytes) {
+            super(out);
+            this.maxBytes = maxBytes;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[] { (byte) b }, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            count += len;
+            if (count > maxBytes) {
+                throw new MaxUploadSizeExceededException(maxBytes);
+            }
+            out.write(b, off, len);
+        }
+    }
+}
@@ -20,9 +20,11 @@ public class ViesService {
         "https://ec.europa.eu/taxation_customs/vies/services/checkVatService";
 
     private final RestTemplate restTemplate;
+    private final ExternalCallLimiter limiter;
 
-    public ViesService() {
+    public ViesService(ExternalCallLimiter limiter) {
         this.restTemplate = new RestTemplate();
+        this.limiter = limiter;
     }
 
     /**
@@ -57,16 +59,26 @@ public class ViesService {
 
         log.info("Validating VAT: {} (country: {})", number, countryCode);
 
-        // Try REST API first
-        ViesResult result = tryRestApi(countryCode, number);
+        try {
+            return limiter.call(ExternalCallLimiter.VIES, () -> {
+                // Try REST API first
+                ViesResult result = tryRestApi(countryCode, number);
+
+                // Fall back to SOAP if REST fails
+                if (result.isError()) {
+                    log.info("REST API failed, trying SOAP fallback");
+                    result = trySoapApi(countryCode, number);
+                }
 
-        // Fall back to SOAP if REST fails
-        if (result.isError()) {
-            log.info("REST API failed, trying SOAP fallback");
-            result = trySoapApi(countryCode, number);
+                return result;
+            });
+        } catch (ExternalCallLimiter.ServiceBusyException e) {
+            return ViesResult.builder()
+                .valid(false)
+                .error(true)
+                .message(e.getMessage())
+                .build();
         }
-
-        return result;
     }
 
     private ViesResult tryRestApi(String countryCode, String number) {
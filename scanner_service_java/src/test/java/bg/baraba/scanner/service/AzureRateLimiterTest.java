@@ -0,0 +1,137 @@
+package bg.baraba.scanner.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class AzureRateLimiterTest {
+
+    @Test
+    void throttlingHalvesLimitDownToMinimum() throws Exception {
+        AzureRateLimiter limiter = limiter(8, 2, 5);
+
+        limiter.onThrottled(Duration.ZERO);
+        assertEquals(4, limiter.getLimit());
+
+        for (int i = 0; i < 3; i++) {
+            Thread.sleep(2);
+            limiter.onThrottled(Duration.ZERO);
+        }
+        assertEquals(2, limiter.getLimit());
+    }
+
+    @Test
+    void throttlesWithinOnePauseDecreaseOnce() {
+        AzureRateLimiter limiter = limiter(8, 1, 5);
+
+        limiter.onThrottled(Duration.ofSeconds(10));
+        limiter.onThrottled(Duration.ofSeconds(10));
+
+        assertEquals(4, limiter.getLimit());
+    }
+
+    @Test
+    void successfulCallsGrowLimitAdditively() throws Exception {
+        AzureRateLimiter limiter = limiter(8, 1, 5);
+        limiter.onThrottled(Duration.ZERO);
+
+        for (int i = 0; i < 5; i++) {
+            try (AzureRateLimiter.Permit permit = limiter.acquire("a")) {
+                permit.success();
+            }
+        }
+
+        // About +1 per window of 4 successful calls
+        assertTrue(limiter.getLimit() > 5 && limiter.getLimit() < 5.5, "limit " + limiter.getLimit());
+    }
+
+    @Test
+    void failedCallsAndFullLimitDoNotGrowIt() {
+        AzureRateLimiter limiter = limiter(8, 1, 5);
+
+        try (AzureRateLimiter.Permit permit = limiter.acquire("a")) {
+            permit.success();
+        }
+        assertEquals(8, limiter.getLimit());
+
+        limiter.onThrottled(Duration.ZERO);
+        try (AzureRateLimiter.Permit permit = limiter.acquire("a")) {
+            // Closed without success
+        }
+        assertEquals(4, limiter.getLimit());
+        assertEquals(0, limiter.getInFlight());
+    }
+
+    @Test
+    void rejectsCallerWhenNoSlotFreesUpInTime() {
+        AzureRateLimiter limiter = limiter(1, 1, 0);
+
+        try (AzureRateLimiter.Permit permit = limiter.acquire("a")) {
+            assertThrows(ExternalCallLimiter.ServiceBusyException.class, () -> limiter.acquire("b"));
+            assertEquals(1, limiter.getInFlight());
+            assertEquals(0, limiter.getWaiting());
+        }
+    }
+
+    @Test
+    void throttlingPausesAdmission() {
+        AzureRateLimiter limiter = limiter(8, 1, 5);
+
+        limiter.onThrottled(Duration.ofMillis(300));
+        long start = System.nanoTime();
+        limiter.acquire("a").close();
+
+        assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(250));
+    }
+
+    @Test
+    void admitsWaitingCompaniesRoundRobin() throws Exception {
+        AzureRateLimiter limiter = limiter(1, 1, 10);
+        List<String> admitted = Collections.synchronizedList(new ArrayList<>());
+        List<Thread> threads = new ArrayList<>();
+
+        AzureRateLimiter.Permit holder = limiter.acquire("a");
+        for (String[] caller : new String[][] {{"a", "a1"}, {"a", "a2"}, {"a", "a3"}, {"b", "b1"}, {"c", "c1"}}) {
+            Thread thread = new Thread(() -> {
+                try (AzureRateLimiter.Permit permit = limiter.acquire(caller[0])) {
+                    admitted.add(caller[1]);
+                    permit.success();
+                }
+            });
+            thread.start();
+            threads.add(thread);
+            awaitWaiting(limiter, threads.size());
+        }
+
+        holder.close();
+        for (Thread thread : threads) {
+            thread.join(TimeUnit.SECONDS.toMillis(10));
+        }
+
+        assertEquals(List.of("a1", "b1", "c1", "a2", "a3"), admitted);
+        assertEquals(0, limiter.getInFlight());
+    }
+
+    private static AzureRateLimiter limiter(int maxLimit, int minLimit, long acquireTimeoutSeconds) {
+        AzureRateLimiter limiter = new AzureRateLimiter(1000, 1000, maxLimit, minLimit, 0.5, 2,
+            new SimpleMeterRegistry());
+        ReflectionTestUtils.setField(limiter, "acquireTimeoutSeconds", acquireTimeoutSeconds);
+        return limiter;
+    }
+
+    private static void awaitWaiting(AzureRateLimiter limiter, int waiting) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (limiter.getWaiting() < waiting) {
+            assertTrue(System.nanoTime() < deadline, "callers did not start waiting");
+            Thread.sleep(5);
+        }
+    }
+}
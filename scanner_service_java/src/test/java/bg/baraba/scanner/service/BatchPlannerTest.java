@@ -0,0 +1,108 @@
+package bg.baraba.scanner.service;
+
+import bg.baraba.scanner.service.BatchPlanner.PlannedFile;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BatchPlannerTest {
+
+    private static final long MB = 1024 * 1024;
+
+    private BatchPlanner planner;
+
+    @BeforeEach
+    void setUp() {
+        planner = new BatchPlanner();
+        limits(10, 40, 100, 4);
+    }
+
+    @Test
+    void smallFilesShareOneBatchInUploadOrder() {
+        List<List<Integer>> batches = planner.plan(List.of(
+            new PlannedFile(0, MB, 1),
+            new PlannedFile(1, 3 * MB, 2),
+            new PlannedFile(2, 2 * MB, 1)));
+
+        assertEquals(List.of(List.of(0, 1, 2)), batches);
+    }
+
+    @Test
+    void capsFilesPerBatch() {
+        limits(2, 40, 100, 4);
+
+        List<List<Integer>> batches = planner.plan(List.of(
+            new PlannedFile(0, MB, 1),
+            new PlannedFile(1, MB, 1),
+            new PlannedFile(2, MB, 1),
+            new PlannedFile(3, MB, 1),
+            new PlannedFile(4, MB, 1)));
+
+        assertEquals(3, batches.size());
+        assertTrue(batches.stream().allMatch(batch -> batch.size() <= 2));
+        assertEquals(List.of(0, 1, 2, 3, 4), batches.stream().flatMap(List::stream).sorted().toList());
+    }
+
+    @Test
+    void packsLargestFilesFirstUnderRequestSize() {
+        limits(10, 10, 100, 100);
+
+        List<List<Integer>> batches = planner.plan(List.of(
+            new PlannedFile(0, 3 * MB, 1),
+            new PlannedFile(1, 7 * MB, 1),
+            new PlannedFile(2, 6 * MB, 1),
+            new PlannedFile(3, 4 * MB, 1)));
+
+        assertEquals(List.of(List.of(0, 1), List.of(2, 3)), batches);
+    }
+
+    @Test
+    void respectsPageLimit() {
+        List<List<Integer>> batches = planner.plan(List.of(
+            new PlannedFile(0, MB, 60),
+            new PlannedFile(1, MB, 60),
+            new PlannedFile(2, MB, 30)));
+
+        assertEquals(List.of(List.of(0, 2), List.of(1)), batches);
+    }
+
+    @Test
+    void fileOverLimitGetsItsOwnBatch() {
+        limits(10, 10, 100, 100);
+
+        List<List<Integer>> batches = planner.plan(List.of(
+            new PlannedFile(0, MB, 1),
+            new PlannedFile(1, 20 * MB, 1),
+            new PlannedFile(2, MB, 1)));
+
+        assertEquals(List.of(List.of(0, 2), List.of(1)), batches);
+    }
+
+    @Test
+    void countsOversizedFilesAtCompressedSize() {
+        limits(10, 10, 100, 4);
+
+        List<List<Integer>> batches = planner.plan(List.of(
+            new PlannedFile(0, 9 * MB, 1),
+            new PlannedFile(1, 9 * MB, 1),
+            new PlannedFile(2, 9 * MB, 1)));
+
+        assertEquals(List.of(List.of(0, 1), List.of(2)), batches);
+    }
+
+    @Test
+    void noFilesNoBatches() {
+        assertTrue(planner.plan(List.of()).isEmpty());
+    }
+
+    private void limits(int maxFiles, long maxRequestMb, int maxPages, long maxFileSizeMb) {
+        ReflectionTestUtils.setField(planner, "maxFiles", maxFiles);
+        ReflectionTestUtils.setField(planner, "maxRequestMb", maxRequestMb);
+        ReflectionTestUtils.setField(planner, "maxPages", maxPages);
+        ReflectionTestUtils.setField(planner, "maxFileSizeMb", maxFileSizeMb);
+    }
+}
@@ -0,0 +1,108 @@
+package bg.baraba.scanner.service;
+
+import bg.baraba.scanner.model.dto.RecognizedInvoice;
+import bg.baraba.scanner.model.entity.ScanSessionFile;
+import bg.baraba.scanner.service.BatchScanService.PageMapping;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BatchScanServiceMapToFilesTest {
+
+    private final List<ScanSessionFile> files = List.of(file(10L), file(11L), file(12L));
+
+    @Test
+    void mapsInvoicesByFirstPage() {
+        RecognizedInvoice first = invoice("A", 1, 1);
+        RecognizedInvoice second = invoice("B", 2, 3);
+        RecognizedInvoice third = invoice("C", 4, 4);
+
+        PageMapping mapping = BatchScanService.mapToFiles(files, new int[] {1, 2, 1}, List.of(first, second, third));
+
+        assertEquals(List.of(first), mapping.invoices().get(10L));
+        assertEquals(List.of(second), mapping.invoices().get(11L));
+        assertEquals(List.of(third), mapping.invoices().get(12L));
+        assertTrue(mapping.continued().isEmpty());
+        assertTrue(mapping.spanning().isEmpty());
+    }
+
+    @Test
+    void keepsSeveralInvoicesOfOneFile() {
+        RecognizedInvoice first = invoice("A", 1, 1);
+        RecognizedInvoice second = invoice("B", 2, 2);
+
+        PageMapping mapping = BatchScanService.mapToFiles(files, new int[] {2, 1, 1}, List.of(first, second));
+
+        assertEquals(List.of(first, second), mapping.invoices().get(10L));
+        assertFalse(mapping.invoices().containsKey(11L));
+        assertTrue(mapping.spanning().isEmpty());
+    }
+
+    @Test
+    void invoiceRunningIntoNextFilesBelongsToItsFirstFile() {
+        RecognizedInvoice invoice = invoice("A", 1, 3);
+
+        PageMapping mapping = BatchScanService.mapToFiles(files, new int[] {1, 1, 1}, List.of(invoice));
+
+        assertEquals(List.of(invoice), mapping.invoices().get(10L));
+        assertEquals(Set.of(11L, 12L), mapping.continued());
+        assertEquals(Set.of(10L, 11L, 12L), mapping.spanning());
+    }
+
+    @Test
+    void invoiceWithoutLastPageStaysOnFirstPage() {
+        RecognizedInvoice invoice = invoice("A", 2, null);
+
+        PageMapping mapping = BatchScanService.mapToFiles(files, new int[] {1, 1, 1}, List.of(invoice));
+
+        assertEquals(List.of(invoice), mapping.invoices().get(11L));
+        assertTrue(mapping.continued().isEmpty());
+        assertTrue(mapping.spanning().isEmpty());
+    }
+
+    @Test
+    void invoiceWithoutPagesGoesToFirstFileWithoutInvoiceAndIsNotCached() {
+        RecognizedInvoice placed = invoice("A", 1, 2);
+        RecognizedInvoice unplaced = invoice("B", null, null);
+
+        PageMapping mapping = BatchScanService.mapToFiles(files, new int[] {1, 1, 1}, List.of(placed, unplaced));
+
+        assertEquals(List.of(unplaced), mapping.invoices().get(12L));
+        assertTrue(mapping.spanning().contains(12L));
+    }
+
+    @Test
+    void invoiceWithoutPagesFallsBackToLastFile() {
+        RecognizedInvoice placed = invoice("A", 1, 3);
+        RecognizedInvoice unplaced = invoice("B", null, null);
+
+        PageMapping mapping = BatchScanService.mapToFiles(files, new int[] {1, 1, 1}, List.of(placed, unplaced));
+
+        assertEquals(List.of(unplaced), mapping.invoices().get(12L));
+        assertEquals(List.of(placed), mapping.invoices().get(10L));
+    }
+
+    @Test
+    void missingPageCountsCountAsOnePage() {
+        RecognizedInvoice invoice = invoice("A", 3, 3);
+
+        PageMapping mapping = BatchScanService.mapToFiles(files, new int[] {1}, List.of(invoice));
+
+        assertEquals(List.of(invoice), mapping.invoices().get(12L));
+    }
+
+    private static ScanSessionFile file(Long id) {
+        return ScanSessionFile.builder().id(id).build();
+    }
+
+    private static RecognizedInvoice invoice(String invoiceId, Integer firstPage, Integer lastPage) {
+        return RecognizedInvoice.builder()
+            .invoiceId(invoiceId)
+            .firstPage(firstPage)
+            .lastPage(lastPage)
+            .build();
+    }
+}
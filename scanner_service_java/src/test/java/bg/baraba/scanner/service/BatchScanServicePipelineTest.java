@@ -0,0 +1,283 @@
+package bg.baraba.scanner.service;
+
+import bg.baraba.scanner.model.entity.ScanSession;
+import bg.baraba.scanner.repository.ScanSessionFileRepository;
+import bg.baraba.scanner.repository.ScanSessionRepository;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.support.SimpleTransactionStatus;
+import org.springframework.transaction.support.TransactionCallback;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.lang.reflect.Proxy;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BatchScanServicePipelineTest {
+
+    private static final Long SESSION_ID = 1L;
+
+    @TempDir
+    Path tempDir;
+
+    private final Queue<Integer> pendingBatches = new ConcurrentLinkedQueue<>();
+    private final List<Integer> claimed = Collections.synchronizedList(new ArrayList<>());
+    private final List<Integer> failedBatches = Collections.synchronizedList(new ArrayList<>());
+    private final List<String> claimTokens = Collections.synchronizedList(new ArrayList<>());
+    private final List<Instant> staleBefore = Collections.synchronizedList(new ArrayList<>());
+    private final AtomicBoolean completed = new AtomicBoolean();
+    private final AtomicReference<String> sessionError = new AtomicReference<>();
+
+    private PipelineService service;
+
+    @AfterEach
+    void tearDown() {
+        if (service != null) {
+            service.shutdownPipeline();
+        }
+    }
+
+    @Test
+    void preparesLaterBatchesWhileEarlierOnesAreAnalyzed() throws Exception {
+        service = startService(3, 1, 2, 3);
+
+        CompletableFuture<Void> run = CompletableFuture.runAsync(() -> service.processBatchesAsync(SESSION_ID));
+        await(() -> service.analyses.size() == 3);
+
+        assertEquals(List.of(), service.saved());
+        service.analysis(3).complete(null);
+        service.analysis(1).complete(null);
+        service.analysis(2).complete(null);
+        run.get(5, TimeUnit.SECONDS);
+
+        assertEquals(List.of(1, 2, 3), service.saved().stream().sorted().toList());
+        assertTrue(completed.get());
+        assertNull(sessionError.get());
+    }
+
+    @Test
+    void limitsBatchesInFlightPerSession() throws Exception {
+        service = startService(2, 1, 2, 3, 4);
+
+        CompletableFuture<Void> run = CompletableFuture.runAsync(() -> service.processBatchesAsync(SESSION_ID));
+        await(() -> service.analyses.size() == 2);
+        Thread.sleep(200);
+
+        assertEquals(List.of(1, 2), claimed());
+        service.analysis(1).complete(null);
+        await(() -> service.analyses.size() == 3);
+        assertEquals(List.of(1, 2, 3), claimed());
+
+        service.analysis(2).complete(null);
+        service.analysis(3).complete(null);
+        await(() -> service.analyses.size() == 4);
+        service.analysis(4).complete(null);
+        run.get(5, TimeUnit.SECONDS);
+
+        assertEquals(4, service.saved().size());
+        assertTrue(completed.get());
+    }
+
+    @Test
+    void failedBatchStopsClaimingAndFailsSession() throws Exception {
+        service = startService(1, 1, 2, 3);
+
+        CompletableFuture<Void> run = CompletableFuture.runAsync(() -> service.processBatchesAsync(SESSION_ID));
+        await(() -> service.analyses.size() == 1);
+        service.analysis(1).completeExceptionally(new IllegalStateException("Azure is unavailable"));
+        run.get(5, TimeUnit.SECONDS);
+
+        assertEquals(List.of(1), claimed());
+        assertEquals(List.of(1), failedBatches);
+        assertEquals(List.of(2, 3), new ArrayList<>(pendingBatches));
+        assertEquals("Azure is unavailable", sessionError.get());
+        assertFalse(completed.get());
+    }
+
+    @Test
+    void lostClaimDropsOnlyThatBatch() throws Exception {
+        service = startService(3, 1, 2);
+        service.claimLost = 1;
+
+        CompletableFuture<Void> run = CompletableFuture.runAsync(() -> service.processBatchesAsync(SESSION_ID));
+        await(() -> service.analyses.size() == 2);
+        service.analysis(1).complete(null);
+        service.analysis(2).complete(null);
+        run.get(5, TimeUnit.SECONDS);
+
+        assertEquals(List.of(2), service.saved());
+        assertEquals(List.of(), failedBatches);
+        assertNull(sessionError.get());
+        assertTrue(completed.get());
+    }
+
+    @Test
+    void claimsAreReleasableByInstanceAndExpireAfterLease() throws Exception {
+        service = startService(3, 1, 2);
+        Instant before = Instant.now();
+
+        CompletableFuture<Void> run = CompletableFuture.runAsync(() -> service.processBatchesAsync(SESSION_ID));
+        await(() -> service.analyses.size() == 2);
+        service.analysis(1).complete(null);
+        service.analysis(2).complete(null);
+        run.get(5, TimeUnit.SECONDS);
+        Instant after = Instant.now();
+
+        // ScanSessionRecoveryService releases claims starting with "<instance-id>/" after a restart
+        assertEquals(2, claimTokens.size());
+        assertTrue(claimTokens.stream().allMatch(token -> token.startsWith("test/")));
+        assertNotEquals(claimTokens.get(0), claimTokens.get(1));
+        for (Instant stale : staleBefore) {
+            assertFalse(stale.isBefore(before.minus(Duration.ofMinutes(30))));
+            assertFalse(stale.isAfter(after.minus(Duration.ofMinutes(30))));
+        }
+    }
+
+    private PipelineService startService(int maxInFlight, Integer... batches) {
+        pendingBatches.addAll(List.of(batches));
+
+        UploadStagingService uploadStaging = new UploadStagingService();
+        ReflectionTestUtils.setField(uploadStaging, "tempDir", tempDir.toString());
+
+        PipelineService pipeline = new PipelineService(sessionRepository(), fileRepository(), uploadStaging);
+        ReflectionTestUtils.setField(pipeline, "prepareThreads", 2);
+        ReflectionTestUtils.setField(pipeline, "saveThreads", 2);
+        ReflectionTestUtils.setField(pipeline, "maxInFlightPerSession", maxInFlight);
+        ReflectionTestUtils.setField(pipeline, "instanceId", "test");
+        ReflectionTestUtils.setField(pipeline, "claimLeaseMinutes", 30L);
+        pipeline.initPipeline();
+        return pipeline;
+    }
+
+    private List<Integer> claimed() {
+        synchronized (claimed) {
+            return new ArrayList<>(claimed);
+        }
+    }
+
+    private ScanSessionRepository sessionRepository() {
+        ScanSession session = ScanSession.builder()
+            .id(SESSION_ID)
+            .companyUid("c-1")
+            .invoiceType(ScanSession.InvoiceType.PURCHASE)
+            .build();
+        return fake(ScanSessionRepository.class, (method, args) -> switch (method) {
+            case "findById" -> Optional.of(session);
+            case "transition" -> 1;
+            case "complete" -> completed.compareAndSet(false, true) ? 1 : 0;
+            case "fail" -> {
+                sessionError.compareAndSet(null, (String) args[1]);
+                yield 1;
+            }
+            default -> throw new UnsupportedOperationException(method);
+        });
+    }
+
+    private ScanSessionFileRepository fileRepository() {
+        return fake(ScanSessionFileRepository.class, (method, args) -> switch (method) {
+            case "lockNextBatch" -> {
+                staleBefore.add((Instant) args[1]);
+                yield Optional.ofNullable(pendingBatches.poll());
+            }
+            case "claimBatch" -> {
+                claimed.add((Integer) args[1]);
+                claimTokens.add((String) args[2]);
+                yield 1;
+            }
+            case "updateBatchStatus" -> {
+                failedBatches.add((Integer) args[1]);
+                yield 1;
+            }
+            default -> throw new UnsupportedOperationException(method);
+        });
+    }
+
+    private interface FakeMethod {
+        Object invoke(String method, Object[] args);
+    }
+
+    private static <T> T fake(Class<T> type, FakeMethod handler) {
+        return type.cast(Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[] {type},
+            (proxy, method, args) -> handler.invoke(method.getName(), args)));
+    }
+
+    private static void await(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (!condition.getAsBoolean()) {
+            assertTrue(System.nanoTime() < deadline, "condition not reached in time");
+            Thread.sleep(10);
+        }
+    }
+
+    /**
+     * Runs the real claim loop with stages that only record what they were given. Each
+     * analysis waits until the test completes it.
+     */
+    private static final class PipelineService extends BatchScanService {
+        private final Map<Integer, CompletableFuture<Void>> analyses = new ConcurrentHashMap<>();
+        private final List<Integer> saved = Collections.synchronizedList(new ArrayList<>());
+        volatile int claimLost;
+
+        PipelineService(ScanSessionRepository sessionRepository, ScanSessionFileRepository fileRepository,
+                        UploadStagingService uploadStaging) {
+            super(sessionRepository, fileRepository, null, null, null, null, null, null, null,
+                uploadStaging, new ImmediateTransactionTemplate(), null);
+        }
+
+        @Override
+        PreparedBatch prepareBatch(Long sessionId, ClaimedBatch claimed, String invoiceType) {
+            return new PreparedBatch(sessionId, claimed, List.of(), List.of(), Map.of(), null, new int[0]);
+        }
+
+        @Override
+        CompletableFuture<AnalyzedBatch> analyzeBatch(PreparedBatch batch, String invoiceType, String companyUid) {
+            CompletableFuture<Void> analysis = new CompletableFuture<>();
+            analyses.put(batch.batchNumber(), analysis);
+            return analysis.thenApply(ignored -> new AnalyzedBatch(batch, List.of()));
+        }
+
+        @Override
+        void saveBatchResults(AnalyzedBatch analyzed) {
+            int batchNumber = analyzed.batch().batchNumber();
+            if (batchNumber == claimLost) {
+                throw new ClaimLostException("Batch " + batchNumber + " was claimed by another worker");
+            }
+            saved.add(batchNumber);
+        }
+
+        CompletableFuture<Void> analysis(int batchNumber) {
+            return analyses.get(batchNumber);
+        }
+
+        List<Integer> saved() {
+            synchronized (saved) {
+                return new ArrayList<>(saved);
+            }
+        }
+    }
+
+    private static final class ImmediateTransactionTemplate extends TransactionTemplate {
+        @Override
+        public <T> T execute(TransactionCallback<T> action) {
+            return action.doInTransaction(new SimpleTransactionStatus());
+        }
+    }
+}
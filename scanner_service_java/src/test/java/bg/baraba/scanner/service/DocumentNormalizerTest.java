@@ -0,0 +1,67 @@
+package bg.baraba.scanner.service;
+
+import bg.baraba.scanner.service.DocumentNormalizer.Format;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class DocumentNormalizerTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void detectsFormatFromContentNotName() throws IOException {
+        assertEquals(Format.PDF, DocumentNormalizer.detect(file("scan.jpg", "%PDF-1.7\n".getBytes(StandardCharsets.US_ASCII))));
+        assertEquals(Format.JPEG, DocumentNormalizer.detect(file("scan.pdf", bytes(0xFF, 0xD8, 0xFF, 0xE0, 0, 0x10))));
+    }
+
+    @Test
+    void detectsImageFormats() throws IOException {
+        assertEquals(Format.PNG, DocumentNormalizer.detect(image("png")));
+        assertEquals(Format.GIF, DocumentNormalizer.detect(image("gif")));
+        assertEquals(Format.BMP, DocumentNormalizer.detect(image("bmp")));
+        assertEquals(Format.TIFF, DocumentNormalizer.detect(image("tiff")));
+        assertEquals(Format.JPEG, DocumentNormalizer.detect(image("jpeg")));
+    }
+
+    @Test
+    void detectsBothTiffByteOrders() throws IOException {
+        assertEquals(Format.TIFF, DocumentNormalizer.detect(file("le", bytes('I', 'I', 0x2A, 0x00, 8, 0, 0, 0))));
+        assertEquals(Format.TIFF, DocumentNormalizer.detect(file("be", bytes('M', 'M', 0x00, 0x2A, 0, 0, 0, 8))));
+    }
+
+    @Test
+    void unknownForOtherOrShortContent() throws IOException {
+        assertEquals(Format.UNKNOWN, DocumentNormalizer.detect(file("text.pdf", "hello world".getBytes(StandardCharsets.US_ASCII))));
+        assertEquals(Format.UNKNOWN, DocumentNormalizer.detect(file("short.pdf", "%PD".getBytes(StandardCharsets.US_ASCII))));
+        assertEquals(Format.UNKNOWN, DocumentNormalizer.detect(file("empty.pdf", new byte[0])));
+    }
+
+    private Path image(String format) throws IOException {
+        Path path = dir.resolve("image." + format);
+        BufferedImage image = new BufferedImage(4, 4, BufferedImage.TYPE_INT_RGB);
+        assertTrue(ImageIO.write(image, format, path.toFile()), "no ImageIO writer for " + format);
+        return path;
+    }
+
+    private Path file(String name, byte[] content) throws IOException {
+        return Files.write(dir.resolve(name), content);
+    }
+
+    private static byte[] bytes(int... values) {
+        byte[] bytes = new byte[values.length];
+        for (int i = 0; i < values.length; i++) {
+            bytes[i] = (byte) values[i];
+        }
+        return bytes;
+    }
+}
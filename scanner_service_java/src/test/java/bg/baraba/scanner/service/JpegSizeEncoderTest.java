@@ -0,0 +1,124 @@
+package bg.baraba.scanner.service;
+
+import org.junit.jupiter.api.Test;
+
+import javax.imageio.ImageIO;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class JpegSizeEncoderTest {
+
+    @Test
+    void fitsNoisyImageUnderBudget() throws IOException {
+        BufferedImage image = noise(2000, 1500, BufferedImage.TYPE_INT_RGB);
+
+        byte[] jpeg = JpegSizeEncoder.encode(image, 150_000, 4000);
+
+        assertTrue(jpeg.length <= 150_000, jpeg.length + " bytes");
+        BufferedImage decoded = ImageIO.read(new ByteArrayInputStream(jpeg));
+        assertTrue(decoded.getWidth() < 2000);
+        assertEquals(4.0 / 3, (double) decoded.getWidth() / decoded.getHeight(), 0.02);
+    }
+
+    @Test
+    void keepsSmallImageAtFullSize() throws IOException {
+        BufferedImage image = page(800, 600, BufferedImage.TYPE_INT_RGB);
+
+        byte[] jpeg = JpegSizeEncoder.encode(image, 1_000_000, 4000);
+
+        BufferedImage decoded = ImageIO.read(new ByteArrayInputStream(jpeg));
+        assertEquals(800, decoded.getWidth());
+        assertEquals(600, decoded.getHeight());
+    }
+
+    @Test
+    void limitsLongestSide() throws IOException {
+        BufferedImage image = page(3000, 1000, BufferedImage.TYPE_INT_RGB);
+
+        byte[] jpeg = JpegSizeEncoder.encode(image, 5_000_000, 1500);
+
+        BufferedImage decoded = ImageIO.read(new ByteArrayInputStream(jpeg));
+        assertEquals(1500, decoded.getWidth());
+        assertEquals(500, decoded.getHeight());
+    }
+
+    @Test
+    void flattensTransparentImage() throws IOException {
+        BufferedImage image = page(400, 400, BufferedImage.TYPE_INT_ARGB);
+
+        byte[] jpeg = JpegSizeEncoder.encode(image, 100_000, 4000);
+
+        assertTrue(jpeg.length <= 100_000);
+        assertNotNull(ImageIO.read(new ByteArrayInputStream(jpeg)));
+    }
+
+    @Test
+    void estimateKeepsBestQualityWhenBudgetIsAmple() throws IOException {
+        JpegSizeEncoder.Settings settings =
+            JpegSizeEncoder.estimate(page(1000, 1000, BufferedImage.TYPE_INT_RGB), 1.0, 5_000_000);
+
+        assertEquals(JpegSizeEncoder.MAX_QUALITY, settings.quality());
+        assertEquals(1.0, settings.scale());
+        assertTrue(settings.expectedBytes() > 0 && settings.expectedBytes() <= 5_000_000);
+    }
+
+    @Test
+    void estimateScalesDownWhenLowestQualityDoesNotFit() throws IOException {
+        JpegSizeEncoder.Settings settings =
+            JpegSizeEncoder.estimate(noise(2000, 2000, BufferedImage.TYPE_INT_RGB), 1.0, 100_000);
+
+        assertEquals(JpegSizeEncoder.MIN_QUALITY, settings.quality());
+        assertTrue(settings.scale() < 1.0);
+        assertTrue(settings.expectedBytes() <= 100_000);
+    }
+
+    @Test
+    void estimateSearchesQualityBetweenBounds() throws IOException {
+        BufferedImage image = noise(600, 600, BufferedImage.TYPE_INT_RGB);
+        long atMax = JpegSizeEncoder.encode(image, Long.MAX_VALUE / 4, 4000).length;
+        JpegSizeEncoder.Settings best = JpegSizeEncoder.estimate(image, 1.0, Long.MAX_VALUE / 4);
+
+        JpegSizeEncoder.Settings settings = JpegSizeEncoder.estimate(image, 1.0, atMax * 3 / 4);
+
+        assertEquals(JpegSizeEncoder.MAX_QUALITY, best.quality());
+        assertTrue(settings.quality() >= JpegSizeEncoder.MIN_QUALITY);
+        assertTrue(settings.quality() < JpegSizeEncoder.MAX_QUALITY);
+        assertEquals(1.0, settings.scale());
+    }
+
+    private static BufferedImage noise(int width, int height, int type) {
+        BufferedImage image = new BufferedImage(width, height, type);
+        Random random = new Random(42);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                image.setRGB(x, y, random.nextInt(0x1000000));
+            }
+        }
+        return image;
+    }
+
+    /**
+     * White page with a few lines of "text".
+     */
+    private static BufferedImage page(int width, int height, int type) {
+        BufferedImage image = new BufferedImage(width, height, type);
+        Graphics2D g = image.createGraphics();
+        try {
+            g.setColor(Color.WHITE);
+            g.fillRect(0, 0, width, height);
+            g.setColor(Color.BLACK);
+            for (int y = 40; y < height - 20; y += 40) {
+                g.drawString("Invoice 0000000123   Total 1 234.56 BGN", 20, y);
+            }
+        } finally {
+            g.dispose();
+        }
+        return image;
+    }
+}
@@ -0,0 +1,209 @@
+package bg.baraba.scanner.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MultipartStreamReaderTest {
+
+    private static final String BOUNDARY = "----FormBoundary7MA4YWxkTrZu0gW";
+    private static final String CONTENT_TYPE = "multipart/form-data; boundary=" + BOUNDARY;
+
+    @Test
+    void readsFieldsAndFiles() throws IOException {
+        byte[] pdf = "%PDF-1.4\r\n--not-the-boundary\r\n".getBytes(StandardCharsets.ISO_8859_1);
+        byte[] body = new Body()
+            .raw("preamble to ignore\r\n")
+            .field("companyUid", "c-1")
+            .file("files", "invoice.pdf", "application/pdf", pdf)
+            .close();
+
+        MultipartStreamReader reader = new MultipartStreamReader(new ByteArrayInputStream(body), CONTENT_TYPE);
+
+        MultipartStreamReader.Part field = reader.nextPart();
+        assertEquals("companyUid", field.name());
+        assertFalse(field.isFile());
+        assertEquals("c-1", reader.readBodyAsString(100));
+
+        MultipartStreamReader.Part file = reader.nextPart();
+        assertEquals("files", file.name());
+        assertEquals("invoice.pdf", file.fileName());
+        assertEquals("application/pdf", file.contentType());
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        reader.transferBody(out);
+        assertArrayEquals(pdf, out.toByteArray());
+
+        assertNull(reader.nextPart());
+        assertNull(reader.nextPart());
+    }
+
+    @Test
+    void streamsLargeBodyDeliveredInSmallChunks() throws IOException {
+        byte[] first = new byte[200_000];
+        byte[] second = new byte[70_000];
+        Random random = new Random(42);
+        random.nextBytes(first);
+        random.nextBytes(second);
+        byte[] body = new Body()
+            .file("files", "a.jpg", "image/jpeg", first)
+            .file("files", "b.jpg", "image/jpeg", second)
+            .close();
+
+        MultipartStreamReader reader = new MultipartStreamReader(new TricklingInputStream(body, 7), CONTENT_TYPE);
+
+        assertEquals("a.jpg", reader.nextPart().fileName());
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        reader.transferBody(out);
+        assertArrayEquals(first, out.toByteArray());
+
+        assertEquals("b.jpg", reader.nextPart().fileName());
+        out.reset();
+        reader.transferBody(out);
+        assertArrayEquals(second, out.toByteArray());
+
+        assertNull(reader.nextPart());
+    }
+
+    @Test
+    void acceptsQuotedBoundary() throws IOException {
+        byte[] body = new Body().field("tenant", "x").close();
+
+        MultipartStreamReader reader = new MultipartStreamReader(new ByteArrayInputStream(body),
+            "multipart/form-data; charset=UTF-8; boundary=\"" + BOUNDARY + "\"");
+
+        assertEquals("tenant", reader.nextPart().name());
+        assertEquals("x", reader.readBodyAsString(10));
+    }
+
+    @Test
+    void rejectsMissingBoundary() {
+        assertThrows(IllegalArgumentException.class,
+            () -> new MultipartStreamReader(new ByteArrayInputStream(new byte[0]), "multipart/form-data"));
+        assertThrows(IllegalArgumentException.class,
+            () -> new MultipartStreamReader(new ByteArrayInputStream(new byte[0]), null));
+    }
+
+    @Test
+    void rejectsFieldOverLimit() throws IOException {
+        byte[] body = new Body().field("companyUid", "0123456789").close();
+        MultipartStreamReader reader = new MultipartStreamReader(new ByteArrayInputStream(body), CONTENT_TYPE);
+
+        reader.nextPart();
+
+        assertThrows(IOException.class, () -> reader.readBodyAsString(5));
+    }
+
+    @Test
+    void rejectsTruncatedBody() throws IOException {
+        byte[] body = new Body().raw("--" + BOUNDARY + "\r\n")
+            .raw("Content-Disposition: form-data; name=\"files\"; filename=\"a.pdf\"\r\n\r\n")
+            .raw("%PDF-1.4 cut off")
+            .bytes();
+        MultipartStreamReader reader = new MultipartStreamReader(new ByteArrayInputStream(body), CONTENT_TYPE);
+
+        reader.nextPart();
+
+        assertThrows(IOException.class, () -> reader.transferBody(OutputStream.nullOutputStream()));
+    }
+
+    @Test
+    void readsNamesFromQuotedAndTokenValues() {
+        String disposition = "form-data; name=files; filename=\"invoice 1.pdf\"";
+
+        assertEquals("files", MultipartStreamReader.dispositionParam(disposition, "name"));
+        assertEquals("invoice 1.pdf", MultipartStreamReader.dispositionParam(disposition, "filename"));
+        assertNull(MultipartStreamReader.dispositionParam("form-data; name=\"companyUid\"", "filename"));
+    }
+
+    @Test
+    void keepsSemicolonsAndBackslashesInQuotedFileName() {
+        assertEquals("a;b.pdf",
+            MultipartStreamReader.dispositionParam("form-data; name=\"files\"; filename=\"a;b.pdf\"", "filename"));
+        assertEquals("C:\\scans\\x.pdf",
+            MultipartStreamReader.dispositionParam("form-data; name=\"files\"; filename=\"C:\\scans\\x.pdf\"", "filename"));
+        assertEquals("say \"hi\".pdf",
+            MultipartStreamReader.dispositionParam("form-data; name=\"files\"; filename=\"say \\\"hi\\\".pdf\"", "filename"));
+    }
+
+    @Test
+    void prefersDecodableExtendedFileName() {
+        String disposition = "form-data; name=\"files\"; filename=\"fa.pdf\"; filename*=UTF-8''%D1%84%D0%B0%D0%BA%D1%82%D1%83%D1%80%D0%B0.pdf";
+
+        assertEquals("фактура.pdf", MultipartStreamReader.dispositionParam(disposition, "filename"));
+    }
+
+    @Test
+    void fallsBackWhenExtendedFileNameIsMalformed() {
+        assertEquals("fa.pdf", MultipartStreamReader.dispositionParam(
+            "form-data; filename=\"fa.pdf\"; filename*=bogus-charset''%D1%84.pdf", "filename"));
+        assertEquals("fa.pdf", MultipartStreamReader.dispositionParam(
+            "form-data; filename=\"fa.pdf\"; filename*=UTF-8''%D", "filename"));
+        assertEquals("fa.pdf", MultipartStreamReader.dispositionParam(
+            "form-data; filename=\"fa.pdf\"; filename*=no-quotes.pdf", "filename"));
+    }
+
+    @Test
+    void readsRawUtf8FileNameFromHeader() throws IOException {
+        byte[] body = new Body().file("files", "фактура.pdf", "application/pdf", new byte[] {1, 2, 3}).close();
+        MultipartStreamReader reader = new MultipartStreamReader(new ByteArrayInputStream(body), CONTENT_TYPE);
+
+        assertEquals("фактура.pdf", reader.nextPart().fileName());
+    }
+
+    private static final class Body {
+        private final ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        Body raw(String text) {
+            out.writeBytes(text.getBytes(StandardCharsets.UTF_8));
+            return this;
+        }
+
+        Body field(String name, String value) {
+            return raw("--" + BOUNDARY + "\r\n")
+                .raw("Content-Disposition: form-data; name=\"" + name + "\"\r\n\r\n")
+                .raw(value)
+                .raw("\r\n");
+        }
+
+        Body file(String name, String fileName, String contentType, byte[] content) {
+            raw("--" + BOUNDARY + "\r\n")
+                .raw("Content-Disposition: form-data; name=\"" + name + "\"; filename=\"" + fileName + "\"\r\n")
+                .raw("Content-Type: " + contentType + "\r\n\r\n");
+            out.writeBytes(content);
+            return raw("\r\n");
+        }
+
+        byte[] close() {
+            return raw("--" + BOUNDARY + "--\r\n").bytes();
+        }
+
+        byte[] bytes() {
+            return out.toByteArray();
+        }
+    }
+
+    /**
+     * Returns at most a few bytes per read, like a slow client.
+     */
+    private static final class TricklingInputStream extends FilterInputStream {
+        private final int chunk;
+
+        TricklingInputStream(byte[] data, int chunk) {
+            super(new ByteArrayInputStream(data));
+            this.chunk = chunk;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            return super.read(b, off, Math.min(len, chunk));
+        }
+    }
+}
@@ -0,0 +1,124 @@
+package bg.baraba.scanner.service;
+
+import org.apache.pdfbox.Loader;
+import org.apache.pdfbox.cos.COSName;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.apache.pdfbox.pdmodel.PDPageContentStream;
+import org.apache.pdfbox.pdmodel.PDResources;
+import org.apache.pdfbox.pdmodel.common.PDRectangle;
+import org.apache.pdfbox.pdmodel.font.PDType1Font;
+import org.apache.pdfbox.pdmodel.font.Standard14Fonts;
+import org.apache.pdfbox.pdmodel.graphics.image.LosslessFactory;
+import org.apache.pdfbox.pdmodel.graphics.image.PDImageXObject;
+import org.apache.pdfbox.text.PDFTextStripper;
+import org.junit.jupiter.api.Test;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Optional;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PdfImageOptimizerTest {
+
+    private final PdfImageOptimizer optimizer = new PdfImageOptimizer();
+
+    @Test
+    void shrinksLargeImagesUnderBudgetAndKeepsText() throws IOException {
+        byte[] pdf = pdf(2, 800, 1000, false);
+        assertTrue(pdf.length > 2_000_000);
+
+        Optional<byte[]> optimized = optimizer.optimize(pdf, 400_000, 4000);
+
+        assertTrue(optimized.isPresent());
+        assertTrue(optimized.get().length <= 400_000, optimized.get().length + " bytes");
+        try (PDDocument document = Loader.loadPDF(optimized.get())) {
+            assertEquals(2, document.getNumberOfPages());
+            String text = new PDFTextStripper().getText(document);
+            assertTrue(text.contains("Invoice 1"));
+            assertTrue(text.contains("Invoice 2"));
+        }
+    }
+
+    @Test
+    void reencodesSharedImageOnce() throws IOException {
+        byte[] pdf = pdf(3, 800, 1000, true);
+
+        Optional<byte[]> optimized = optimizer.optimize(pdf, 300_000, 4000);
+
+        assertTrue(optimized.isPresent());
+        assertTrue(optimized.get().length <= 300_000, optimized.get().length + " bytes");
+        try (PDDocument document = Loader.loadPDF(optimized.get())) {
+            PDImageXObject first = image(document.getPage(0).getResources());
+            for (PDPage page : document.getPages()) {
+                assertSame(first.getCOSObject(), image(page.getResources()).getCOSObject());
+            }
+            assertEquals(COSName.DCT_DECODE, first.getCOSObject().getFilters());
+        }
+    }
+
+    @Test
+    void leavesSmallImagesAlone() throws IOException {
+        byte[] pdf = pdf(1, 40, 40, false);
+
+        assertEquals(Optional.empty(), optimizer.optimize(pdf, pdf.length / 2, 4000));
+    }
+
+    @Test
+    void emptyWhenRestOfDocumentExceedsBudget() throws IOException {
+        byte[] pdf = pdf(2, 800, 1000, false);
+
+        assertEquals(Optional.empty(), optimizer.optimize(pdf, 1_000, 4000));
+    }
+
+    private static PDImageXObject image(PDResources resources) throws IOException {
+        for (COSName name : resources.getXObjectNames()) {
+            if (resources.getXObject(name) instanceof PDImageXObject image) {
+                return image;
+            }
+        }
+        throw new AssertionError("page has no image");
+    }
+
+    /**
+     * A4 pages with a line of text and a losslessly embedded noisy image each.
+     * @param shared draw one image object on every page instead of one per page
+     */
+    private static byte[] pdf(int pages, int imageWidth, int imageHeight, boolean shared) throws IOException {
+        Random random = new Random(42);
+        try (PDDocument document = new PDDocument()) {
+            PDImageXObject image = null;
+            for (int i = 1; i <= pages; i++) {
+                if (image == null || !shared) {
+                    image = LosslessFactory.createFromImage(document, noise(imageWidth, imageHeight, random));
+                }
+                PDPage page = new PDPage(PDRectangle.A4);
+                document.addPage(page);
+                try (PDPageContentStream cs = new PDPageContentStream(document, page)) {
+                    cs.drawImage(image, 50, 150, 400, 500);
+                    cs.beginText();
+                    cs.setFont(new PDType1Font(Standard14Fonts.FontName.HELVETICA), 12);
+                    cs.newLineAtOffset(50, 750);
+                    cs.showText("Invoice " + i);
+                    cs.endText();
+                }
+            }
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            document.save(out);
+            return out.toByteArray();
+        }
+    }
+
+    private static BufferedImage noise(int width, int height, Random random) {
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                image.setRGB(x, y, random.nextInt(0x1000000));
+            }
+        }
+        return image;
+    }
+}
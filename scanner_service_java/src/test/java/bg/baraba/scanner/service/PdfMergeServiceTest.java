@@ -0,0 +1,122 @@
+package bg.baraba.scanner.service;
+
+import org.apache.pdfbox.Loader;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.apache.pdfbox.pdmodel.common.PDRectangle;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PdfMergeServiceTest {
+
+    @TempDir
+    Path dir;
+
+    private final PdfMergeService mergeService = new PdfMergeService();
+
+    @BeforeEach
+    void setUp() {
+        ReflectionTestUtils.setField(mergeService, "maxHeapMb", 1L);
+        ReflectionTestUtils.setField(mergeService, "tempDir", dir.toString());
+    }
+
+    @Test
+    void mergesFilesInOrderWithPageCountPerInput() throws IOException {
+        Path first = write("first.pdf", pdf(PDRectangle.A4, PDRectangle.A4));
+        Path second = write("second.pdf", pdf(PDRectangle.A5));
+        Path third = write("third.pdf", pdf(PDRectangle.LETTER, PDRectangle.LETTER, PDRectangle.LETTER));
+        Path output = dir.resolve("merged.pdf");
+
+        PdfMergeService.MergedFile merged = mergeService.mergeToFile(List.of(first, second, third), output);
+
+        assertEquals(output, merged.path());
+        assertArrayEquals(new int[] {2, 1, 3}, merged.pageCounts());
+        assertEquals(Files.size(output), merged.size());
+        try (PDDocument document = Loader.loadPDF(output.toFile())) {
+            assertEquals(6, document.getNumberOfPages());
+            assertEquals(PDRectangle.A4.getHeight(), document.getPage(1).getMediaBox().getHeight());
+            assertEquals(PDRectangle.A5.getHeight(), document.getPage(2).getMediaBox().getHeight());
+            assertEquals(PDRectangle.LETTER.getHeight(), document.getPage(5).getMediaBox().getHeight());
+        }
+    }
+
+    @Test
+    void leavesNoScratchFilesBehind() throws IOException {
+        Path first = write("first.pdf", pdf(PDRectangle.A4));
+        Path second = write("second.pdf", pdf(PDRectangle.A4));
+
+        mergeService.mergeToFile(List.of(first, second), dir.resolve("merged.pdf"));
+
+        assertEquals(Set.of("first.pdf", "second.pdf", "merged.pdf"), fileNames());
+    }
+
+    @Test
+    void failedMergeDeletesOutput() throws IOException {
+        Path valid = write("valid.pdf", pdf(PDRectangle.A4));
+        Path broken = write("broken.pdf", "%PDF-1.4 truncated".getBytes(StandardCharsets.US_ASCII));
+        Path output = dir.resolve("merged.pdf");
+
+        assertThrows(RuntimeException.class, () -> mergeService.mergeToFile(List.of(valid, broken), output));
+
+        assertFalse(Files.exists(output));
+    }
+
+    @Test
+    void mergesBytesWithPageCountPerInput() throws IOException {
+        PdfMergeService.MergedPdf merged = mergeService.merge(List.of(pdf(PDRectangle.A4, PDRectangle.A4),
+            pdf(PDRectangle.A5)));
+
+        assertArrayEquals(new int[] {2, 1}, merged.pageCounts());
+        assertEquals(3, mergeService.getPageCount(merged.data()));
+    }
+
+    @Test
+    void countsPagesOfStoredUploads() throws IOException {
+        Path pdf = write("scan.pdf", pdf(PDRectangle.A4, PDRectangle.A4, PDRectangle.A4));
+        Path image = dir.resolve("scan.png");
+        ImageIO.write(new BufferedImage(10, 10, BufferedImage.TYPE_INT_RGB), "png", image.toFile());
+        Path broken = write("broken.pdf", "%PDF-1.4 truncated".getBytes(StandardCharsets.US_ASCII));
+
+        assertEquals(3, mergeService.getPageCount(pdf));
+        assertEquals(1, mergeService.getPageCount(image));
+        assertEquals(1, mergeService.getPageCount(broken));
+        assertEquals(1, mergeService.getPageCount(dir.resolve("missing.pdf")));
+    }
+
+    private Path write(String name, byte[] content) throws IOException {
+        return Files.write(dir.resolve(name), content);
+    }
+
+    private Set<String> fileNames() throws IOException {
+        try (Stream<Path> files = Files.list(dir)) {
+            return files.map(path -> path.getFileName().toString()).collect(Collectors.toSet());
+        }
+    }
+
+    private static byte[] pdf(PDRectangle... sizes) throws IOException {
+        try (PDDocument document = new PDDocument()) {
+            for (PDRectangle size : sizes) {
+                document.addPage(new PDPage(size));
+            }
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            document.save(out);
+            return out.toByteArray();
+        }
+    }
+}
@@ -0,0 +1,103 @@
+package bg.baraba.scanner.service;
+
+import org.apache.pdfbox.Loader;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.apache.pdfbox.pdmodel.PDPageContentStream;
+import org.apache.pdfbox.pdmodel.common.PDRectangle;
+import org.apache.pdfbox.pdmodel.graphics.image.LosslessFactory;
+import org.apache.pdfbox.pdmodel.graphics.image.PDImageXObject;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PdfRasterizerTest {
+
+    private static final PDRectangle A4_LANDSCAPE =
+        new PDRectangle(PDRectangle.A4.getHeight(), PDRectangle.A4.getWidth());
+
+    private final PdfRasterizer rasterizer = new PdfRasterizer();
+
+    @BeforeEach
+    void setUp() {
+        ReflectionTestUtils.setField(rasterizer, "threads", 2);
+        rasterizer.init();
+    }
+
+    @AfterEach
+    void tearDown() {
+        rasterizer.shutdown();
+    }
+
+    @Test
+    void fitsAllPagesUnderBudget() throws IOException {
+        byte[] pdf = scannedPdf(PDRectangle.A4, PDRectangle.A4, PDRectangle.A4);
+        assertTrue(pdf.length > 1_000_000);
+
+        byte[] rasterized = rasterizer.rasterize(pdf, 300_000, 4000);
+
+        assertTrue(rasterized.length <= 300_000, rasterized.length + " bytes");
+        try (PDDocument document = Loader.loadPDF(rasterized)) {
+            assertEquals(3, document.getNumberOfPages());
+        }
+    }
+
+    @Test
+    void keepsPageOrderAndSizes() throws IOException {
+        List<PDRectangle> sizes = List.of(PDRectangle.A4, A4_LANDSCAPE, PDRectangle.A5, PDRectangle.A4);
+
+        byte[] rasterized = rasterizer.rasterize(scannedPdf(sizes.toArray(PDRectangle[]::new)), 1_000_000, 4000);
+
+        try (PDDocument document = Loader.loadPDF(rasterized)) {
+            assertEquals(sizes.size(), document.getNumberOfPages());
+            for (int i = 0; i < sizes.size(); i++) {
+                PDRectangle box = document.getPage(i).getMediaBox();
+                assertEquals(sizes.get(i).getWidth(), box.getWidth(), 1, "width of page " + (i + 1));
+                assertEquals(sizes.get(i).getHeight(), box.getHeight(), 1, "height of page " + (i + 1));
+            }
+        }
+    }
+
+    @Test
+    void rejectsBudgetTooSmallForPageCount() throws IOException {
+        byte[] pdf = scannedPdf(PDRectangle.A4, PDRectangle.A4, PDRectangle.A4);
+
+        assertThrows(IOException.class, () -> rasterizer.rasterize(pdf, 5_000, 4000));
+    }
+
+    /**
+     * PDF whose pages are each covered by a losslessly embedded noisy scan.
+     */
+    private static byte[] scannedPdf(PDRectangle... sizes) throws IOException {
+        Random random = new Random(42);
+        try (PDDocument document = new PDDocument()) {
+            for (PDRectangle size : sizes) {
+                PDPage page = new PDPage(size);
+                document.addPage(page);
+                BufferedImage scan = new BufferedImage((int) size.getWidth(), (int) size.getHeight(),
+                    BufferedImage.TYPE_INT_RGB);
+                for (int y = 0; y < scan.getHeight(); y++) {
+                    for (int x = 0; x < scan.getWidth(); x++) {
+                        scan.setRGB(x, y, random.nextInt(0x1000000));
+                    }
+                }
+                PDImageXObject image = LosslessFactory.createFromImage(document, scan);
+                try (PDPageContentStream cs = new PDPageContentStream(document, page)) {
+                    cs.drawImage(image, 0, 0, size.getWidth(), size.getHeight());
+                }
+            }
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            document.save(out);
+            return out.toByteArray();
+        }
+    }
+}
@@ -0,0 +1,144 @@
+package bg.baraba.scanner.service;
+
+import bg.baraba.scanner.model.entity.ScanSession;
+import bg.baraba.scanner.model.entity.ScanSessionFile;
+import bg.baraba.scanner.repository.ScanSessionFileRepository;
+import bg.baraba.scanner.repository.ScanSessionRepository;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.lang.reflect.Proxy;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.function.LongPredicate;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ScanSessionRecoveryServiceTest {
+
+    private final List<String> calls = new ArrayList<>();
+    private final List<Object[]> releases = new ArrayList<>();
+    private final List<Long> resumed = new ArrayList<>();
+    private LongPredicate orphanFilter;
+    private Instant orphanCutoff;
+
+    @Test
+    void escapesLikeWildcardsInPrefix() {
+        assertEquals("pod-1/%", ScanSessionRecoveryService.likePrefix("pod-1/"));
+        assertEquals("scanner!_0/%", ScanSessionRecoveryService.likePrefix("scanner_0/"));
+        assertEquals("a!%b!!c/%", ScanSessionRecoveryService.likePrefix("a%b!c/"));
+    }
+
+    @Test
+    void startupReleasesExpiredAndOwnClaimsThenResumes() {
+        ScanSessionRecoveryService recovery = recovery("scanner_0", true);
+        Instant before = Instant.now();
+
+        recovery.recoverOnStartup();
+        Instant after = Instant.now();
+
+        assertEquals(List.of("releaseExpiredClaims", "releaseClaims"), calls);
+        Instant staleBefore = (Instant) releases.get(0)[0];
+        assertFalse(staleBefore.isBefore(before.minus(Duration.ofMinutes(30))));
+        assertFalse(staleBefore.isAfter(after.minus(Duration.ofMinutes(30))));
+        assertEquals("scanner!_0/%", releases.get(1)[0]);
+        for (Object[] release : releases) {
+            assertEquals(ScanSessionFile.FileStatus.PROCESSING, release[release.length - 2]);
+            assertEquals(ScanSessionFile.FileStatus.PENDING, release[release.length - 1]);
+        }
+
+        assertEquals(Set.of(1L, 2L), Set.copyOf(resumed));
+        assertEquals(staleBefore, orphanCutoff);
+        assertFalse(orphanFilter.test(1L));
+        assertTrue(orphanFilter.test(3L));
+    }
+
+    @Test
+    void startupKeepsClaimsOfOtherRunsWithoutInstanceId() {
+        ScanSessionRecoveryService recovery = recovery("", true);
+
+        recovery.recoverOnStartup();
+
+        assertEquals(List.of("releaseExpiredClaims"), calls);
+        assertEquals(Set.of(1L, 2L), Set.copyOf(resumed));
+    }
+
+    @Test
+    void disabledRecoveryTouchesNothing() {
+        ScanSessionRecoveryService recovery = recovery("scanner-0", false);
+
+        recovery.recoverOnStartup();
+        recovery.sweep();
+
+        assertEquals(List.of(), calls);
+        assertEquals(List.of(), resumed);
+        assertNull(orphanFilter);
+    }
+
+    @Test
+    void sweepResumesActiveSessionsOnly() {
+        ScanSessionRecoveryService recovery = recovery("scanner-0", true);
+
+        recovery.sweep();
+
+        assertEquals(List.of(), calls);
+        assertEquals(Set.of(1L, 2L), Set.copyOf(resumed));
+        assertNull(orphanFilter);
+    }
+
+    private ScanSessionRecoveryService recovery(String instanceId, boolean enabled) {
+        ScanSessionRepository sessions = fake(ScanSessionRepository.class, (method, args) -> {
+            assertEquals("findByStatusIn", method);
+            assertEquals(List.of(ScanSession.SessionStatus.PENDING, ScanSession.SessionStatus.PROCESSING), args[0]);
+            return List.of(session(1L), session(2L));
+        });
+        ScanSessionFileRepository files = fake(ScanSessionFileRepository.class, (method, args) -> {
+            calls.add(method);
+            releases.add(args);
+            return 1;
+        });
+        BatchScanService batchScanService = new BatchScanService(null, null, null, null, null, null, null, null,
+                null, null, null, null) {
+            @Override
+            public void processBatchesAsync(Long sessionId) {
+                resumed.add(sessionId);
+            }
+        };
+        UploadStagingService uploadStaging = new UploadStagingService() {
+            @Override
+            public int deleteOrphans(Instant cutoff, LongPredicate sessionFinished) {
+                orphanCutoff = cutoff;
+                orphanFilter = sessionFinished;
+                return 0;
+            }
+        };
+
+        ScanSessionRecoveryService recovery =
+            new ScanSessionRecoveryService(sessions, files, batchScanService, uploadStaging);
+        ReflectionTestUtils.setField(recovery, "instanceId", instanceId);
+        ReflectionTestUtils.setField(recovery, "enabled", enabled);
+        ReflectionTestUtils.setField(recovery, "claimLeaseMinutes", 30L);
+        return recovery;
+    }
+
+    private static ScanSession session(Long id) {
+        return ScanSession.builder()
+            .id(id)
+            .companyUid("c-" + id)
+            .invoiceType(ScanSession.InvoiceType.PURCHASE)
+            .status(ScanSession.SessionStatus.PROCESSING)
+            .build();
+    }
+
+    private interface FakeMethod {
+        Object invoke(String method, Object[] args);
+    }
+
+    private static <T> T fake(Class<T> type, FakeMethod handler) {
+        return type.cast(Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[] {type},
+            (proxy, method, args) -> handler.invoke(method.getName(), args == null ? new Object[0] : args)));
+    }
+}
@@ -0,0 +1,65 @@
+package bg.baraba.scanner.service;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.util.unit.DataSize;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class UploadStagingServiceTest {
+
+    private static final String BOUNDARY = "----FormBoundary7MA4YWxkTrZu0gW";
+
+    @TempDir
+    Path tempDir;
+
+    private final UploadStagingService staging = new UploadStagingService();
+
+    @BeforeEach
+    void setUp() {
+        ReflectionTestUtils.setField(staging, "tempDir", tempDir.toString());
+        ReflectionTestUtils.setField(staging, "maxFileSize", DataSize.ofMegabytes(1));
+        ReflectionTestUtils.setField(staging, "maxRequestSize", DataSize.ofMegabytes(2));
+    }
+
+    @Test
+    void storesLastSegmentOfClientPath() {
+        assertEquals("invoice.pdf", UploadStagingService.storedName("invoice.pdf"));
+        assertEquals("invoice.pdf", UploadStagingService.storedName("C:\\scans\\invoice.pdf"));
+        assertEquals("passwd", UploadStagingService.storedName("../../etc/passwd"));
+    }
+
+    @Test
+    void fallsBackWhenClientPathHasNoName() {
+        assertEquals("upload", UploadStagingService.storedName(null));
+        assertEquals("upload", UploadStagingService.storedName("/"));
+        assertEquals("upload", UploadStagingService.storedName("C:\\"));
+        assertEquals("upload", UploadStagingService.storedName("scans/ "));
+    }
+
+    @Test
+    void stagesStreamedFileWithoutName() throws IOException {
+        String body = "--" + BOUNDARY + "\r\n" +
+            "Content-Disposition: form-data; name=\"files\"; filename=\"/\"\r\n\r\n" +
+            "%PDF-1.4\r\n" +
+            "--" + BOUNDARY + "--\r\n";
+
+        UploadStagingService.StagedUpload upload = staging.stage(
+            new ByteArrayInputStream(body.getBytes(StandardCharsets.UTF_8)),
+            "multipart/form-data; boundary=" + BOUNDARY);
+
+        UploadStagingService.UploadedFile file = upload.files().get(0);
+        assertEquals("/", file.originalName());
+        assertEquals(upload.directory(), file.path().getParent());
+        assertTrue(file.path().getFileName().toString().endsWith("_upload"));
+        assertEquals("%PDF-1.4", Files.readString(file.path()));
+    }
+}